@@ -0,0 +1,42 @@
+package controllers;
+
+import play.Configuration;
+import play.Environment;
+import play.api.OptionalSourceMapper;
+import play.api.routing.Router;
+import play.http.DefaultHttpErrorHandler;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import services.IndexQueue;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Responds with 503 Service Unavailable if a commit is refused because the index queue is full, so
+ * that clients can retry later.
+ */
+public class ErrorHandler extends DefaultHttpErrorHandler {
+
+  private static final String RETRY_AFTER_SECONDS = "30";
+
+  @Inject
+  public ErrorHandler(Configuration aConfiguration, Environment aEnvironment,
+                      OptionalSourceMapper aSourceMapper, Provider<Router> aRoutes) {
+    super(aConfiguration, aEnvironment, aSourceMapper, aRoutes);
+  }
+
+  @Override
+  public CompletionStage<Result> onServerError(Http.RequestHeader aRequest, Throwable aException) {
+    for (Throwable cause = aException; cause != null; cause = cause.getCause()) {
+      if (cause instanceof IndexQueue.FullException) {
+        return CompletableFuture.completedFuture(Results.status(Http.Status.SERVICE_UNAVAILABLE,
+          cause.getMessage()).withHeader(Http.HeaderNames.RETRY_AFTER, RETRY_AFTER_SECONDS));
+      }
+    }
+    return super.onServerError(aRequest, aException);
+  }
+}
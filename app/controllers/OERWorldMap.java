@@ -10,6 +10,7 @@ import org.apache.commons.lang3.StringUtils;
 import play.Configuration;
 import play.Environment;
 import play.Logger;
+import play.inject.ApplicationLifecycle;
 import play.mvc.Controller;
 import play.mvc.With;
 import services.AccountService;
@@ -29,6 +30,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author fo
@@ -42,6 +44,7 @@ public abstract class OERWorldMap extends Controller {
   static AccountService mAccountService;
   static final ObjectMapper mObjectMapper = new ObjectMapper();
   private static JsonSchemaValidator mSchemaValidator;
+  private static ApplicationLifecycle mLifecycle;
 
   private static synchronized void createBaseRepository(Configuration aConf) {
     if (mBaseRepository == null) {
@@ -54,6 +57,28 @@ public abstract class OERWorldMap extends Controller {
     }
   }
 
+  /**
+   * Close the repository when the application stops, so that index work still queued or buffered
+   * is written before the process exits. A later application, e.g. after a reload in development
+   * mode, creates a new repository.
+   */
+  private static synchronized void addStopHook(ApplicationLifecycle aLifecycle) {
+    if (aLifecycle != mLifecycle) {
+      mLifecycle = aLifecycle;
+      aLifecycle.addStopHook(() -> {
+        closeBaseRepository();
+        return CompletableFuture.completedFuture(null);
+      });
+    }
+  }
+
+  private static synchronized void closeBaseRepository() {
+    if (mBaseRepository != null) {
+      mBaseRepository.close();
+      mBaseRepository = null;
+    }
+  }
+
   private static synchronized void createAccountService(Configuration aConf) {
     Configuration keycloakConfig = aConf.getConfig("keycloak");
     if (mAccountService == null) {
@@ -93,6 +118,11 @@ public abstract class OERWorldMap extends Controller {
     createSchemaValidator(mConf);
   }
 
+  @Inject
+  void setLifecycle(ApplicationLifecycle aLifecycle) {
+    addStopHook(aLifecycle);
+  }
+
   Resource getUser() {
     Resource user = null;
     Logger.trace("Username " + request().username());
@@ -12,17 +12,21 @@ import play.Logger;
 import play.data.DynamicForm;
 import play.data.FormFactory;
 import play.libs.Json;
+import play.libs.concurrent.HttpExecution;
 import play.mvc.Result;
+import play.mvc.Results;
 import services.QueryContext;
 import services.SearchConfig;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * @author pvb
@@ -56,15 +60,33 @@ public class Reconciler extends OERWorldMap {
   }
 
 
-  public Result reconcile() {
+  public CompletionStage<Result> reconcile() {
     DynamicForm requestData = formFactory.form().bindFromRequest();
     JsonNode request = Json.parse(requestData.get("queries"));
     Iterator<Map.Entry<String, JsonNode>> inputQueries = request.fields();
-    return ok(reconcile(inputQueries, null, Locale.ENGLISH)); // TODO: fetch Locale from UI
+    return reconcileAsync(inputQueries, null, Locale.ENGLISH) // TODO: fetch Locale from UI
+      .thenApplyAsync(Results::ok, HttpExecution.defaultContext());
   }
 
 
+  /**
+   * Reconcile all queries, blocking until they are searched for. Queries that could not be searched
+   * for are logged and left out of the response, as by {@link #reconcileAsync}.
+   */
   public JsonNode reconcile(final Iterator<Map.Entry<String, JsonNode>> aInputQueries,
+    final QueryContext aQueryContext, final Locale aPreferredLocale) {
+    try {
+      return reconcileAsync(aInputQueries, aQueryContext, aPreferredLocale).toCompletableFuture().join();
+    } catch (CompletionException e) {
+      Logger.error("Could not query base repository.", e.getCause());
+      return Json.newObject();
+    }
+  }
+
+  /**
+   * Reconcile all queries with a single batch search, without blocking while they are searched for.
+   */
+  public CompletionStage<JsonNode> reconcileAsync(final Iterator<Map.Entry<String, JsonNode>> aInputQueries,
     final QueryContext aQueryContext, final Locale aPreferredLocale) {
     QueryContext queryContext = aQueryContext != null ? aQueryContext : getQueryContext();
     String searchConfigFile = mConf.getString("reconcile.conf.file");
@@ -72,26 +94,35 @@ public class Reconciler extends OERWorldMap {
       ? new SearchConfig(searchConfigFile)
       : new SearchConfig();
     queryContext.setElasticsearchFieldBoosts(searchConfig.getBoostsForElasticsearch());
-    ObjectNode response = Json.newObject();
 
-    try {
-      while (aInputQueries.hasNext()) {
-        Map.Entry<String, JsonNode> inputQuery = aInputQueries.next();
-        JsonNode limitNode = inputQuery.getValue().get("limit");
-        int limit = limitNode == null ? -1 : limitNode.asInt();
-        String queryString = inputQuery.getValue().get("query").asText();
-        JsonNode type = inputQuery.getValue().get("type");
-        Map<String, List<String>> typeFilter = new HashMap<>();
-        if (type != null) {
-          typeFilter.put("about.@type", Arrays.asList(type.asText()));
-        }
-        JsonNode reconciled = mBaseRepository
-          .reconcile(queryString, 0, limit, null, typeFilter, queryContext, aPreferredLocale);
-        response.set(inputQuery.getKey(), reconciled);
+    List<String> keys = new ArrayList<>();
+    List<String> queries = new ArrayList<>();
+    List<Integer> limits = new ArrayList<>();
+    List<Map<String, List<String>>> filters = new ArrayList<>();
+    while (aInputQueries.hasNext()) {
+      Map.Entry<String, JsonNode> inputQuery = aInputQueries.next();
+      JsonNode limitNode = inputQuery.getValue().get("limit");
+      JsonNode type = inputQuery.getValue().get("type");
+      Map<String, List<String>> typeFilter = new HashMap<>();
+      if (type != null) {
+        typeFilter.put("about.@type", Arrays.asList(type.asText()));
       }
-    } catch (IOException ioe) {
-      Logger.error("Could not query base repository.", ioe);
+      keys.add(inputQuery.getKey());
+      queries.add(inputQuery.getValue().get("query").asText());
+      limits.add(limitNode == null ? -1 : limitNode.asInt());
+      filters.add(typeFilter);
     }
-    return response;
+    return mBaseRepository.reconcileAsync(queries, limits, filters, queryContext, aPreferredLocale)
+      .thenApply(results -> {
+        ObjectNode response = Json.newObject();
+        for (int i = 0; i < keys.size(); i++) {
+          if (results.get(i) != null) {
+            response.set(keys.get(i), results.get(i));
+          } else {
+            Logger.error("Could not query base repository for " + keys.get(i) + ".");
+          }
+        }
+        return response;
+      });
   }
 }
@@ -1,5 +1,9 @@
 package controllers;
 
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
@@ -14,22 +18,31 @@ import models.Record;
 import models.Resource;
 import models.ResourceList;
 import models.TripleCommit;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import play.Configuration;
 import play.Environment;
 import play.Logger;
+import play.libs.Json;
+import play.libs.concurrent.HttpExecution;
 import play.mvc.Result;
 import play.mvc.With;
+import services.CloseableIterator;
 import services.QueryContext;
 import services.SearchConfig;
 import services.export.CalendarExporter;
 import services.export.CsvExporter;
 import services.export.GeoJsonExporter;
 import services.export.JsonSchemaExporter;
+import services.export.StreamingExporter;
 
 import javax.inject.Inject;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -39,10 +52,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -53,6 +72,14 @@ import java.util.stream.Collectors;
 public class ResourceIndex extends OERWorldMap {
 
   private GeoJsonExporter mGeoJsonExporter = new GeoJsonExporter();
+  // Exports beyond this number wait for a running one to complete
+  private static final int MAX_CONCURRENT_EXPORTS = 4;
+  private static final ExecutorService mExportExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_EXPORTS,
+    runnable -> {
+      Thread thread = new Thread(runnable, "export");
+      thread.setDaemon(true);
+      return thread;
+    });
 
   @Inject
   public ResourceIndex(Configuration aConf, Environment aEnv) {
@@ -60,25 +87,158 @@ public class ResourceIndex extends OERWorldMap {
   }
 
   @With(Cached.class)
-  public Result list(String q, int from, int size, String sort, String extension,
+  public CompletionStage<Result> list(String q, int from, int size, String sort, String extension,
     String iso3166, String region, String disposition) {
 
-    Map<String, List<String>> filters = new HashMap<>();
     QueryContext queryContext = getQueryContext();
+    if (!setScope(queryContext, iso3166, region)) {
+      return CompletableFuture.completedFuture(notFound("Not found"));
+    }
+    Map<String, List<String>> filters = getFilters();
+    setBoundingBox(queryContext);
+
+    // Check for fields to fetch
+    if (ctx().request().queryString().containsKey("fields")) {
+      queryContext.setFetchSource(ctx().request().queryString().get("fields"));
+    }
+
+    // Check for facets to count along with the results
+    if (ctx().request().queryString().containsKey("facets")) {
+      List<String> facets = new ArrayList<>();
+      for (String facet : ctx().request().queryString().get("facets")) {
+        facets.addAll(Arrays.asList(facet.split(",")));
+      }
+      queryContext.setFacets(facets);
+    }
+    String searchConfigFile = mConf.getString("search.conf.file");
+    SearchConfig searchConfig = searchConfigFile != null
+      ? new SearchConfig(searchConfigFile)
+      : new SearchConfig();
+    queryContext.setElasticsearchFieldBoosts(searchConfig.getBoostsForElasticsearch());
+
+    String format = StringUtils.isEmpty(extension)
+      ? MimeTypes.fromRequest(request())
+      : MimeTypes.fromExtension(extension);
+
+    // Exports only fetch the fields they read, unless fields were requested explicitly. The type is
+    // also needed to decide whether to link to a calendar export.
+    StreamingExporter exporter = getStreamingExporter(format);
+    if (exporter != null && exporter.getSourceFields().length > 0
+      && !ctx().request().queryString().containsKey("fields")) {
+      queryContext.setFetchSource(ArrayUtils.add(exporter.getSourceFields(), "about.@type"));
+    }
+
+    // Complete exports are written while they are read from the index instead of being queried
+    StreamingExporter streamingExporter = size == -1 ? exporter : null;
+    CompletionStage<ResourceList> query = streamingExporter == null
+      ? mBaseRepository.queryAsync(q, from, size, sort, filters, queryContext)
+      : CompletableFuture.completedFuture(null);
+
+    // Respond once the query completed, without blocking a thread meanwhile
+    return query.thenApplyAsync(resourceList -> {
+      String baseUrl = mConf.getString("proxy.host");
+      String filterString = "";
+      for (Map.Entry<String, List<String>> filter : filters.entrySet()) {
+        String filterKey = "filter.".concat(filter.getKey());
+        for (String filterValue : filter.getValue()) {
+          try {
+            filterString = filterString.concat("&".concat(filterKey).concat("=").concat(URLEncoder.encode(filterValue,
+              StandardCharsets.UTF_8.name())));
+          } catch (UnsupportedEncodingException e) {
+            Logger.error("Unhandeled encoding", e);
+          }
+        }
+      }
+
+      Set<String> alternates = MimeTypes.all().keySet();
+      boolean containsEvents = resourceList != null
+        ? resourceList.containsType("Event")
+        : !filters.containsKey("about.@type") || filters.get("about.@type").contains("Event");
+      if (!containsEvents) {
+        alternates.remove("ics");
+      }
+      List<String> links = new ArrayList<>();
+      for (String alternate : alternates) {
+        String linkUrl = baseUrl.concat(routes.ResourceIndex.list(q, 0, -1, sort, alternate,
+          iso3166, region, disposition).url().concat(filterString));
+        links.add(String.format("<%s>; rel=\"alternate\"; type=\"%s\"", linkUrl,
+          MimeTypes.fromExtension(alternate)));
+      }
+
+      response().setHeader("Link", String.join(", ", links));
+      if (!StringUtils.isEmpty(extension)) {
+        response()
+          .setHeader("Content-Disposition", "inline".equals(disposition) ? "inline" : "attachment");
+      }
+
+      if (format == null) {
+        return notFound("Not found");
+      } else if (streamingExporter != null) {
+        return ok().chunked(export(mBaseRepository.scroll(q, sort, filters, queryContext), streamingExporter))
+          .as(format);
+      } else if (format.equals("text/csv")) {
+        return ok(getCsvExporter().export(resourceList)).as("text/csv");
+      } else if (format.equals("text/calendar")) {
+        return ok(new CalendarExporter(Locale.ENGLISH).export(resourceList)).as("text/calendar");
+      } else if (format.equals("application/json")) {
+        Resource result = resourceList.toResource();
+        if (!StringUtils.isEmpty(iso3166)) {
+          if (!StringUtils.isEmpty(iso3166)) {
+            result.put("iso3166", iso3166.toUpperCase());
+          }
+        }
+        JsonNode rString = result.toJson();
+        return ok(rString).as("application/json");
+      } else if (format.equals("application/geo+json")) {
+        return ok(mGeoJsonExporter.export(resourceList)).as("application/geo+json");
+      } else if (format.equals("application/schema+json")) {
+        return ok(new JsonSchemaExporter().export(resourceList)).as("application/schema+json");
+      }
+
+      return notFound("Not found");
+    }, HttpExecution.defaultContext());
+  }
+
+  /**
+   * Cluster the resources matching a query and the filters of the list, e.g. to show them on a map.
+   * The response is cached per request, so that map tiles requested with the same bounding box and
+   * zoom level are only clustered once as long as the index did not change.
+   */
+  @With(Cached.class)
+  public CompletionStage<Result> clusters(String q, int zoom, String iso3166, String region) {
+    QueryContext queryContext = getQueryContext();
+    if (!setScope(queryContext, iso3166, region)) {
+      return CompletableFuture.completedFuture(notFound("Not found"));
+    }
+    Map<String, List<String>> filters = getFilters();
+    setBoundingBox(queryContext);
+    return mBaseRepository.clusterAsync(q, zoom, filters, queryContext)
+      .thenApplyAsync(clusters -> ok(clusters).as("application/geo+json"), HttpExecution.defaultContext());
+  }
 
+  /**
+   * @return False if the ISO 3166 param is not a known country code
+   */
+  private boolean setScope(QueryContext aQueryContext, String iso3166, String region) {
     // Handle ISO 3166 param
     if (!StringUtils.isEmpty(iso3166)) {
       if (!Arrays.asList(Locale.getISOCountries()).contains(iso3166.toUpperCase())) {
-        return notFound("Not found");
+        return false;
       }
-      queryContext.setIso3166Scope(iso3166.toUpperCase());
+      aQueryContext.setIso3166Scope(iso3166.toUpperCase());
     }
 
     // Handle region param
     if (!StringUtils.isEmpty(iso3166) && !StringUtils.isEmpty(region)) {
-      queryContext.setRegionScope(iso3166.toUpperCase().concat(".").concat(region.toUpperCase()));
+      aQueryContext.setRegionScope(iso3166.toUpperCase().concat(".").concat(region.toUpperCase()));
     }
 
+    return true;
+  }
+
+  private Map<String, List<String>> getFilters() {
+    Map<String, List<String>> filters = new HashMap<>();
+
     // Extract filters directly from query params
     Pattern filterPattern = Pattern.compile("^filter\\.(.*)$");
     for (Map.Entry<String, String[]> entry : ctx().request().queryString().entrySet()) {
@@ -117,92 +277,70 @@ public class ResourceIndex extends OERWorldMap {
       filters.remove("about.startDate.GTE");
     }
 
+    return filters;
+  }
+
+  private void setBoundingBox(QueryContext aQueryContext) {
     // Check for bounding box
     String[] boundingBoxParam = ctx().request().queryString().get("boundingBox");
     if (boundingBoxParam != null && boundingBoxParam.length > 0) {
       String boundingBox = boundingBoxParam[0];
       if (boundingBox != null) {
         try {
-          queryContext.setBoundingBox(boundingBox);
+          aQueryContext.setBoundingBox(boundingBox);
         } catch (NumberFormatException e) {
           Logger.trace("Invalid bounding box: ".concat(boundingBox), e);
         }
       }
     }
+  }
 
-    // Check for fields to fetch
-    if (ctx().request().queryString().containsKey("fields")) {
-      queryContext.setFetchSource(ctx().request().queryString().get("fields"));
-    }
-    String searchConfigFile = mConf.getString("search.conf.file");
-    SearchConfig searchConfig = searchConfigFile != null
-      ? new SearchConfig(searchConfigFile)
-      : new SearchConfig();
-    queryContext.setElasticsearchFieldBoosts(searchConfig.getBoostsForElasticsearch());
-    ResourceList resourceList = mBaseRepository.query(q, from, size, sort, filters, queryContext);
-
-    String baseUrl = mConf.getString("proxy.host");
-    String filterString = "";
-    for (Map.Entry<String, List<String>> filter : filters.entrySet()) {
-      String filterKey = "filter.".concat(filter.getKey());
-      for (String filterValue : filter.getValue()) {
-        try {
-          filterString = filterString.concat("&".concat(filterKey).concat("=").concat(URLEncoder.encode(filterValue,
-            StandardCharsets.UTF_8.name())));
-        } catch (UnsupportedEncodingException e) {
-          Logger.error("Unhandeled encoding", e);
-        }
-      }
-    }
-
-    Set<String> alternates = MimeTypes.all().keySet();
-    if (!resourceList.containsType("Event")) {
-      alternates.remove("ics");
-    }
-    List<String> links = new ArrayList<>();
-    for (String alternate : alternates) {
-      String linkUrl = baseUrl.concat(routes.ResourceIndex.list(q, 0, -1, sort, alternate,
-        iso3166, region, disposition).url().concat(filterString));
-      links.add(String.format("<%s>; rel=\"alternate\"; type=\"%s\"", linkUrl,
-        MimeTypes.fromExtension(alternate)));
-    }
+  private CsvExporter getCsvExporter() {
+    return request().hasHeader("X-CSV-HEADERS")
+      ? new CsvExporter(Arrays.stream(request().getHeader("X-CSV-HEADERS").split(","))
+        .map(Pattern::compile).collect(Collectors.toList()))
+      : new CsvExporter();
+  }
 
-    response().setHeader("Link", String.join(", ", links));
-    if (!StringUtils.isEmpty(extension)) {
-      response()
-        .setHeader("Content-Disposition", "inline".equals(disposition) ? "inline" : "attachment");
+  private StreamingExporter getStreamingExporter(String aFormat) {
+    if ("text/csv".equals(aFormat)) {
+      return getCsvExporter();
+    } else if ("text/calendar".equals(aFormat)) {
+      return new CalendarExporter(Locale.ENGLISH);
+    } else if ("application/geo+json".equals(aFormat)) {
+      return mGeoJsonExporter;
     }
+    return null;
+  }
 
-    String format = StringUtils.isEmpty(extension)
-      ? MimeTypes.fromRequest(request())
-      : MimeTypes.fromExtension(extension);
-
-    if (format == null) {
-      return notFound("Not found");
-    } else if (format.equals("text/csv")) {
-      CsvExporter csvExporter = request().hasHeader("X-CSV-HEADERS")
-        ? new CsvExporter(Arrays.stream(request().getHeader("X-CSV-HEADERS").split(","))
-          .map(Pattern::compile).collect(Collectors.toList()))
-        : new CsvExporter();
-      return ok(csvExporter.export(resourceList)).as("text/csv");
-    } else if (format.equals("text/calendar")) {
-      return ok(new CalendarExporter(Locale.ENGLISH).export(resourceList)).as("text/calendar");
-    } else if (format.equals("application/json")) {
-      Resource result = resourceList.toResource();
-      if (!StringUtils.isEmpty(iso3166)) {
-        if (!StringUtils.isEmpty(iso3166)) {
-          result.put("iso3166", iso3166.toUpperCase());
+  /**
+   * Export resources to a chunked response. The export is written on a separate thread, which
+   * blocks while the client is not reading, so that memory use is constant.
+   */
+  private static Source<ByteString, ?> export(Iterable<Resource> aResources, StreamingExporter aExporter) {
+    return StreamConverters.asOutputStream().mapMaterializedValue(outputStream -> {
+      mExportExecutor.execute(() -> {
+        // Scrolls are released even if the client went away or the export failed
+        List<Iterator<Resource>> iterators = new ArrayList<>();
+        Iterable<Resource> resources = () -> {
+          Iterator<Resource> iterator = aResources.iterator();
+          iterators.add(iterator);
+          return iterator;
+        };
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8))) {
+          aExporter.export(resources, writer);
+        } catch (IOException | UncheckedIOException e) {
+          Logger.error("Failed to export resources", e);
+        } finally {
+          for (Iterator<Resource> iterator : iterators) {
+            if (iterator instanceof CloseableIterator) {
+              ((CloseableIterator<?>) iterator).close();
+            }
+          }
         }
-      }
-      JsonNode rString = result.toJson();
-      return ok(rString).as("application/json");
-    } else if (format.equals("application/geo+json")) {
-      return ok(mGeoJsonExporter.export(resourceList)).as("application/geo+json");
-    } else if (format.equals("application/schema+json")) {
-      return ok(new JsonSchemaExporter().export(resourceList)).as("application/schema+json");
-    }
-
-    return notFound("Not found");
+      });
+      return outputStream;
+    });
   }
 
   public Result importResources() throws IOException {
@@ -459,6 +597,22 @@ public class ResourceIndex extends OERWorldMap {
     return ok("Indexed ".concat(aId));
   }
 
+  public Result reindex(String aCursor, boolean aRebuild) {
+    if (aRebuild) {
+      return mBaseRepository.rebuildIndex() ? ok("Rebuilding index") : status(409, "Already rebuilding index");
+    }
+    mBaseRepository.reindex(aCursor);
+    return ok(aCursor == null ? "Reindexing" : "Reindexing after ".concat(aCursor));
+  }
+
+  public Result deletePreviousIndices() throws IOException {
+    return ok(Json.toJson(mBaseRepository.deletePreviousIndices()));
+  }
+
+  public Result indexStatus() {
+    return ok(Json.toJson(mBaseRepository.getIndexStatus()));
+  }
+
   public Result commentResource(String aId) throws IOException {
 
     Resource resource = mBaseRepository.getResource(aId);
@@ -486,12 +640,17 @@ public class ResourceIndex extends OERWorldMap {
     return created(comment.toJson());
   }
 
-  public Result feed() throws IOException {
-    ResourceList resourceList = mBaseRepository
-      .query("", 0, 20, "dateCreated:DESC", null, getQueryContext());
-    Map<String, Object> scope = new HashMap<>();
-    scope.put("resources", resourceList.toResource());
-    return ok(mObjectMapper.writeValueAsString(scope));
+  public CompletionStage<Result> feed() {
+    return mBaseRepository.queryAsync("", 0, 20, "dateCreated:DESC", null, getQueryContext())
+      .thenApplyAsync(resourceList -> {
+        Map<String, Object> scope = new HashMap<>();
+        scope.put("resources", resourceList.toResource());
+        try {
+          return ok(mObjectMapper.writeValueAsString(scope));
+        } catch (JsonProcessingException e) {
+          throw new CompletionException(e);
+        }
+      }, HttpExecution.defaultContext());
   }
 
   public Result label(String aId) throws UnsupportedEncodingException {
@@ -87,8 +87,7 @@ public class Sparql extends OERWorldMap {
       true);
 
     Commit commit = new TripleCommit(header, diff);
-    mBaseRepository.commit(commit);
-    mBaseRepository.index(commit.getDiff());
+    mBaseRepository.commit(commit, true);
     return ok(commit.toString());
   }
 }
@@ -16,6 +16,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Created by fo on 24.03.16.
@@ -25,7 +28,11 @@ public class GraphHistory {
   private final File mCommitDir;
   private final File mHistoryFile;
   private final Map<String, List<Commit>> mIndex;
+  private final Map<String, Integer> mVersions = new ConcurrentHashMap<>();
   private final List<Commit> mLog;
+  private final List<Consumer<Commit>> mListeners = new CopyOnWriteArrayList<>();
+  // The number of entries in the history file, including commits that could not be read
+  private int mHeadVersion = 0;
 
 
   public GraphHistory(File aCommitDir, File aHistoryFile) {
@@ -41,7 +48,11 @@ public class GraphHistory {
     mLog = new ArrayList<>();
 
     for (Commit commit : this.fetch()) {
-      indexCommit(commit);
+      if (commit == null) {
+        skipCommit();
+      } else {
+        indexCommit(commit);
+      }
     }
   }
 
@@ -51,6 +62,19 @@ public class GraphHistory {
     FileUtils.writeStringToFile(commitFile, aCommit.toString(), StandardCharsets.UTF_8);
     FileUtils.writeStringToFile(mHistoryFile, commitId.concat("\n"), StandardCharsets.UTF_8, true);
     indexCommit(aCommit);
+    for (Consumer<Commit> listener : mListeners) {
+      listener.accept(aCommit);
+    }
+  }
+
+  /**
+   * Register a listener that is notified of each commit added to the history, in the order the
+   * commits are added.
+   *
+   * @param aListener The listener
+   */
+  public void addListener(Consumer<Commit> aListener) {
+    mListeners.add(aListener);
   }
 
   public int size() {
@@ -68,7 +92,33 @@ public class GraphHistory {
     return mIndex.get(aURI);
   }
 
-  public List<Commit> until(String aCommitId) {
+  /**
+   * Get the version of a node, i.e. the line of the latest commit that touched it in the history
+   * file. Lines of commits that could not be read are counted, so that the version of a commit does
+   * not change when a commit before it becomes unreadable. Versions only ever increase.
+   *
+   * @param aURI The URI of the node
+   * @return The version of the node, 0 if it was never touched
+   */
+  public int getVersion(String aURI) {
+    return mVersions.getOrDefault(aURI, 0);
+  }
+
+  /**
+   * @return The version of the latest commit, 0 if the history is empty
+   */
+  public synchronized int getHeadVersion() {
+    return mHeadVersion;
+  }
+
+  /**
+   * @return The id of the latest commit or null if the history is empty
+   */
+  public synchronized String getHeadId() {
+    return mLog.isEmpty() ? null : mLog.get(0).getId();
+  }
+
+  public synchronized List<Commit> until(String aCommitId) {
     List<Commit> commits = new ArrayList<>();
     for (Commit commit : log()) {
       if (commit.getId().equals(aCommitId)) {
@@ -79,6 +129,9 @@ public class GraphHistory {
     return commits;
   }
 
+  /**
+   * @return The commits in the order of the history file, null for commits that could not be read
+   */
   private List<Commit> fetch() {
     List<String> commitIds;
     try {
@@ -96,6 +149,7 @@ public class GraphHistory {
         commits.add(commit);
       } catch (IllegalArgumentException | IOException e) {
         Logger.trace("Could not read commit, skipping", e);
+        commits.add(null);
       }
     }
     return commits;
@@ -116,9 +170,15 @@ public class GraphHistory {
     return modified;
   }
 
-  private void indexCommit(Commit aCommit) {
+  private synchronized void skipCommit() {
+    mHeadVersion++;
+  }
+
+  private synchronized void indexCommit(Commit aCommit) {
     mLog.add(0, aCommit);
+    int version = ++mHeadVersion;
     for (String id : getModified(aCommit)) {
+      mVersions.put(id, version);
       if (!mIndex.containsKey(id)) {
         mIndex.put(id, new ArrayList<>());
       }
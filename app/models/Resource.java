@@ -8,17 +8,14 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import helpers.JsonLdConstants;
+import org.apache.jena.atlas.RuntimeIOException;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 import play.Logger;
+import services.JsonLdReader;
 
 import javax.validation.constraints.NotNull;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -134,8 +131,11 @@ public class Resource extends HashMap<String, Object> implements Comparable<Reso
   public Model toModel() {
 
     Model model = ModelFactory.createDefaultModel();
-    InputStream stream = new ByteArrayInputStream(this.toString().getBytes(StandardCharsets.UTF_8));
-    RDFDataMgr.read(model, stream, Lang.JSONLD);
+    try {
+      JsonLdReader.read(model, this.toString());
+    } catch (IOException e) {
+      throw new RuntimeIOException(e);
+    }
     return model;
   }
 
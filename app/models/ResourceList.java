@@ -11,6 +11,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +34,8 @@ public class ResourceList {
 
   private Map<String, List<String>> filters;
 
+  private Map<String, Map<String, Long>> facets;
+
   private static URIBuilder getURIBuilder() throws URISyntaxException {
     return new URIBuilder("");
   }
@@ -66,6 +69,17 @@ public class ResourceList {
     return items;
   }
 
+  public Map<String, Map<String, Long>> getFacets() {
+    return facets;
+  }
+
+  /**
+   * @param aFacets The number of results per term, by facet name, ordered by count
+   */
+  public void setFacets(Map<String, Map<String, Long>> aFacets) {
+    facets = aFacets;
+  }
+
   private void addParam(List<NameValuePair> params, String name, String value) {
     if (!StringUtils.isEmpty(value)) {
       params.add(new BasicNameValuePair(name, value));
@@ -218,6 +232,9 @@ public class ResourceList {
       if (sort != null) {
         pagedCollection.put("sort", sort);
       }
+      if (facets != null) {
+        pagedCollection.put("facets", getFacetBuckets());
+      }
     } catch (URISyntaxException e) {
       Logger.error("Failed to build URI", e);
     }
@@ -225,6 +242,21 @@ public class ResourceList {
     return pagedCollection;
   }
 
+  private Map<String, List<Map<String, Object>>> getFacetBuckets() {
+    Map<String, List<Map<String, Object>>> facetBuckets = new LinkedHashMap<>();
+    for (Map.Entry<String, Map<String, Long>> facet : facets.entrySet()) {
+      List<Map<String, Object>> buckets = new ArrayList<>();
+      for (Map.Entry<String, Long> count : facet.getValue().entrySet()) {
+        Map<String, Object> bucket = new LinkedHashMap<>();
+        bucket.put("key", count.getKey());
+        bucket.put("doc_count", count.getValue());
+        buckets.add(bucket);
+      }
+      facetBuckets.put(facet.getKey(), buckets);
+    }
+    return facetBuckets;
+  }
+
   public boolean containsType(String aType) {
     for (Resource item : items) {
       if (item.getAsResource("about") != null && aType
@@ -10,8 +10,6 @@ import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Statement;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.shared.Lock;
 
 import java.io.FileInputStream;
@@ -44,7 +42,7 @@ public class BroaderConceptEnricher implements ResourceEnricher {
       if (inputStream == null) {
         inputStream = new FileInputStream("public/json/esc.json");
       }
-      RDFDataMgr.read(mConceptSchemes, inputStream, Lang.JSONLD);
+      JsonLdReader.read(mConceptSchemes, inputStream);
     } catch (IOException e) {
       throw new RuntimeIOException(e);
     }
@@ -56,7 +54,7 @@ public class BroaderConceptEnricher implements ResourceEnricher {
       if (inputStream == null) {
         inputStream = new FileInputStream("public/json/isced-1997.json");
       }
-      RDFDataMgr.read(mConceptSchemes, inputStream, Lang.JSONLD);
+      JsonLdReader.read(mConceptSchemes, inputStream);
     } catch (IOException e) {
       throw new RuntimeIOException(e);
     }
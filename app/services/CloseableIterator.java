@@ -0,0 +1,14 @@
+package services;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator holding resources, such as a scroll, that must be released once it is no longer
+ * needed. Iterators that are abandoned before they were exhausted should be closed.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+  @Override
+  void close();
+}
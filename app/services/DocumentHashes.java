@@ -0,0 +1,149 @@
+package services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import models.Resource;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import play.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a hash of the last document written to the index for each resource, so that writing a
+ * document that did not change can be skipped. Hashes are computed from the framed resource and its
+ * metadata with map entries ordered by key.
+ */
+public class DocumentHashes {
+
+  private final ObjectMapper mObjectMapper = new ObjectMapper()
+    .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+  private final Map<String, Long> mHashes = new ConcurrentHashMap<>();
+  private final LongAdder mWritten = new LongAdder();
+  private final LongAdder mSkipped = new LongAdder();
+
+  /**
+   * @param aResource The framed resource
+   * @param aMetadata The metadata of the resource
+   * @return The hash of the document for the resource
+   */
+  public long hash(Resource aResource, Map<String, String> aMetadata) throws IOException {
+    byte[] resource = mObjectMapper.writeValueAsBytes(aResource);
+    byte[] metadata = mObjectMapper.writeValueAsBytes(new TreeMap<>(aMetadata));
+    byte[] bytes = new byte[resource.length + metadata.length];
+    System.arraycopy(resource, 0, bytes, 0, resource.length);
+    System.arraycopy(metadata, 0, bytes, resource.length, metadata.length);
+    return ByteBuffer.wrap(DigestUtils.md5(bytes)).getLong();
+  }
+
+  /**
+   * Check whether a document needs to be written. The hash is not recorded until the document was
+   * actually written, see {@link #put}.
+   *
+   * @param aId The id of the resource
+   * @param aHash The hash of the document
+   * @param aForce Whether the document is written even if it did not change
+   * @return Whether the document needs to be written
+   */
+  public boolean isChanged(String aId, long aHash, boolean aForce) {
+    Long previous = mHashes.get(aId);
+    if (aForce || previous == null || previous != aHash) {
+      mWritten.increment();
+      return true;
+    }
+    mSkipped.increment();
+    return false;
+  }
+
+  /**
+   * Record the hash of a document that was written.
+   *
+   * @param aId The id of the resource
+   * @param aHash The hash of the document
+   */
+  public void put(String aId, long aHash) {
+    mHashes.put(aId, aHash);
+  }
+
+  /**
+   * Forget the hash of a document, e.g. because it was deleted.
+   *
+   * @param aId The id of the resource
+   */
+  public void remove(String aId) {
+    mHashes.remove(aId);
+  }
+
+  /**
+   * Forget all hashes, e.g. because documents were written to another index.
+   */
+  public void clear() {
+    mHashes.clear();
+  }
+
+  /**
+   * Load hashes saved before and delete the file, so that hashes are not used again after a crash,
+   * when the index may have been written after they were saved.
+   *
+   * @param aFile The file to load from
+   */
+  public void load(File aFile) {
+    if (!aFile.isFile()) {
+      return;
+    }
+    try {
+      for (String line : FileUtils.readLines(aFile, StandardCharsets.UTF_8)) {
+        int separator = line.lastIndexOf('\t');
+        if (separator > 0) {
+          mHashes.put(line.substring(0, separator), Long.parseUnsignedLong(line.substring(separator + 1), 16));
+        }
+      }
+      Files.delete(aFile.toPath());
+      Logger.info("Loaded " + mHashes.size() + " document hashes");
+    } catch (IOException | NumberFormatException e) {
+      Logger.error("Could not load document hashes from " + aFile, e);
+      mHashes.clear();
+    }
+  }
+
+  /**
+   * @param aFile The file to save to, replaced atomically
+   */
+  public void save(File aFile) {
+    List<String> lines = new ArrayList<>(mHashes.size());
+    mHashes.forEach((id, hash) -> lines.add(id + '\t' + Long.toHexString(hash)));
+    File tmp = new File(aFile.getPath().concat(".tmp"));
+    try {
+      FileUtils.writeLines(tmp, StandardCharsets.UTF_8.name(), lines);
+      Files.move(tmp.toPath(), aFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Logger.error("Could not save document hashes to " + aFile, e);
+    }
+  }
+
+  /**
+   * @return The number of documents written and skipped because they did not change, and the
+   * ratio of skipped documents
+   */
+  public Map<String, Number> getMetrics() {
+    Map<String, Number> metrics = new TreeMap<>();
+    long written = mWritten.sum();
+    long skipped = mSkipped.sum();
+    metrics.put("written", written);
+    metrics.put("skipped", skipped);
+    metrics.put("skip_ratio", written + skipped > 0 ? (double) skipped / (written + skipped) : 0);
+    return metrics;
+  }
+}
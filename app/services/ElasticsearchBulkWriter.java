@@ -0,0 +1,336 @@
+package services;
+
+import com.typesafe.config.Config;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.rest.RestStatus;
+import play.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Buffers write requests to Elasticsearch and sends them as bulk requests once a number of actions
+ * or bytes is buffered or a flush interval elapses. Requests rejected because Elasticsearch is
+ * overloaded are retried with exponential backoff by this writer, not by the bulk processor, which
+ * does not reliably see rejections through the REST client. Per-item failures are logged and counted by
+ * status, except for version conflicts, which are expected when an outdated version of a document
+ * is written after a newer one, and partial updates of documents that do not exist, which are only
+ * counted.
+ */
+public class ElasticsearchBulkWriter implements Closeable {
+
+  private final Runnable mRefresh;
+  private final BulkProcessor mBulkProcessor;
+  private final ScheduledExecutorService mRetryScheduler;
+  private final long mInitialBackoff;
+  private final int mMaxRetries;
+  private volatile Runnable mListener;
+  private volatile Consumer<String> mFailureListener;
+  private volatile Consumer<String> mWriteListener;
+
+  // The number of recently added documents whose newest version is remembered
+  private static final int RECENT_VERSIONS = 10000;
+
+  private final Map<String, Long> mRecentVersions = Collections.synchronizedMap(
+    new LinkedHashMap<String, Long>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> aEldest) {
+        return size() > RECENT_VERSIONS;
+      }
+    });
+  private final Map<DocWriteRequest<?>, Integer> mAttempts = Collections.synchronizedMap(new IdentityHashMap<>());
+  private int mPending = 0;
+
+  private final LongAdder mBulks = new LongAdder();
+  private final LongAdder mItems = new LongAdder();
+  private final LongAdder mFailedItems = new LongAdder();
+  private final LongAdder mFailedBulks = new LongAdder();
+  private final LongAdder mRetries = new LongAdder();
+  private final LongAdder mConflicts = new LongAdder();
+  private final LongAdder mMissing = new LongAdder();
+  private final Map<String, LongAdder> mFailures = new ConcurrentHashMap<>();
+
+  public ElasticsearchBulkWriter(RestHighLevelClient aClient, String aIndex,
+                                 WriteRequest.RefreshPolicy aRefreshPolicy, Config aConfiguration) {
+    this(aClient::bulkAsync, WriteRequest.RefreshPolicy.NONE.equals(aRefreshPolicy) ? null : () -> {
+      try {
+        aClient.getLowLevelClient().performRequest("POST", "/".concat(aIndex).concat("/_refresh"));
+      } catch (IOException e) {
+        Logger.error("Could not refresh index " + aIndex, e);
+      }
+    }, aConfiguration);
+  }
+
+  /**
+   * @param aConsumer Sends a bulk request
+   * @param aRefresh Refreshes the index after a flush, may be null
+   * @param aConfiguration The configuration, may be null to use defaults
+   */
+  ElasticsearchBulkWriter(BiConsumer<BulkRequest, ActionListener<BulkResponse>> aConsumer, Runnable aRefresh,
+                          Config aConfiguration) {
+    mRefresh = aRefresh;
+    mInitialBackoff = getInt(aConfiguration, "es.bulk.backoff.initial", 100);
+    mMaxRetries = getInt(aConfiguration, "es.bulk.backoff.retries", 8);
+    mRetryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "elasticsearch-bulk-retry");
+      thread.setDaemon(true);
+      return thread;
+    });
+    mBulkProcessor = BulkProcessor.builder(aConsumer, new Listener())
+      .setBulkActions(getInt(aConfiguration, "es.bulk.actions", 1000))
+      .setBulkSize(new ByteSizeValue(getInt(aConfiguration, "es.bulk.size", 5), ByteSizeUnit.MB))
+      .setFlushInterval(TimeValue.timeValueSeconds(getInt(aConfiguration, "es.bulk.flush.interval", 5)))
+      .setConcurrentRequests(getInt(aConfiguration, "es.bulk.concurrent.requests", 1))
+      .setBackoffPolicy(BackoffPolicy.noBackoff())
+      .build();
+  }
+
+  private static int getInt(Config aConfiguration, String aPath, int aDefault) {
+    return aConfiguration != null && aConfiguration.hasPath(aPath) ? aConfiguration.getInt(aPath) : aDefault;
+  }
+
+  /**
+   * @param aListener Called whenever documents were written and after the index was refreshed
+   */
+  public void setListener(Runnable aListener) {
+    mListener = aListener;
+  }
+
+  /**
+   * @param aListener Called with the id of each document that could not be written, once retries
+   *                  are exhausted
+   */
+  public void setFailureListener(Consumer<String> aListener) {
+    mFailureListener = aListener;
+  }
+
+  /**
+   * @param aListener Called with the id of each document once it was written
+   */
+  public void setWriteListener(Consumer<String> aListener) {
+    mWriteListener = aListener;
+  }
+
+  public void add(DocWriteRequest<?> aRequest) {
+    if (VersionType.EXTERNAL_GTE.equals(aRequest.versionType()) && aRequest.id() != null) {
+      mRecentVersions.merge(aRequest.id(), aRequest.version(), Math::max);
+    }
+    mBulkProcessor.add(aRequest);
+  }
+
+  /**
+   * Send all buffered requests and wait until they, including any retries, are done. If a refresh
+   * policy other than NONE is configured, the index is refreshed afterwards so that the documents
+   * are visible to search. Documents that could not be written are reported to the failure
+   * listener before this returns.
+   *
+   * @return False if waiting for the requests timed out or was interrupted
+   */
+  public boolean flush() {
+    mBulkProcessor.flush();
+    synchronized (this) {
+      long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+      while (mPending > 0 && System.currentTimeMillis() < deadline) {
+        try {
+          wait(deadline - System.currentTimeMillis());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      if (mPending > 0) {
+        Logger.warn("Timed out waiting for " + mPending + " bulk requests");
+        return false;
+      }
+    }
+    if (mRefresh != null) {
+      mRefresh.run();
+      notifyListener();
+    }
+    return true;
+  }
+
+  private void notifyListener() {
+    Runnable listener = mListener;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  /**
+   * @return The number of bulk requests, indexed items, failed items, failed bulk requests, retries,
+   * items rejected because of a version conflict and updates of missing documents, and failed items
+   * by status
+   */
+  public Map<String, Long> getMetrics() {
+    Map<String, Long> metrics = new TreeMap<>();
+    metrics.put("bulks", mBulks.sum());
+    metrics.put("items", mItems.sum());
+    metrics.put("failed_items", mFailedItems.sum());
+    metrics.put("failed_bulks", mFailedBulks.sum());
+    metrics.put("retries", mRetries.sum());
+    metrics.put("conflicts", mConflicts.sum());
+    metrics.put("missing", mMissing.sum());
+    mFailures.forEach((status, count) -> metrics.put("failures." + status, count.sum()));
+    return metrics;
+  }
+
+  @Override
+  public void close() {
+    try {
+      mBulkProcessor.awaitClose(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    mRetryScheduler.shutdown();
+  }
+
+  private void fail(String aId, String aReason) {
+    mFailedItems.increment();
+    mFailures.computeIfAbsent(aReason, k -> new LongAdder()).increment();
+    Consumer<String> listener = mFailureListener;
+    if (listener != null && aId != null) {
+      listener.accept(aId);
+    }
+  }
+
+  private synchronized void changePending(int aDelta) {
+    mPending += aDelta;
+    if (mPending <= 0) {
+      notifyAll();
+    }
+  }
+
+  private void retryOrFail(DocWriteRequest<?> aRequest, String aReason) {
+    int attempt = mAttempts.getOrDefault(aRequest, 0);
+    if (attempt < mMaxRetries) {
+      mAttempts.put(aRequest, attempt + 1);
+      mRetries.increment();
+      changePending(1);
+      mRetryScheduler.schedule(() -> {
+        try {
+          mBulkProcessor.add(aRequest);
+          mBulkProcessor.flush();
+        } finally {
+          changePending(-1);
+        }
+      }, mInitialBackoff << attempt, TimeUnit.MILLISECONDS);
+    } else {
+      mAttempts.remove(aRequest);
+      fail(aRequest.id(), aReason);
+    }
+  }
+
+  /**
+   * A version conflict is expected when a newer version of the document was added after the
+   * outdated one. Otherwise the index holds a version that this writer never wrote, e.g. because
+   * versions were assigned differently when it was written, and later writes of the document may be
+   * rejected as well.
+   */
+  private void logConflict(DocWriteRequest<?> aRequest) {
+    Long newest = mRecentVersions.get(aRequest.id());
+    if (newest != null && newest > aRequest.version()) {
+      Logger.debug("Skipped outdated version " + aRequest.version() + " of " + aRequest.id());
+    } else {
+      Logger.warn("Version " + aRequest.version() + " of " + aRequest.id()
+        + " was rejected although no newer version was written, the index may be ahead of the history");
+    }
+  }
+
+  private class Listener implements BulkProcessor.Listener {
+
+    @Override
+    public void beforeBulk(long aExecutionId, BulkRequest aRequest) {
+      changePending(1);
+    }
+
+    @Override
+    public void afterBulk(long aExecutionId, BulkRequest aRequest, BulkResponse aResponse) {
+      boolean written = false;
+      try {
+        mBulks.increment();
+        for (BulkItemResponse item : aResponse) {
+          DocWriteRequest<?> request = aRequest.requests().get(item.getItemId());
+          if (!item.isFailed()) {
+            written = true;
+            mItems.increment();
+            mAttempts.remove(request);
+            Consumer<String> listener = mWriteListener;
+            if (listener != null) {
+              listener.accept(item.getId());
+            }
+          } else if (RestStatus.TOO_MANY_REQUESTS.equals(item.status())) {
+            retryOrFail(request, item.status().name());
+          } else if (RestStatus.CONFLICT.equals(item.status())) {
+            logConflict(request);
+            mAttempts.remove(request);
+            mConflicts.increment();
+          } else if (RestStatus.NOT_FOUND.equals(item.status())
+            && DocWriteRequest.OpType.UPDATE.equals(item.getOpType())) {
+            Logger.debug("Skipped update of missing document " + item.getId());
+            mAttempts.remove(request);
+            mMissing.increment();
+          } else {
+            Logger.error("Failed to index " + item.getId() + ": " + item.getFailureMessage());
+            mAttempts.remove(request);
+            fail(item.getId(), item.status().name());
+          }
+        }
+        if (written) {
+          notifyListener();
+        }
+      } finally {
+        changePending(-1);
+      }
+    }
+
+    @Override
+    public void afterBulk(long aExecutionId, BulkRequest aRequest, Throwable aFailure) {
+      try {
+        mBulks.increment();
+        mFailedBulks.increment();
+        boolean rejected = aFailure instanceof ResponseException && ((ResponseException) aFailure)
+          .getResponse().getStatusLine().getStatusCode() == RestStatus.TOO_MANY_REQUESTS.getStatus();
+        if (!rejected) {
+          Logger.error("Failed indexing bulk data to Elasticsearch.", aFailure);
+        }
+        String reason = rejected ? RestStatus.TOO_MANY_REQUESTS.name() : aFailure.getClass().getSimpleName();
+        for (DocWriteRequest<?> request : aRequest.requests()) {
+          if (rejected) {
+            retryOrFail(request, reason);
+          } else {
+            mAttempts.remove(request);
+            fail(request.id(), reason);
+          }
+        }
+      } finally {
+        changePending(-1);
+      }
+    }
+  }
+}
@@ -1,9 +1,12 @@
 package services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.typesafe.config.Config;
 import helpers.UniversalFunctions;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -14,17 +17,27 @@ import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
 import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
 import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
 import play.Logger;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class ElasticsearchConfig {
 
@@ -67,15 +80,13 @@ public class ElasticsearchConfig {
     mEsClient = new RestHighLevelClient(builder);
 
     if (!indexExists(mIndex)) {
-      CreateIndexResponse response = null;
       try {
-        response = createIndex(mIndex);
+        String index = createVersionedIndex();
+        swapAlias(index);
+        Logger.info("Created index \"" + index + "\" with alias \"" + mIndex + "\".");
       } catch (IOException e) {
         Logger.error("Failing to create index '".concat(mIndex).concat("', caused by: "), e);
       }
-      if (response.isAcknowledged()) {
-        Logger.info("Created index \"" + mIndex + "\".");
-      }
     }
 
     // INDEX SETTINGS
@@ -158,6 +169,68 @@ public class ElasticsearchConfig {
     return mEsClient.indices().create(request);
   }
 
+  /**
+   * Create an index with the current mapping, named after the configured index name, which is used
+   * as an alias for it, and the current time.
+   *
+   * @return The name of the created index
+   */
+  public String createVersionedIndex() throws IOException {
+    String index = mIndex.concat("_").concat(
+      DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS").withZone(ZoneOffset.UTC).format(Instant.now()));
+    CreateIndexResponse response = createIndex(index);
+    if (!response.isAcknowledged()) {
+      throw new IOException("Creating index " + index + " was not acknowledged");
+    }
+    return index;
+  }
+
+  /**
+   * @return The indices the configured index name is an alias for, empty if it is not an alias
+   */
+  public Set<String> getAliasedIndices() throws IOException {
+    Set<String> indices = new HashSet<>();
+    try {
+      Response response = mEsClient.getLowLevelClient().performRequest("GET", "/_alias/".concat(mIndex));
+      new ObjectMapper().readTree(response.getEntity().getContent()).fieldNames().forEachRemaining(indices::add);
+    } catch (ResponseException e) {
+      if (e.getResponse().getStatusLine().getStatusCode() != 404) {
+        throw e;
+      }
+    }
+    return indices;
+  }
+
+  /**
+   * Atomically point the configured index name to another index. The indices it pointed to before
+   * are kept, so that the alias can be pointed back to one of them, and need to be deleted
+   * separately. If the name is a concrete index rather than an alias, that index is replaced.
+   *
+   * @param aIndex The index to point to
+   * @return The indices the name pointed to before
+   */
+  public Set<String> swapAlias(String aIndex) throws IOException {
+    Set<String> previous = getAliasedIndices();
+    boolean concrete = previous.isEmpty() && indexExists(mIndex);
+    previous.remove(aIndex);
+    XContentBuilder request = XContentFactory.jsonBuilder().startObject().startArray("actions");
+    if (concrete) {
+      request.startObject().startObject("remove_index").field("index", mIndex).endObject().endObject();
+    }
+    for (String index : previous) {
+      request.startObject().startObject("remove").field("index", index).field("alias", mIndex).endObject()
+        .endObject();
+    }
+    request.startObject().startObject("add").field("index", aIndex).field("alias", mIndex).endObject().endObject();
+    request.endArray().endObject();
+    Response response = mEsClient.getLowLevelClient().performRequest("POST", "/_aliases",
+      Collections.emptyMap(), new NStringEntity(request.string(), ContentType.APPLICATION_JSON));
+    if (!new ObjectMapper().readTree(response.getEntity().getContent()).path("acknowledged").asBoolean()) {
+      throw new IOException("Pointing " + mIndex + " to " + aIndex + " was not acknowledged");
+    }
+    return previous;
+  }
+
   public DeleteIndexResponse deleteIndex(String aIndex) throws IOException {
     DeleteIndexRequest request = new DeleteIndexRequest(aIndex);
     return mEsClient.indices().delete(request);
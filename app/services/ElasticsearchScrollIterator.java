@@ -0,0 +1,124 @@
+package services;
+
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import play.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over all hits of a search, reading them page by page from a scroll. A scroll reads from
+ * a consistent view of the index as of the first request, so hits are neither missed nor repeated
+ * under concurrent writes, and each page costs the same regardless of how far the iteration got.
+ * The scroll is cleared once all hits were read; iterators that are abandoned early should be closed.
+ */
+public class ElasticsearchScrollIterator implements SearchHitIterator {
+
+  private static final TimeValue KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+  interface Scroller {
+
+    SearchResponse scroll(String aScrollId) throws IOException;
+
+    void clear(String aScrollId) throws IOException;
+  }
+
+  private final Scroller mScroller;
+  private final long mTotalHits;
+  private final float mMaxScore;
+  private String mScrollId;
+  private Iterator<SearchHit> mHits;
+
+  /**
+   * @param aClient The client to search with
+   * @param aRequest The search request, should be sorted by _doc unless the order matters
+   * @throws IOException If the first page could not be read
+   */
+  public ElasticsearchScrollIterator(RestHighLevelClient aClient, SearchRequest aRequest) throws IOException {
+    this(aClient.search(aRequest.scroll(KEEP_ALIVE)), new Scroller() {
+      @Override
+      public SearchResponse scroll(String aScrollId) throws IOException {
+        return aClient.searchScroll(new SearchScrollRequest(aScrollId).scroll(KEEP_ALIVE));
+      }
+
+      @Override
+      public void clear(String aScrollId) throws IOException {
+        ClearScrollRequest request = new ClearScrollRequest();
+        request.addScrollId(aScrollId);
+        aClient.clearScroll(request);
+      }
+    });
+  }
+
+  ElasticsearchScrollIterator(SearchResponse aFirstPage, Scroller aScroller) {
+    mScroller = aScroller;
+    mTotalHits = aFirstPage.getHits().getTotalHits();
+    mMaxScore = aFirstPage.getHits().getMaxScore();
+    mHits = Collections.emptyIterator();
+    read(aFirstPage);
+  }
+
+  @Override
+  public long getTotalHits() {
+    return mTotalHits;
+  }
+
+  @Override
+  public float getMaxScore() {
+    return mMaxScore;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!mHits.hasNext() && mScrollId != null) {
+      try {
+        read(mScroller.scroll(mScrollId));
+      } catch (IOException e) {
+        close();
+        throw new UncheckedIOException(e);
+      }
+    }
+    return mHits.hasNext();
+  }
+
+  @Override
+  public SearchHit next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return mHits.next();
+  }
+
+  @Override
+  public void close() {
+    if (mScrollId == null) {
+      return;
+    }
+    try {
+      mScroller.clear(mScrollId);
+    } catch (IOException e) {
+      Logger.warn("Could not clear scroll, it expires after " + KEEP_ALIVE, e);
+    } finally {
+      mScrollId = null;
+    }
+  }
+
+  private void read(SearchResponse aPage) {
+    SearchHit[] hits = aPage.getHits().getHits();
+    mScrollId = aPage.getScrollId();
+    mHits = Arrays.asList(hits).iterator();
+    if (hits.length == 0) {
+      close();
+    }
+  }
+}
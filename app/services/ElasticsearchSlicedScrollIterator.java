@@ -0,0 +1,252 @@
+package services;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.slice.SliceBuilder;
+import play.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterates over all hits of a search, split into slices that are scrolled concurrently. Each slice
+ * is read by its own thread into a bounded buffer, so that memory use does not depend on the number
+ * of hits. Hits are either merged in the order of a comparator, which must match the sort order of
+ * the search, or returned in whatever order they arrive.
+ */
+public class ElasticsearchSlicedScrollIterator implements SearchHitIterator {
+
+  private static final int BUFFER_SIZE = 1024;
+  private static final long OFFER_TIMEOUT = 100;
+  private static final long CLOSE_TIMEOUT = 10000;
+  private static final SearchHit END = new SearchHit(-1);
+
+  private static final ExecutorService mExecutor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "elasticsearch-scroll-slice");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Comparator<SearchHit> mOrder;
+  private final List<BlockingQueue<SearchHit>> mBuffers = new ArrayList<>();
+  private final SearchHit[] mHeads;
+  private final boolean[] mExhausted;
+  private final CountDownLatch mReaders;
+  private final long mTotalHits;
+  private final float mMaxScore;
+  private int mOpenSlices;
+  private SearchHit mNext;
+  private volatile boolean mClosed;
+  private volatile IOException mFailure;
+
+  /**
+   * @param aClient The client to search with
+   * @param aRequest The search request, should be sorted by _doc unless the order matters
+   * @param aSlices The number of slices to scroll concurrently
+   * @param aOrder The sort order of the search to merge the slices in, null to return hits in the
+   *               order they arrive
+   * @throws IOException If the first page of a slice could not be read
+   */
+  public static ElasticsearchSlicedScrollIterator open(RestHighLevelClient aClient, SearchRequest aRequest,
+                                                       int aSlices, Comparator<SearchHit> aOrder) throws IOException {
+    List<Callable<ElasticsearchScrollIterator>> slices = new ArrayList<>();
+    for (int i = 0; i < aSlices; i++) {
+      SearchRequest slice = new SearchRequest(aRequest.indices()).searchType(aRequest.searchType())
+        .source(aRequest.source().copyWithNewSlice(new SliceBuilder(i, aSlices)));
+      slices.add(() -> new ElasticsearchScrollIterator(aClient, slice));
+    }
+    return new ElasticsearchSlicedScrollIterator(slices, aOrder);
+  }
+
+  ElasticsearchSlicedScrollIterator(List<Callable<ElasticsearchScrollIterator>> aSlices,
+                                    Comparator<SearchHit> aOrder) throws IOException {
+    mOrder = aOrder;
+    List<ElasticsearchScrollIterator> slices = openAll(aSlices);
+    long totalHits = 0;
+    float maxScore = Float.NaN;
+    for (ElasticsearchScrollIterator slice : slices) {
+      totalHits += slice.getTotalHits();
+      if (!Float.isNaN(slice.getMaxScore())) {
+        maxScore = Float.isNaN(maxScore) ? slice.getMaxScore() : Math.max(maxScore, slice.getMaxScore());
+      }
+    }
+    mTotalHits = totalHits;
+    mMaxScore = maxScore;
+    mOpenSlices = slices.size();
+    mHeads = new SearchHit[slices.size()];
+    mExhausted = new boolean[slices.size()];
+    mReaders = new CountDownLatch(slices.size());
+    if (mOrder == null) {
+      mBuffers.add(new ArrayBlockingQueue<>(BUFFER_SIZE * slices.size()));
+    }
+    for (ElasticsearchScrollIterator slice : slices) {
+      BlockingQueue<SearchHit> buffer = mOrder == null ? mBuffers.get(0) : new ArrayBlockingQueue<>(BUFFER_SIZE);
+      if (mOrder != null) {
+        mBuffers.add(buffer);
+      }
+      mExecutor.execute(() -> read(slice, buffer));
+    }
+  }
+
+  private static List<ElasticsearchScrollIterator> openAll(List<Callable<ElasticsearchScrollIterator>> aSlices)
+    throws IOException {
+    List<ElasticsearchScrollIterator> slices = new ArrayList<>();
+    IOException failure = null;
+    try {
+      for (Future<ElasticsearchScrollIterator> future : mExecutor.invokeAll(aSlices)) {
+        try {
+          slices.add(future.get());
+        } catch (ExecutionException e) {
+          failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = new InterruptedIOException();
+    }
+    if (failure != null) {
+      slices.forEach(ElasticsearchScrollIterator::close);
+      throw failure;
+    }
+    return slices;
+  }
+
+  @Override
+  public long getTotalHits() {
+    return mTotalHits;
+  }
+
+  @Override
+  public float getMaxScore() {
+    return mMaxScore;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (mNext == null && !mClosed) {
+      mNext = mOrder == null ? takeAny() : takeFirst();
+    }
+    return mNext != null;
+  }
+
+  @Override
+  public SearchHit next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    SearchHit next = mNext;
+    mNext = null;
+    return next;
+  }
+
+  /**
+   * Stop reading the slices and wait until the threads reading them cleared their scrolls. Threads
+   * that are still waiting for a page clear their scroll once it arrived.
+   */
+  @Override
+  public void close() {
+    if (mClosed) {
+      return;
+    }
+    mClosed = true;
+    mBuffers.forEach(BlockingQueue::clear);
+    try {
+      if (!mReaders.await(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        Logger.warn("Scroll slices still being read after " + CLOSE_TIMEOUT + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private SearchHit takeAny() {
+    while (mOpenSlices > 0) {
+      SearchHit hit = take(mBuffers.get(0));
+      if (hit != END) {
+        return hit;
+      }
+      mOpenSlices--;
+    }
+    return null;
+  }
+
+  private SearchHit takeFirst() {
+    int first = -1;
+    for (int i = 0; i < mHeads.length; i++) {
+      if (mHeads[i] == null && !mExhausted[i]) {
+        SearchHit hit = take(mBuffers.get(i));
+        if (hit == END) {
+          mExhausted[i] = true;
+        } else {
+          mHeads[i] = hit;
+        }
+      }
+      if (mHeads[i] != null && (first < 0 || mOrder.compare(mHeads[i], mHeads[first]) < 0)) {
+        first = i;
+      }
+    }
+    if (first < 0) {
+      return null;
+    }
+    SearchHit hit = mHeads[first];
+    mHeads[first] = null;
+    return hit;
+  }
+
+  private SearchHit take(BlockingQueue<SearchHit> aBuffer) {
+    SearchHit hit;
+    try {
+      hit = aBuffer.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new UncheckedIOException(new InterruptedIOException());
+    }
+    if (hit == END && mFailure != null) {
+      close();
+      throw new UncheckedIOException(mFailure);
+    }
+    return hit;
+  }
+
+  private void read(ElasticsearchScrollIterator aSlice, BlockingQueue<SearchHit> aBuffer) {
+    try {
+      while (!mClosed && aSlice.hasNext()) {
+        put(aBuffer, aSlice.next());
+      }
+    } catch (UncheckedIOException e) {
+      mFailure = e.getCause();
+    } finally {
+      aSlice.close();
+      mReaders.countDown();
+      put(aBuffer, END);
+    }
+  }
+
+  private void put(BlockingQueue<SearchHit> aBuffer, SearchHit aHit) {
+    try {
+      while (!mClosed) {
+        if (aBuffer.offer(aHit, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
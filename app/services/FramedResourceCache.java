@@ -0,0 +1,257 @@
+package services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import models.Commit;
+import models.GraphHistory;
+import models.Resource;
+import models.TripleCommit;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import play.Logger;
+import services.repository.TriplestoreRepository;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of resources framed from the extended description of a resource in the triple store. Each
+ * entry is stamped with the latest version, according to the graph history, of the resource and
+ * all nodes in its extended description. Entries are invalidated by the diffs of new commits and are
+ * in any case only served while their stamp is current. Values are stored serialized, as JSON or
+ * Smile, so that callers always get a copy they are free to modify.
+ */
+public class FramedResourceCache {
+
+  private final Model mDb;
+  private final GraphHistory mGraphHistory;
+  private final String mContextUrl;
+  private final int mMaxSize;
+  private final ObjectMapper mObjectMapper;
+
+  private final LinkedHashMap<String, CacheEntry> mEntries;
+  private final Map<String, Set<String>> mDependents = new HashMap<>();
+
+  private long mHits;
+  private long mMisses;
+  private long mEvictions;
+  private long mInvalidations;
+
+  private static class CacheEntry {
+
+    private final byte[] mValue;
+    private final int mVersion;
+    private final Set<String> mDependencies;
+
+    CacheEntry(byte[] aValue, int aVersion, Set<String> aDependencies) {
+      mValue = aValue;
+      mVersion = aVersion;
+      mDependencies = aDependencies;
+    }
+  }
+
+  /**
+   * @param aDb The triple store to frame resources from
+   * @param aGraphHistory The history of the triple store, caching is disabled if null
+   * @param aContextUrl The URL of the JSON-LD context to compact with
+   * @param aMaxSize The maximum number of entries, caching is disabled if not positive
+   * @param aSmile Whether to store entries as Smile instead of JSON
+   */
+  public FramedResourceCache(Model aDb, GraphHistory aGraphHistory, String aContextUrl, int aMaxSize,
+                             boolean aSmile) {
+    mDb = aDb;
+    mGraphHistory = aGraphHistory;
+    mContextUrl = aContextUrl;
+    mMaxSize = aGraphHistory != null ? aMaxSize : 0;
+    mObjectMapper = aSmile ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+    mEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> aEldest) {
+        if (size() > mMaxSize) {
+          mEvictions++;
+          removeDependents(aEldest.getKey(), aEldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get a resource, framing it from the triple store if it is not cached or its entry is stale.
+   *
+   * @param aId The id of the resource
+   * @return The resource or null if the triple store does not contain it
+   */
+  public Resource get(String aId) {
+
+    if (mMaxSize <= 0) {
+      return frame(aId, TriplestoreRepository.getExtendedDescription(aId, mDb));
+    }
+
+    CacheEntry entry;
+    synchronized (this) {
+      entry = mEntries.get(aId);
+      if (entry != null && entry.mVersion == getVersion(entry.mDependencies)) {
+        mHits++;
+      } else {
+        mMisses++;
+        entry = null;
+      }
+    }
+    if (entry != null) {
+      try {
+        return Resource.fromJson(mObjectMapper.readTree(entry.mValue));
+      } catch (IOException e) {
+        Logger.error("Could not read cached resource " + aId, e);
+      }
+    }
+
+    // Commits are applied to the triple store before they are added to the history, so an entry is
+    // only stored if the history did not change while framing
+    int historySize = mGraphHistory.size();
+    Model extendedDescription = TriplestoreRepository.getExtendedDescription(aId, mDb);
+    Resource resource = frame(aId, extendedDescription);
+    if (resource != null) {
+      Set<String> dependencies = getDependencies(aId, extendedDescription);
+      try {
+        byte[] value = mObjectMapper.writeValueAsBytes(resource.toJson());
+        synchronized (this) {
+          if (historySize == mGraphHistory.size()) {
+            CacheEntry previous = mEntries.remove(aId);
+            if (previous != null) {
+              removeDependents(aId, previous);
+            }
+            mEntries.put(aId, new CacheEntry(value, getVersion(dependencies), dependencies));
+            for (String dependency : dependencies) {
+              mDependents.computeIfAbsent(dependency, k -> new HashSet<>()).add(aId);
+            }
+          }
+        }
+      } catch (IOException e) {
+        Logger.error("Could not cache resource " + aId, e);
+      }
+    }
+    return resource;
+  }
+
+  /**
+   * Invalidate all entries depending on nodes touched by a diff.
+   *
+   * @param aDiff The diff of a commit
+   */
+  public synchronized void invalidate(Commit.Diff aDiff) {
+    if (mEntries.isEmpty()) {
+      return;
+    }
+    Set<String> touched = new HashSet<>();
+    for (Commit.Diff.Line line : aDiff.getLines()) {
+      Statement statement = ((TripleCommit.Diff.Line) line).stmt;
+      if (statement.getSubject().isURIResource()) {
+        touched.add(statement.getSubject().getURI());
+      }
+      if (statement.getObject().isURIResource()) {
+        touched.add(statement.getObject().asResource().getURI());
+      }
+    }
+    for (String node : touched) {
+      Set<String> dependents = mDependents.remove(node);
+      if (dependents == null) {
+        continue;
+      }
+      for (String id : dependents) {
+        CacheEntry entry = mEntries.remove(id);
+        if (entry != null) {
+          mInvalidations++;
+          removeDependents(id, entry);
+        }
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    mEntries.clear();
+    mDependents.clear();
+  }
+
+  public synchronized int size() {
+    return mEntries.size();
+  }
+
+  public synchronized long getHits() {
+    return mHits;
+  }
+
+  public synchronized long getMisses() {
+    return mMisses;
+  }
+
+  public synchronized long getEvictions() {
+    return mEvictions;
+  }
+
+  public synchronized long getInvalidations() {
+    return mInvalidations;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("size=%d/%d hits=%d misses=%d evictions=%d invalidations=%d", mEntries.size(), mMaxSize,
+      mHits, mMisses, mEvictions, mInvalidations);
+  }
+
+  private Resource frame(String aId, Model aExtendedDescription) {
+    if (aExtendedDescription.isEmpty()) {
+      return null;
+    }
+    try {
+      return ResourceFramer.resourceFromModel(aExtendedDescription, aId, mContextUrl);
+    } catch (IOException e) {
+      Logger.error("Could not create resource from model", e);
+      return null;
+    }
+  }
+
+  private int getVersion(Set<String> aDependencies) {
+    int version = 0;
+    for (String dependency : aDependencies) {
+      version = Math.max(version, mGraphHistory.getVersion(dependency));
+    }
+    return version;
+  }
+
+  private static Set<String> getDependencies(String aId, Model aExtendedDescription) {
+    Set<String> dependencies = new HashSet<>();
+    dependencies.add(aId);
+    StmtIterator statements = aExtendedDescription.listStatements();
+    while (statements.hasNext()) {
+      Statement statement = statements.next();
+      if (statement.getSubject().isURIResource()) {
+        dependencies.add(statement.getSubject().getURI());
+      }
+      RDFNode object = statement.getObject();
+      if (object.isURIResource()) {
+        dependencies.add(object.asResource().getURI());
+      }
+    }
+    return dependencies;
+  }
+
+  private void removeDependents(String aId, CacheEntry aEntry) {
+    for (String dependency : aEntry.mDependencies) {
+      Set<String> dependents = mDependents.get(dependency);
+      if (dependents != null) {
+        dependents.remove(aId);
+        if (dependents.isEmpty()) {
+          mDependents.remove(dependency);
+        }
+      }
+    }
+  }
+}
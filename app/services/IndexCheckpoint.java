@@ -0,0 +1,57 @@
+package services;
+
+import org.apache.commons.io.FileUtils;
+import play.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persists the id of the latest commit whose changes have been written to the index. All commits
+ * up to and including that commit are indexed, so that after a restart only the commits following
+ * it in the graph history need to be indexed again.
+ */
+public class IndexCheckpoint {
+
+  private final File mFile;
+
+  public IndexCheckpoint(File aFile) {
+    mFile = aFile;
+  }
+
+  /**
+   * @return The id of the latest indexed commit or null if no checkpoint has been recorded
+   */
+  public String read() {
+    if (!mFile.isFile()) {
+      return null;
+    }
+    try {
+      String commitId = FileUtils.readFileToString(mFile, StandardCharsets.UTF_8).trim();
+      return commitId.isEmpty() ? null : commitId;
+    } catch (IOException e) {
+      Logger.error("Could not read index checkpoint " + mFile, e);
+      return null;
+    }
+  }
+
+  /**
+   * Record a commit as indexed. The file is replaced atomically, so that a crash while writing
+   * leaves the previous checkpoint in place.
+   *
+   * @param aCommitId The id of the latest indexed commit
+   */
+  public void write(String aCommitId) {
+    File tmp = new File(mFile.getPath().concat(".tmp"));
+    try {
+      FileUtils.writeStringToFile(tmp, aCommitId.concat("\n"), StandardCharsets.UTF_8);
+      Files.move(tmp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Logger.error("Could not write index checkpoint " + mFile, e);
+    }
+  }
+}
@@ -4,39 +4,384 @@ import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.japi.Creator;
 import models.Commit;
+import play.Logger;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by fo on 05.04.16.
+ *
+ * Diffs and ids received within a window are not indexed one by one. Their scopes are merged and
+ * indexed once when the window, starting with the first message after the queue was idle, elapses.
+ * Messages sent as {@link Task}s carry the id of the latest commit at the time they were sent,
+ * which is recorded in the index checkpoint once their scope has been indexed and flushed to the
+ * index without failures. After a failure the checkpoint is left where it was until all resources
+ * have been reindexed, so that the commits following it are indexed again after a restart.
  */
 public class IndexQueue extends UntypedActor {
 
+  private static final Object FLUSH = new Object();
+
   public static Props props(final ResourceIndexer aResourceIndexer) {
+    return props(aResourceIndexer, 0, new Metrics(), null);
+  }
+
+  /**
+   * @param aWindow The number of milliseconds to collect messages for before indexing their scopes,
+   *                only messages already waiting in the mailbox are merged if not positive
+   * @param aMetrics The metrics to update
+   * @param aCheckpoint The checkpoint to record indexed commits in, may be null
+   */
+  public static Props props(final ResourceIndexer aResourceIndexer, final long aWindow, final Metrics aMetrics,
+                            final IndexCheckpoint aCheckpoint) {
 
     return Props.create(new Creator<IndexQueue>() {
       @Override
       public IndexQueue create() {
-        return new IndexQueue(aResourceIndexer);
+        return new IndexQueue(aResourceIndexer, aWindow, aMetrics, aCheckpoint);
       }
     });
   }
 
+  /**
+   * A diff or id to index along with the id of the latest commit when it was sent. Senders must
+   * ensure that tasks are sent in the order of their commits.
+   */
+  public static class Task {
+
+    private final Object mPayload;
+    private final String mCommitId;
+
+    public Task(Object aPayload, String aCommitId) {
+      mPayload = aPayload;
+      mCommitId = aCommitId;
+    }
+  }
+
+  /**
+   * What senders do with new index work when the queue is at capacity: wait for the queue to drain,
+   * leave the work for commits in the graph history to be sent once the queue drained, or refuse
+   * new commits.
+   */
+  public enum Overflow {
+    BLOCK, SHED, REJECT
+  }
+
+  /**
+   * Thrown when a commit is refused because the queue is at capacity.
+   */
+  public static class FullException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FullException(long aLoad) {
+      super("Index queue is full with " + aLoad + " changes");
+    }
+  }
+
+  /**
+   * Get the weight of a message, i.e. the number of changes of a diff, so that a single import
+   * weighs as much as the many small commits it replaces. Other messages weigh one.
+   *
+   * @param aMessage The message, possibly wrapped in a {@link Task}
+   * @return The weight of the message
+   */
+  public static long weigh(Object aMessage) {
+    Object payload = aMessage instanceof Task ? ((Task) aMessage).mPayload : aMessage;
+    if (payload instanceof Commit.Diff) {
+      return Math.max(((Commit.Diff) payload).getLines().size(), 1);
+    }
+    return 1;
+  }
+
+  /**
+   * Reindex all resources, resuming after a cursor.
+   */
+  public static class Reindex {
+
+    private final String mCursor;
+
+    public Reindex(String aCursor) {
+      mCursor = aCursor;
+    }
+  }
+
   private final ResourceIndexer mResourceIndexer;
+  private final long mWindow;
+  private final Metrics mMetrics;
+  private final IndexCheckpoint mCheckpoint;
+
+  private String mCommitId = null;
+  private Set<String> mIds = new HashSet<>();
+  private Set<String> mRelatedTo = new HashSet<>();
+  private Set<String> mMetadata = new HashSet<>();
+  private boolean mIndexAll = false;
+  private String mReindexCursor = null;
+  private boolean mFlushScheduled = false;
+  private boolean mCheckpointBlocked = false;
 
   public IndexQueue(ResourceIndexer aResourceIndexer) {
+    this(aResourceIndexer, 0, new Metrics(), null);
+  }
+
+  public IndexQueue(ResourceIndexer aResourceIndexer, long aWindow, Metrics aMetrics,
+                    IndexCheckpoint aCheckpoint) {
     mResourceIndexer = aResourceIndexer;
+    mWindow = aWindow;
+    mMetrics = aMetrics;
+    mCheckpoint = aCheckpoint;
   }
 
   @Override
   public void onReceive(Object aMessage) {
 
+    if (aMessage == FLUSH) {
+      flush();
+      return;
+    }
+
+    long weight = weigh(aMessage);
+
+    if (aMessage instanceof Task) {
+      Task task = (Task) aMessage;
+      if (task.mCommitId != null) {
+        mCommitId = task.mCommitId;
+      }
+      aMessage = task.mPayload;
+    }
+
     if (aMessage instanceof Commit.Diff) {
-      Commit.Diff diff = (Commit.Diff) aMessage;
-      mResourceIndexer.index(diff);
+      ResourceIndexer.DiffScope diffScope = mResourceIndexer.getDiffScope((Commit.Diff) aMessage);
+      mIds.addAll(diffScope.getFramed());
+      mRelatedTo.addAll(diffScope.getRelatedTo());
+      mMetadata.addAll(diffScope.getMetadata());
     } else if (aMessage instanceof String) {
       String id = (String) aMessage;
-      mResourceIndexer.index(id);
+      if (id.equals("*")) {
+        mIndexAll = true;
+        mReindexCursor = null;
+      } else {
+        mRelatedTo.add(id);
+      }
+    } else if (aMessage instanceof Reindex) {
+      if (!mIndexAll || mReindexCursor != null) {
+        mReindexCursor = ((Reindex) aMessage).mCursor;
+      }
+      mIndexAll = true;
     } else {
       unhandled(aMessage);
+      mMetrics.mReceived.increment();
+      mMetrics.mReceivedWeight.add(weight);
+      mMetrics.processed(1);
+      return;
+    }
+
+    mMetrics.mReceived.increment();
+    mMetrics.mReceivedWeight.add(weight);
+    mMetrics.mPending.increment();
+    mMetrics.mPendingWeight.add(weight);
+    if (!mFlushScheduled) {
+      mFlushScheduled = true;
+      if (mWindow > 0) {
+        getContext().system().scheduler().scheduleOnce(FiniteDuration.create(mWindow, TimeUnit.MILLISECONDS),
+          getSelf(), FLUSH, getContext().dispatcher(), getSelf());
+      } else {
+        getSelf().tell(FLUSH, getSelf());
+      }
+    }
+  }
+
+  private void flush() {
+
+    Set<String> ids = mIds;
+    Set<String> relatedTo = mRelatedTo;
+    Set<String> metadata = mMetadata;
+    boolean indexAll = mIndexAll;
+    String reindexCursor = mReindexCursor;
+    String commitId = mCommitId;
+    long messages = mMetrics.mPending.sum();
+    long weight = mMetrics.mPendingWeight.sum();
+    mIds = new HashSet<>();
+    mRelatedTo = new HashSet<>();
+    mMetadata = new HashSet<>();
+    mIndexAll = false;
+    mReindexCursor = null;
+    mFlushScheduled = false;
+    mCommitId = null;
+
+    int indexed;
+    long failures = mResourceIndexer.getWriteFailures();
+    boolean written;
+    try {
+      if (indexAll) {
+        indexed = mResourceIndexer.reindex(reindexCursor);
+      } else {
+        indexed = mResourceIndexer.index(ids, relatedTo, metadata);
+      }
+      written = mResourceIndexer.flush() && mResourceIndexer.getWriteFailures() == failures;
+    } catch (Exception e) {
+      Logger.error("Could not index queued resources", e);
+      indexed = 0;
+      written = false;
+    }
+    if (!written) {
+      mCheckpointBlocked = true;
+    } else if (indexAll && reindexCursor == null) {
+      mCheckpointBlocked = false;
+    }
+    if (mCheckpoint != null && commitId != null) {
+      if (mCheckpointBlocked) {
+        Logger.warn("Not recording index checkpoint " + commitId + " because resources could not be indexed");
+      } else {
+        mCheckpoint.write(commitId);
+      }
+    }
+    mMetrics.mFlushes.increment();
+    mMetrics.mIndexed.add(indexed);
+    mMetrics.mPending.add(-messages);
+    mMetrics.mPendingWeight.add(-weight);
+    mMetrics.processed(messages);
+    Logger.debug(String.format("Indexed %d resources for %d queued messages", indexed, messages));
+  }
+
+  /**
+   * Counts messages sent to and processed by the queue. The depth is the number of messages
+   * waiting in the mailbox, in the current window or being indexed, the load the weight of these
+   * messages, see {@link #weigh(Object)}, and the coalescing ratio the number of messages per
+   * indexing pass. Capacities apply to the load. The age of the oldest message still in the queue and the lag,
+   * i.e. the time the oldest message of the latest indexing pass spent in the queue, are in
+   * milliseconds.
+   */
+  public static class Metrics {
+
+    private final LongAdder mSubmitted = new LongAdder();
+    private final LongAdder mReceived = new LongAdder();
+    private final LongAdder mPending = new LongAdder();
+    private final LongAdder mSubmittedWeight = new LongAdder();
+    private final LongAdder mReceivedWeight = new LongAdder();
+    private final LongAdder mPendingWeight = new LongAdder();
+    private final LongAdder mFlushes = new LongAdder();
+    private final LongAdder mIndexed = new LongAdder();
+    private final LongAdder mShed = new LongAdder();
+    private final LongAdder mRejected = new LongAdder();
+    private final Queue<Long> mSubmittedAt = new ConcurrentLinkedQueue<>();
+    private volatile long mLag = 0;
+    private volatile Runnable mListener;
+
+    /**
+     * To be called by senders for each message told to the queue.
+     *
+     * @param aMessage The message
+     */
+    public void submitted(Object aMessage) {
+      mSubmittedAt.add(System.currentTimeMillis());
+      mSubmitted.increment();
+      mSubmittedWeight.add(weigh(aMessage));
+    }
+
+    /**
+     * To be called by senders for each message not told to the queue because it is full.
+     */
+    public void shed() {
+      mShed.increment();
+    }
+
+    /**
+     * To be called by senders for each commit refused because the queue is full.
+     */
+    public void rejected() {
+      mRejected.increment();
+    }
+
+    /**
+     * @param aListener Called by the queue each time it processed messages
+     */
+    public void setListener(Runnable aListener) {
+      mListener = aListener;
+    }
+
+    /**
+     * Wait until the load of the queue is below a capacity or a timeout elapsed.
+     *
+     * @param aCapacity The capacity
+     * @param aTimeout The number of milliseconds to wait at most
+     * @return False if the load was not below the capacity before the timeout elapsed
+     */
+    public synchronized boolean awaitCapacity(long aCapacity, long aTimeout) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + aTimeout;
+      while (getLoad() >= aCapacity) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return false;
+        }
+        wait(remaining);
+      }
+      return true;
+    }
+
+    private void processed(long aMessages) {
+      Long oldest = null;
+      for (long i = 0; i < aMessages; i++) {
+        Long submittedAt = mSubmittedAt.poll();
+        if (oldest == null) {
+          oldest = submittedAt;
+        }
+      }
+      if (oldest != null) {
+        mLag = System.currentTimeMillis() - oldest;
+      }
+      Runnable listener = mListener;
+      if (listener != null) {
+        listener.run();
+      }
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+
+    public long getDepth() {
+      return Math.max(mSubmitted.sum() - mReceived.sum(), 0) + mPending.sum();
+    }
+
+    public long getLoad() {
+      return Math.max(mSubmittedWeight.sum() - mReceivedWeight.sum(), 0) + mPendingWeight.sum();
+    }
+
+    public long getOldestAge() {
+      Long oldest = mSubmittedAt.peek();
+      return oldest != null ? System.currentTimeMillis() - oldest : 0;
+    }
+
+    public long getLag() {
+      return mLag;
+    }
+
+    public double getCoalescingRatio() {
+      long flushes = mFlushes.sum();
+      return flushes > 0 ? (double) (mReceived.sum() - mPending.sum()) / flushes : 0;
+    }
+
+    public Map<String, Number> toMap() {
+      Map<String, Number> metrics = new TreeMap<>();
+      metrics.put("depth", getDepth());
+      metrics.put("load", getLoad());
+      metrics.put("oldest_age", getOldestAge());
+      metrics.put("lag", getLag());
+      metrics.put("received", mReceived.sum());
+      metrics.put("flushes", mFlushes.sum());
+      metrics.put("indexed", mIndexed.sum());
+      metrics.put("shed", mShed.sum());
+      metrics.put("rejected", mRejected.sum());
+      metrics.put("coalescing_ratio", getCoalescingRatio());
+      return metrics;
     }
   }
 }
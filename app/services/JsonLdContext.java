@@ -0,0 +1,293 @@
+package services;
+
+import helpers.JsonLdConstants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled JSON-LD 1.0 active context, providing IRI and value compaction as used by the
+ * framing and compaction algorithms of jsonld-java, but without having to serialize to and
+ * re-parse JSON for every document.
+ */
+public class JsonLdContext {
+
+  private static final String NONE = "@none";
+  private static final String NULL = "@null";
+
+  private final String mVocab;
+  private final Map<String, TermDefinition> mTerms = new HashMap<>();
+
+  // IRI -> container -> @type/@language -> value -> term
+  private final Map<String, Map<String, Map<String, Map<String, String>>>> mInverse = new HashMap<>();
+
+  /**
+   * Definition of a single term of the context
+   */
+  public static class TermDefinition {
+
+    private final String mTerm;
+    private final String mId;
+    private final String mContainer;
+    private final String mType;
+
+    TermDefinition(String aTerm, String aId, String aContainer, String aType) {
+      mTerm = aTerm;
+      mId = aId;
+      mContainer = aContainer;
+      mType = aType;
+    }
+
+    public String getTerm() {
+      return mTerm;
+    }
+
+    public String getId() {
+      return mId;
+    }
+
+    public String getContainer() {
+      return mContainer;
+    }
+
+    public String getType() {
+      return mType;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public JsonLdContext(Map<String, Object> aContextDocument) {
+    Object context = aContextDocument.containsKey(JsonLdConstants.CONTEXT)
+      ? aContextDocument.get(JsonLdConstants.CONTEXT)
+      : aContextDocument;
+    if (!(context instanceof Map)) {
+      throw new IllegalArgumentException("Only a single local context object is supported");
+    }
+    Map<String, Object> definitions = (Map<String, Object>) context;
+    mVocab = (String) definitions.get(JsonLdConstants.VOCAB);
+
+    // Prefix-like definitions have to be known before expanding other definitions
+    Map<String, String> ids = new HashMap<>();
+    for (Map.Entry<String, Object> entry : definitions.entrySet()) {
+      if (entry.getKey().startsWith("@")) {
+        continue;
+      }
+      Object definition = entry.getValue();
+      if (definition instanceof String) {
+        ids.put(entry.getKey(), (String) definition);
+      } else if (definition instanceof Map && ((Map) definition).containsKey(JsonLdConstants.ID)) {
+        ids.put(entry.getKey(), (String) ((Map) definition).get(JsonLdConstants.ID));
+      }
+    }
+
+    for (Map.Entry<String, Object> entry : definitions.entrySet()) {
+      String term = entry.getKey();
+      if (term.startsWith("@") || entry.getValue() == null) {
+        continue;
+      }
+      String id;
+      String container = null;
+      String type = null;
+      if (entry.getValue() instanceof String) {
+        id = expand((String) entry.getValue(), ids);
+      } else {
+        Map<String, Object> definition = (Map<String, Object>) entry.getValue();
+        id = definition.containsKey(JsonLdConstants.ID)
+          ? expand((String) definition.get(JsonLdConstants.ID), ids)
+          : expand(term, Collections.emptyMap());
+        container = (String) definition.get(JsonLdConstants.CONTAINER);
+        if (definition.containsKey(JsonLdConstants.TYPE)) {
+          String typeMapping = (String) definition.get(JsonLdConstants.TYPE);
+          type = typeMapping.startsWith("@") ? typeMapping : expand(typeMapping, ids);
+        }
+      }
+      mTerms.put(term, new TermDefinition(term, id, container, type));
+    }
+
+    buildInverse();
+  }
+
+  private String expand(String aValue, Map<String, String> aIds) {
+    if (aValue.startsWith("@")) {
+      return aValue;
+    }
+    int colon = aValue.indexOf(':');
+    if (colon > 0) {
+      String prefix = aValue.substring(0, colon);
+      String suffix = aValue.substring(colon + 1);
+      if (!suffix.startsWith("//") && aIds.containsKey(prefix)) {
+        return aIds.get(prefix).concat(suffix);
+      }
+      return aValue;
+    }
+    if (aIds.containsKey(aValue)) {
+      return expand(aIds.get(aValue), Collections.emptyMap());
+    }
+    return mVocab != null ? mVocab.concat(aValue) : aValue;
+  }
+
+  private void buildInverse() {
+    List<String> terms = new ArrayList<>(mTerms.keySet());
+    terms.sort(JsonLdContext::compareShortestLeast);
+    for (String term : terms) {
+      TermDefinition definition = mTerms.get(term);
+      String container = definition.getContainer() != null ? definition.getContainer() : NONE;
+      Map<String, Map<String, String>> typeLanguage = mInverse
+        .computeIfAbsent(definition.getId(), k -> new HashMap<>())
+        .computeIfAbsent(container, k -> new HashMap<>());
+      Map<String, String> typeMap = typeLanguage.computeIfAbsent(JsonLdConstants.TYPE, k -> new HashMap<>());
+      Map<String, String> languageMap = typeLanguage.computeIfAbsent(JsonLdConstants.LANGUAGE, k -> new HashMap<>());
+      if (definition.getType() != null) {
+        typeMap.putIfAbsent(definition.getType(), term);
+      } else {
+        languageMap.putIfAbsent(NONE, term);
+        typeMap.putIfAbsent(NONE, term);
+      }
+    }
+  }
+
+  private static int compareShortestLeast(String a, String b) {
+    if (a.length() != b.length()) {
+      return a.length() - b.length();
+    }
+    return a.compareTo(b);
+  }
+
+  public TermDefinition getTermDefinition(String aTerm) {
+    return mTerms.get(aTerm);
+  }
+
+  /**
+   * Compact an IRI used as a value of @id or @type.
+   *
+   * @param aIri The IRI to compact
+   * @param aRelativeToVocab Whether the IRI is used in a vocabulary position
+   * @return The compacted IRI
+   */
+  public String compactIri(String aIri, boolean aRelativeToVocab) {
+    if (aRelativeToVocab) {
+      String term = selectTerm(aIri, Collections.singletonList(JsonLdConstants.SET), JsonLdConstants.TYPE,
+        Collections.singletonList(JsonLdConstants.ID));
+      if (term != null) {
+        return term;
+      }
+      String suffix = vocabSuffix(aIri);
+      if (suffix != null) {
+        return suffix;
+      }
+    }
+    String compactIri = prefixed(aIri);
+    return compactIri != null ? compactIri : aIri;
+  }
+
+  /**
+   * Compact a property IRI for a node object value.
+   *
+   * @param aIri The property IRI
+   * @param aValueId The @id of the node value, may be null for blank nodes
+   * @return The compacted property
+   */
+  public String compactPropertyForNode(String aIri, String aValueId) {
+    List<String> preferred = new ArrayList<>();
+    TermDefinition vocabTerm = aValueId != null ? mTerms.get(compactIri(aValueId, true)) : null;
+    if (vocabTerm != null && aValueId.equals(vocabTerm.getId())) {
+      preferred.add("@vocab");
+      preferred.add(JsonLdConstants.ID);
+    } else {
+      preferred.add(JsonLdConstants.ID);
+      preferred.add("@vocab");
+    }
+    return compactProperty(aIri, Collections.singletonList(JsonLdConstants.SET), JsonLdConstants.TYPE, preferred);
+  }
+
+  /**
+   * Compact a property IRI for a literal value.
+   *
+   * @param aIri The property IRI
+   * @param aLanguage The language tag of the value, if any
+   * @param aDatatype The datatype of the value, if it is neither a language tagged nor a native
+   *                  value
+   * @return The compacted property
+   */
+  public String compactPropertyForValue(String aIri, String aLanguage, String aDatatype) {
+    if (aLanguage != null) {
+      return compactProperty(aIri, new ArrayList<>(Arrays.asList(JsonLdConstants.LANGUAGE, JsonLdConstants.SET)),
+        JsonLdConstants.LANGUAGE, Collections.singletonList(aLanguage));
+    } else if (aDatatype != null) {
+      return compactProperty(aIri, Collections.singletonList(JsonLdConstants.SET), JsonLdConstants.TYPE,
+        Collections.singletonList(aDatatype));
+    } else {
+      return compactProperty(aIri, Collections.singletonList(JsonLdConstants.SET), JsonLdConstants.LANGUAGE,
+        Collections.singletonList(NULL));
+    }
+  }
+
+  private String compactProperty(String aIri, List<String> aContainers, String aTypeLanguage,
+                                 List<String> aPreferredValues) {
+    String term = selectTerm(aIri, aContainers, aTypeLanguage, aPreferredValues);
+    if (term != null) {
+      return term;
+    }
+    String suffix = vocabSuffix(aIri);
+    if (suffix != null) {
+      return suffix;
+    }
+    String compactIri = prefixed(aIri);
+    return compactIri != null ? compactIri : aIri;
+  }
+
+  private String selectTerm(String aIri, List<String> aContainers, String aTypeLanguage,
+                            List<String> aPreferredValues) {
+    Map<String, Map<String, Map<String, String>>> containerMap = mInverse.get(aIri);
+    if (containerMap == null) {
+      return null;
+    }
+    List<String> containers = new ArrayList<>(aContainers);
+    containers.add(NONE);
+    List<String> preferredValues = new ArrayList<>(aPreferredValues);
+    preferredValues.add(NONE);
+    for (String container : containers) {
+      if (!containerMap.containsKey(container)) {
+        continue;
+      }
+      Map<String, String> valueMap = containerMap.get(container).get(aTypeLanguage);
+      for (String value : preferredValues) {
+        if (valueMap.containsKey(value)) {
+          return valueMap.get(value);
+        }
+      }
+    }
+    return null;
+  }
+
+  private String vocabSuffix(String aIri) {
+    if (mVocab != null && aIri.startsWith(mVocab) && aIri.length() > mVocab.length()) {
+      String suffix = aIri.substring(mVocab.length());
+      if (!mTerms.containsKey(suffix)) {
+        return suffix;
+      }
+    }
+    return null;
+  }
+
+  private String prefixed(String aIri) {
+    String compactIri = null;
+    for (TermDefinition definition : mTerms.values()) {
+      String term = definition.getTerm();
+      String id = definition.getId();
+      if (term.contains(":") || id == null || aIri.equals(id) || !aIri.startsWith(id)) {
+        continue;
+      }
+      String candidate = term.concat(":").concat(aIri.substring(id.length()));
+      if ((compactIri == null || compareShortestLeast(candidate, compactIri) < 0)
+        && !mTerms.containsKey(candidate)) {
+        compactIri = candidate;
+      }
+    }
+    return compactIri;
+  }
+}
@@ -0,0 +1,150 @@
+package services;
+
+import com.github.jsonldjava.core.Context;
+import com.github.jsonldjava.core.DocumentLoader;
+import com.github.jsonldjava.core.JsonLdError;
+import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.utils.JsonUtils;
+import helpers.JsonLdConstants;
+import org.apache.commons.io.IOUtils;
+import play.Logger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the JSON-LD contexts used by the application. The local context in conf/context.json
+ * is loaded and processed once into both a jsonld-java active context for expansion and a compiled
+ * {@link JsonLdContext} for compaction, and is registered for every URL the JAR cache maps to it as
+ * well as for the configured context URL. Readers and writers look contexts up here instead of
+ * resolving them through the network or a document loader on every call.
+ */
+public final class JsonLdContextRegistry {
+
+  private static final String CONTEXT_FILE = "conf/context.json";
+  private static final String CONTEXT_RESOURCE = "context.json";
+  private static final String JAR_CACHE_FILE = "conf/jarcache.json";
+  private static final String JAR_CACHE_RESOURCE = "jarcache.json";
+
+  private static final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+  private static final DocumentLoader mDocumentLoader = new DocumentLoader();
+
+  private static final String mLocalContextDocument;
+  private static final Entry mLocalContext;
+
+  static {
+    try {
+      mLocalContextDocument = readLocal(CONTEXT_FILE, CONTEXT_RESOURCE);
+      mLocalContext = new Entry(JsonUtils.fromString(mLocalContextDocument));
+      for (Object cached : (List<?>) JsonUtils.fromString(readLocal(JAR_CACHE_FILE, JAR_CACHE_RESOURCE))) {
+        Map<?, ?> entry = (Map<?, ?>) cached;
+        if (CONTEXT_RESOURCE.equals(entry.get("X-Classpath"))) {
+          register((String) entry.get("Content-Location"));
+        }
+      }
+    } catch (IOException | JsonLdError e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static class Entry {
+
+    private final Context mActiveContext;
+    private final JsonLdContext mCompiledContext;
+
+    @SuppressWarnings("unchecked")
+    Entry(Object aContextDocument) throws JsonLdError {
+      Map<String, Object> document = (Map<String, Object>) aContextDocument;
+      mActiveContext = new Context(getOptions()).parse(document.get(JsonLdConstants.CONTEXT));
+      mCompiledContext = new JsonLdContext(document);
+    }
+  }
+
+  private JsonLdContextRegistry() {
+  }
+
+  /**
+   * Register a context URL as an alias of the local context.
+   *
+   * @param aContextUrl The URL the local context is published at
+   */
+  public static void register(String aContextUrl) {
+    if (mEntries.putIfAbsent(aContextUrl, mLocalContext) == null) {
+      try {
+        mDocumentLoader.addInjectedDoc(aContextUrl, mLocalContextDocument);
+      } catch (JsonLdError e) {
+        Logger.error("Could not register JSON-LD context " + aContextUrl, e);
+      }
+    }
+  }
+
+  /**
+   * Get the compiled context for a context URL. Contexts that are not registered are loaded once
+   * through the document loader and kept for subsequent calls.
+   *
+   * @param aContextUrl The URL of the context
+   * @return The compiled context
+   * @throws IOException If the context is not registered and cannot be loaded
+   */
+  public static JsonLdContext get(String aContextUrl) throws IOException {
+    return getEntry(aContextUrl).mCompiledContext;
+  }
+
+  /**
+   * Get the jsonld-java active context for a context URL, for use as the initial context when
+   * expanding documents that refer to it.
+   *
+   * @param aContextUrl The URL of the context
+   * @return The active context, which must not be modified
+   * @throws IOException If the context is not registered and cannot be loaded
+   */
+  public static Context getActiveContext(String aContextUrl) throws IOException {
+    return getEntry(aContextUrl).mActiveContext;
+  }
+
+  public static boolean isRegistered(String aContextUrl) {
+    return mEntries.containsKey(aContextUrl);
+  }
+
+  /**
+   * @return Fresh options for jsonld-java using a document loader that resolves all registered
+   * contexts locally
+   */
+  public static JsonLdOptions getOptions() {
+    JsonLdOptions options = new JsonLdOptions();
+    options.setDocumentLoader(mDocumentLoader);
+    return options;
+  }
+
+  private static Entry getEntry(String aContextUrl) throws IOException {
+    Entry entry = mEntries.get(aContextUrl);
+    if (entry == null) {
+      Logger.warn("Loading unregistered JSON-LD context " + aContextUrl);
+      try {
+        entry = new Entry(mDocumentLoader.loadDocument(aContextUrl).getDocument());
+      } catch (JsonLdError | ClassCastException e) {
+        throw new IOException("Could not load JSON-LD context " + aContextUrl, e);
+      }
+      Entry existing = mEntries.putIfAbsent(aContextUrl, entry);
+      if (existing != null) {
+        entry = existing;
+      }
+    }
+    return entry;
+  }
+
+  private static String readLocal(String aFile, String aResource) throws IOException {
+    InputStream inputStream = Thread.currentThread().getContextClassLoader().getResourceAsStream(aResource);
+    if (inputStream == null) {
+      inputStream = new FileInputStream(aFile);
+    }
+    try (InputStream in = inputStream) {
+      return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,256 @@
+package services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import helpers.JsonLdConstants;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.vocabulary.RDF;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Frames a resource from an RDF model directly into a compacted JSON-LD tree. This is equivalent
+ * to framing a record pointing at the resource with "@embed": "@always" and native types, then
+ * compacting with the given context and pruning blank node identifiers, but walks the model only
+ * once instead of serializing it through jsonld-java. A framer that does not embed resources only
+ * follows blank nodes, i.e. frames the concise bounded description of a resource, and leaves other
+ * resources as references.
+ */
+public class JsonLdFramer {
+
+  private static final JsonNodeFactory mJsonNodeFactory = JsonNodeFactory.instance;
+  private static final Pattern INTEGER = Pattern.compile("^[+-]?[0-9]+$");
+
+  private final JsonLdContext mContext;
+  private final boolean mEmbedResources;
+
+  public JsonLdFramer(JsonLdContext aContext) {
+    this(aContext, true);
+  }
+
+  public JsonLdFramer(JsonLdContext aContext, boolean aEmbedResources) {
+    mContext = aContext;
+    mEmbedResources = aEmbedResources;
+  }
+
+  /**
+   * Frame a resource from a model.
+   *
+   * @param aModel The model to frame from
+   * @param aId The id of the resource to frame
+   * @return The framed resource or null if the model does not contain the resource
+   */
+  public ObjectNode frame(Model aModel, String aId) {
+    Resource resource = ResourceFactory.createResource(aId);
+    if (!aModel.containsResource(resource)) {
+      return null;
+    }
+    return frame(aModel, aModel.getResource(aId), new ArrayDeque<>());
+  }
+
+  private ObjectNode frame(Model aModel, Resource aSubject, Deque<Resource> aStack) {
+
+    ObjectNode node = mJsonNodeFactory.objectNode();
+    if (aSubject.isURIResource()) {
+      node.put(JsonLdConstants.ID, mContext.compactIri(aSubject.getURI(), false));
+    }
+
+    List<String> types = new ArrayList<>();
+    Map<String, List<Statement>> properties = new TreeMap<>();
+    StmtIterator statements = aModel.listStatements(aSubject, null, (RDFNode) null);
+    while (statements.hasNext()) {
+      Statement statement = statements.next();
+      if (statement.getPredicate().equals(RDF.type) && statement.getObject().isURIResource()) {
+        types.add(mContext.compactIri(statement.getObject().asResource().getURI(), true));
+      } else if (!(statement.getPredicate().equals(RDF.type) && statement.getObject().isAnon())) {
+        properties.computeIfAbsent(statement.getPredicate().getURI(), k -> new ArrayList<>()).add(statement);
+      }
+    }
+
+    if (types.size() == 1) {
+      node.put(JsonLdConstants.TYPE, types.get(0));
+    } else if (types.size() > 1) {
+      ArrayNode typeArray = node.putArray(JsonLdConstants.TYPE);
+      types.stream().sorted().forEach(typeArray::add);
+    }
+
+    aStack.push(aSubject);
+    for (Map.Entry<String, List<Statement>> property : properties.entrySet()) {
+      List<Value> values = new ArrayList<>();
+      for (Statement statement : property.getValue()) {
+        Value value = statement.getObject().isLiteral()
+          ? compactLiteral(property.getKey(), statement.getLiteral())
+          : compactNode(aModel, property.getKey(), statement.getResource(), aStack);
+        if (value != null) {
+          values.add(value);
+        }
+      }
+      if (values.size() > 1) {
+        values.sort((a, b) -> a.mSortKey.compareTo(b.mSortKey));
+      }
+      for (Value value : values) {
+        add(node, value);
+      }
+    }
+    aStack.pop();
+
+    return node;
+  }
+
+  private Value compactNode(Model aModel, String aProperty, Resource aObject, Deque<Resource> aStack) {
+
+    String id = aObject.isURIResource() ? aObject.getURI() : null;
+    String term = mContext.compactPropertyForNode(aProperty, id);
+    JsonLdContext.TermDefinition definition = mContext.getTermDefinition(term);
+    String typeMapping = definition != null ? definition.getType() : null;
+
+    // Circular references, nodes without any properties and resources not to be embedded are node
+    // references
+    if ((id != null && !mEmbedResources) || aStack.contains(aObject)
+      || !aModel.listStatements(aObject, null, (RDFNode) null).hasNext()) {
+      if (id == null) {
+        return typeMapping != null && typeMapping.equals(JsonLdConstants.ID)
+          ? null
+          : new Value(term, definition, mJsonNodeFactory.objectNode());
+      } else if (JsonLdConstants.ID.equals(typeMapping)) {
+        return new Value(term, definition, mJsonNodeFactory.textNode(mContext.compactIri(id, false)));
+      } else if ("@vocab".equals(typeMapping)) {
+        return new Value(term, definition, mJsonNodeFactory.textNode(mContext.compactIri(id, true)));
+      }
+      ObjectNode reference = mJsonNodeFactory.objectNode();
+      reference.put(JsonLdConstants.ID, mContext.compactIri(id, false));
+      return new Value(term, definition, reference);
+    }
+
+    return new Value(term, definition, frame(aModel, aObject, aStack));
+  }
+
+  private Value compactLiteral(String aProperty, Literal aLiteral) {
+
+    String lexical = aLiteral.getLexicalForm();
+    String language = aLiteral.getLanguage();
+    String datatype = aLiteral.getDatatypeURI();
+
+    if (language != null && !language.isEmpty()) {
+      String term = mContext.compactPropertyForValue(aProperty, language, null);
+      JsonLdContext.TermDefinition definition = mContext.getTermDefinition(term);
+      if (definition != null && JsonLdConstants.LANGUAGE.equals(definition.getContainer())) {
+        Value value = new Value(term, definition, mJsonNodeFactory.textNode(lexical));
+        value.mLanguage = language;
+        return value;
+      }
+      ObjectNode valueObject = mJsonNodeFactory.objectNode();
+      valueObject.put(JsonLdConstants.VALUE, lexical);
+      valueObject.put(JsonLdConstants.LANGUAGE, language);
+      return new Value(term, definition, valueObject);
+    }
+
+    JsonNode nativeValue = toNative(lexical, datatype);
+    if (nativeValue != null) {
+      String term = mContext.compactPropertyForValue(aProperty, null, null);
+      return new Value(term, mContext.getTermDefinition(term), nativeValue);
+    }
+
+    String term = mContext.compactPropertyForValue(aProperty, null, datatype);
+    JsonLdContext.TermDefinition definition = mContext.getTermDefinition(term);
+    if (definition != null && datatype.equals(definition.getType())) {
+      return new Value(term, definition, mJsonNodeFactory.textNode(lexical));
+    }
+    ObjectNode valueObject = mJsonNodeFactory.objectNode();
+    valueObject.put(JsonLdConstants.VALUE, lexical);
+    valueObject.put(JsonLdConstants.TYPE, mContext.compactIri(datatype, true));
+    return new Value(term, definition, valueObject);
+  }
+
+  private static JsonNode toNative(String aLexical, String aDatatype) {
+    if (aDatatype == null || XSDDatatype.XSDstring.getURI().equals(aDatatype)) {
+      return mJsonNodeFactory.textNode(aLexical);
+    } else if (XSDDatatype.XSDboolean.getURI().equals(aDatatype)) {
+      if ("true".equals(aLexical)) {
+        return mJsonNodeFactory.booleanNode(true);
+      } else if ("false".equals(aLexical)) {
+        return mJsonNodeFactory.booleanNode(false);
+      }
+    } else if (XSDDatatype.XSDinteger.getURI().equals(aDatatype) && INTEGER.matcher(aLexical).matches()) {
+      try {
+        return mJsonNodeFactory.numberNode(Integer.parseInt(aLexical.startsWith("+")
+          ? aLexical.substring(1) : aLexical));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    } else if (XSDDatatype.XSDdouble.getURI().equals(aDatatype)) {
+      try {
+        double value = Double.parseDouble(aLexical);
+        if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+          return mJsonNodeFactory.numberNode(value);
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private static void add(ObjectNode aNode, Value aValue) {
+    if (aValue.mLanguage != null) {
+      JsonNode languageMap = aNode.get(aValue.mTerm);
+      if (languageMap == null || !languageMap.isObject()) {
+        languageMap = aNode.putObject(aValue.mTerm);
+      }
+      add((ObjectNode) languageMap, aValue.mLanguage, aValue.mValue, false);
+    } else {
+      String container = aValue.mDefinition != null ? aValue.mDefinition.getContainer() : null;
+      add(aNode, aValue.mTerm, aValue.mValue,
+        JsonLdConstants.SET.equals(container) || JsonLdConstants.LIST.equals(container));
+    }
+  }
+
+  private static void add(ObjectNode aNode, String aKey, JsonNode aValue, boolean aAsArray) {
+    JsonNode existing = aNode.get(aKey);
+    if (existing == null) {
+      if (aAsArray) {
+        aNode.putArray(aKey).add(aValue);
+      } else {
+        aNode.set(aKey, aValue);
+      }
+    } else if (existing.isArray()) {
+      ((ArrayNode) existing).add(aValue);
+    } else {
+      ArrayNode array = mJsonNodeFactory.arrayNode();
+      array.add(existing);
+      array.add(aValue);
+      aNode.set(aKey, array);
+    }
+  }
+
+  private static class Value {
+
+    private final String mTerm;
+    private final JsonLdContext.TermDefinition mDefinition;
+    private final JsonNode mValue;
+    private final String mSortKey;
+    private String mLanguage;
+
+    Value(String aTerm, JsonLdContext.TermDefinition aDefinition, JsonNode aValue) {
+      mTerm = aTerm;
+      mDefinition = aDefinition;
+      mValue = aValue;
+      mSortKey = aValue.isTextual() ? aValue.textValue() : aValue.toString();
+    }
+  }
+}
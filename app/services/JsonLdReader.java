@@ -0,0 +1,108 @@
+package services;
+
+import com.github.jsonldjava.core.Context;
+import com.github.jsonldjava.core.JsonLdApi;
+import com.github.jsonldjava.core.JsonLdError;
+import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.core.RDFDataset;
+import com.github.jsonldjava.utils.JsonUtils;
+import helpers.JsonLdConstants;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.rdf.model.Model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads JSON-LD into an RDF model. Documents referring to a registered context by URL are expanded
+ * starting from the active context held by the {@link JsonLdContextRegistry}, so that the context
+ * is neither resolved nor parsed again per document. Only the default graph is read.
+ */
+public class JsonLdReader {
+
+  private JsonLdReader() {
+  }
+
+  public static void read(Model aModel, InputStream aInputStream) throws IOException {
+    read(aModel, JsonUtils.fromInputStream(aInputStream));
+  }
+
+  public static void read(Model aModel, String aJson) throws IOException {
+    read(aModel, JsonUtils.fromString(aJson));
+  }
+
+  /**
+   * Read a parsed JSON-LD document into a model.
+   *
+   * @param aModel The model to add the statements to
+   * @param aDocument The document as parsed by jsonld-java or Jackson into maps and lists
+   * @throws IOException If the document cannot be expanded
+   */
+  @SuppressWarnings("unchecked")
+  public static void read(Model aModel, Object aDocument) throws IOException {
+
+    JsonLdOptions options = JsonLdContextRegistry.getOptions();
+    Context context = new Context(options);
+    Object input = aDocument;
+    if (aDocument instanceof Map) {
+      Object contextUrl = ((Map<String, Object>) aDocument).get(JsonLdConstants.CONTEXT);
+      if (contextUrl instanceof String && JsonLdContextRegistry.isRegistered((String) contextUrl)) {
+        context = JsonLdContextRegistry.getActiveContext((String) contextUrl);
+        Map<String, Object> withoutContext = new LinkedHashMap<>((Map<String, Object>) aDocument);
+        withoutContext.remove(JsonLdConstants.CONTEXT);
+        input = withoutContext;
+      }
+    }
+
+    RDFDataset dataset;
+    try {
+      Object expanded = new JsonLdApi(options).expand(context, input);
+      if (expanded instanceof Map && ((Map) expanded).size() == 1
+        && ((Map) expanded).containsKey(JsonLdConstants.GRAPH)) {
+        expanded = ((Map) expanded).get(JsonLdConstants.GRAPH);
+      } else if (expanded == null) {
+        expanded = new ArrayList<>();
+      }
+      if (!(expanded instanceof List)) {
+        List<Object> list = new ArrayList<>();
+        list.add(expanded);
+        expanded = list;
+      }
+      dataset = new JsonLdApi(expanded, options).toRDF();
+    } catch (JsonLdError e) {
+      throw new IOException("Could not read JSON-LD", e);
+    }
+
+    List<RDFDataset.Quad> quads = dataset.getQuads("@default");
+    if (quads == null) {
+      return;
+    }
+    Graph graph = aModel.getGraph();
+    Map<String, Node> blankNodes = new HashMap<>();
+    for (RDFDataset.Quad quad : quads) {
+      graph.add(Triple.create(toNode(quad.getSubject(), blankNodes), toNode(quad.getPredicate(), blankNodes),
+        toNode(quad.getObject(), blankNodes)));
+    }
+  }
+
+  private static Node toNode(RDFDataset.Node aNode, Map<String, Node> aBlankNodes) {
+    if (aNode.isIRI()) {
+      return NodeFactory.createURI(aNode.getValue());
+    } else if (aNode.isBlankNode()) {
+      return aBlankNodes.computeIfAbsent(aNode.getValue(), k -> NodeFactory.createBlankNode());
+    } else if (aNode.getLanguage() != null) {
+      return NodeFactory.createLiteral(aNode.getValue(), aNode.getLanguage());
+    }
+    return NodeFactory.createLiteral(aNode.getValue(),
+      TypeMapper.getInstance().getSafeTypeByName(aNode.getDatatype()));
+  }
+}
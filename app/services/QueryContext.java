@@ -23,6 +23,7 @@ public class QueryContext {
   private GeoPoint mZoomTopLeft = null;
   private GeoPoint mZoomBottomRight = null;
   private List<GeoPoint> mPolygonFilter = new ArrayList<>();
+  private List<String> mFacets = new ArrayList<>();
 
   public QueryContext(List<String> roles) {
 
@@ -55,6 +56,19 @@ public class QueryContext {
       .isEmpty(mElasticsearchFieldBoosts[0]);
   }
 
+  public List<String> getFacets() {
+    return mFacets;
+  }
+
+  /**
+   * Request term counts of facets along with the results, computed by the same search.
+   *
+   * @param aFacets The names of the facets as configured in es.facets
+   */
+  public void setFacets(List<String> aFacets) {
+    mFacets = aFacets;
+  }
+
   public String[] getFetchSource() {
     return this.fetchSource;
   }
@@ -0,0 +1,233 @@
+package services;
+
+import models.Commit;
+import models.GraphHistory;
+import models.Record;
+import models.TripleCommit;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.vocabulary.RDF;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains the metadata of records from the commits in the graph history: when a resource was
+ * created and last modified, by whom, and how many likes and lighthouses it has. The metadata is
+ * built once from the history and then updated with each new commit, so that it can be looked up
+ * without going through the history of a resource. Profile ids of authors are cached.
+ */
+public class RecordMetadataService {
+
+  private static final String SCHEMA = "http://schema.org/";
+  private static final String OBJECT = SCHEMA.concat("object");
+  private static final String OBJECT_IN = SCHEMA.concat("objectIn");
+  private static final String LIKE_ACTION = SCHEMA.concat("LikeAction");
+  private static final String LIGHTHOUSE_ACTION = SCHEMA.concat("LighthouseAction");
+
+  private static final long PROFILE_ID_TTL = TimeUnit.HOURS.toMillis(1);
+  private static final long MISSING_PROFILE_ID_TTL = TimeUnit.MINUTES.toMillis(5);
+
+  private final AccountService mAccountService;
+
+  private final Map<String, Entry> mEntries = new HashMap<>();
+  private final Map<String, String> mActionTypes = new HashMap<>();
+  private final Map<String, Set<String>> mActionObjects = new HashMap<>();
+  private final Map<String, Integer> mLikes = new HashMap<>();
+  private final Map<String, Integer> mLighthouses = new HashMap<>();
+  private final Map<String, ProfileId> mProfileIds = new ConcurrentHashMap<>();
+
+  private static class Entry {
+
+    private ZonedDateTime mDateCreated;
+    private String mAuthor;
+    private ZonedDateTime mDateModified;
+    private String mContributor;
+  }
+
+  private static class ProfileId {
+
+    private final String mProfileId;
+    private final long mExpires;
+
+    ProfileId(String aProfileId) {
+      mProfileId = aProfileId;
+      mExpires = System.currentTimeMillis() + (aProfileId != null ? PROFILE_ID_TTL : MISSING_PROFILE_ID_TTL);
+    }
+  }
+
+  /**
+   * @param aGraphHistory The history to build the metadata from, new commits are added as they are
+   *                      added to the history
+   * @param aAccountService The account service to look up profile ids of authors with
+   */
+  public RecordMetadataService(GraphHistory aGraphHistory, AccountService aAccountService) {
+    mAccountService = aAccountService;
+    List<Commit> commits = aGraphHistory.log();
+    ListIterator<Commit> listIterator = commits.listIterator(commits.size());
+    while (listIterator.hasPrevious()) {
+      add(listIterator.previous());
+    }
+    aGraphHistory.addListener(this::add);
+  }
+
+  /**
+   * Update the metadata with a commit that is newer than all commits added before.
+   *
+   * @param aCommit The commit
+   */
+  public synchronized void add(Commit aCommit) {
+
+    Commit.Header header = aCommit.getHeader();
+    Set<String> modified = new HashSet<>();
+    Set<String> actions = new HashSet<>();
+    for (Commit.Diff.Line line : aCommit.getDiff().getLines()) {
+      Statement statement = ((TripleCommit.Diff.Line) line).stmt;
+      if (statement.getSubject().isURIResource()) {
+        modified.add(statement.getSubject().getURI());
+      }
+      if (statement.getObject().isURIResource()) {
+        modified.add(statement.getObject().asResource().getURI());
+      }
+      String action = getAction(statement);
+      if (action != null) {
+        actions.add(action);
+      }
+    }
+
+    for (String id : modified) {
+      Entry entry = mEntries.computeIfAbsent(id, k -> new Entry());
+      if (entry.mDateCreated == null) {
+        entry.mDateCreated = header.getTimestamp();
+        entry.mAuthor = header.getAuthor();
+      }
+      entry.mDateModified = header.getTimestamp();
+      entry.mContributor = header.getAuthor();
+    }
+
+    if (actions.isEmpty()) {
+      return;
+    }
+    for (String action : actions) {
+      count(action, -1);
+    }
+    for (Commit.Diff.Line line : aCommit.getDiff().getLines()) {
+      Statement statement = ((TripleCommit.Diff.Line) line).stmt;
+      String action = getAction(statement);
+      if (action != null) {
+        apply(action, statement, line.add);
+      }
+    }
+    for (String action : actions) {
+      count(action, 1);
+    }
+  }
+
+  /**
+   * Get the metadata of a record.
+   *
+   * @param aId The id of the resource
+   * @return The creation and modification dates, the profile ids of the author and the latest
+   * contributor if the resource has a history, and the numbers of likes and lighthouses
+   */
+  public Map<String, String> getMetadata(String aId) {
+
+    Map<String, String> metadata = new HashMap<>();
+    String author;
+    String contributor;
+    synchronized (this) {
+      Entry entry = mEntries.get(aId);
+      if (entry != null) {
+        metadata.put(Record.DATE_CREATED, entry.mDateCreated.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        metadata.put(Record.DATE_MODIFIED, entry.mDateModified.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+      }
+      author = entry != null ? entry.mAuthor : null;
+      contributor = entry != null ? entry.mContributor : null;
+      metadata.put(Record.LIKE_COUNT, String.valueOf(mLikes.getOrDefault(aId, 0)));
+      metadata.put(Record.LIGHTHOUSE_COUNT, String.valueOf(mLighthouses.getOrDefault(aId, 0)));
+    }
+    if (metadata.containsKey(Record.DATE_CREATED)) {
+      metadata.put(Record.AUTHOR, getProfileId(author));
+      metadata.put(Record.CONTRIBUTOR, getProfileId(contributor));
+    }
+    return metadata;
+  }
+
+  private String getProfileId(String aUsername) {
+    if (aUsername == null) {
+      return mAccountService.getProfileId(null);
+    }
+    ProfileId profileId = mProfileIds.get(aUsername);
+    if (profileId == null || profileId.mExpires < System.currentTimeMillis()) {
+      profileId = new ProfileId(mAccountService.getProfileId(aUsername));
+      mProfileIds.put(aUsername, profileId);
+    }
+    return profileId.mProfileId;
+  }
+
+  private static String getAction(Statement aStatement) {
+    String predicate = aStatement.getPredicate().getURI();
+    RDFNode object = aStatement.getObject();
+    if (RDF.type.getURI().equals(predicate) && object.isURIResource()
+      && (LIKE_ACTION.equals(object.asResource().getURI())
+      || LIGHTHOUSE_ACTION.equals(object.asResource().getURI()))
+      && aStatement.getSubject().isURIResource()) {
+      return aStatement.getSubject().getURI();
+    } else if (OBJECT.equals(predicate) && object.isURIResource() && aStatement.getSubject().isURIResource()) {
+      return aStatement.getSubject().getURI();
+    } else if (OBJECT_IN.equals(predicate) && object.isURIResource() && aStatement.getSubject().isURIResource()) {
+      return object.asResource().getURI();
+    }
+    return null;
+  }
+
+  private void apply(String aAction, Statement aStatement, boolean aAddition) {
+    String predicate = aStatement.getPredicate().getURI();
+    if (RDF.type.getURI().equals(predicate)) {
+      if (aAddition) {
+        mActionTypes.put(aAction, aStatement.getObject().asResource().getURI());
+      } else {
+        mActionTypes.remove(aAction);
+      }
+      return;
+    }
+    String target = OBJECT.equals(predicate) ? aStatement.getObject().asResource().getURI()
+      : aStatement.getSubject().getURI();
+    if (aAddition) {
+      mActionObjects.computeIfAbsent(aAction, k -> new HashSet<>()).add(target);
+    } else {
+      Set<String> objects = mActionObjects.get(aAction);
+      if (objects != null) {
+        objects.remove(target);
+        if (objects.isEmpty()) {
+          mActionObjects.remove(aAction);
+        }
+      }
+    }
+  }
+
+  private void count(String aAction, int aDelta) {
+    String type = mActionTypes.get(aAction);
+    Set<String> objects = mActionObjects.get(aAction);
+    if (type == null || objects == null) {
+      return;
+    }
+    Map<String, Integer> counts = LIKE_ACTION.equals(type) ? mLikes : mLighthouses;
+    for (String object : objects) {
+      int count = counts.getOrDefault(object, 0) + aDelta;
+      if (count > 0) {
+        counts.put(object, count);
+      } else {
+        counts.remove(object);
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Progress of a full reindex. The cursor is the greatest id of which it is known that it and all
+ * lesser ids have been written, so that an interrupted reindex can be resumed from it.
+ */
+public class ReindexProgress {
+
+  private boolean mRunning = false;
+  private long mTotal = 0;
+  private long mDone = 0;
+  private long mDoneAtStart = 0;
+  private long mStartTime = 0;
+  private long mEndTime = 0;
+  private String mCursor = null;
+
+  synchronized void start(long aTotal, long aDone, String aCursor) {
+    mRunning = true;
+    mTotal = aTotal;
+    mDone = aDone;
+    mDoneAtStart = aDone;
+    mCursor = aCursor;
+    mStartTime = System.currentTimeMillis();
+    mEndTime = 0;
+  }
+
+  synchronized void advance(long aCount, String aCursor) {
+    mDone += aCount;
+    mCursor = aCursor;
+  }
+
+  synchronized void finish() {
+    mRunning = false;
+    mEndTime = System.currentTimeMillis();
+  }
+
+  public synchronized boolean isRunning() {
+    return mRunning;
+  }
+
+  public synchronized String getCursor() {
+    return mCursor;
+  }
+
+  /**
+   * @return Resources indexed per second since the reindex started
+   */
+  public synchronized double getRate() {
+    long elapsed = (mRunning ? System.currentTimeMillis() : mEndTime) - mStartTime;
+    return elapsed > 0 ? (mDone - mDoneAtStart) * 1000d / elapsed : 0;
+  }
+
+  /**
+   * @return The estimated number of seconds until the reindex is done, -1 if unknown
+   */
+  public synchronized long getEta() {
+    double rate = getRate();
+    if (!mRunning) {
+      return 0;
+    }
+    return rate > 0 ? (long) (Math.max(mTotal - mDone, 0) / rate) : -1;
+  }
+
+  public synchronized Map<String, Object> toMap() {
+    Map<String, Object> progress = new LinkedHashMap<>();
+    progress.put("running", mRunning);
+    progress.put("done", mDone);
+    progress.put("total", mTotal);
+    progress.put("rate", getRate());
+    progress.put("eta", getEta());
+    progress.put("cursor", mCursor);
+    return progress;
+  }
+}
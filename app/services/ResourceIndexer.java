@@ -1,10 +1,12 @@
 package services;
 
+import helpers.JsonLdConstants;
 import models.Commit;
 import models.GraphHistory;
 import models.Record;
 import models.Resource;
 import models.TripleCommit;
+import org.apache.jena.query.ParameterizedSparqlString;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryExecutionFactory;
 import org.apache.jena.query.QueryFactory;
@@ -13,52 +15,170 @@ import org.apache.jena.query.QuerySolution;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.shared.Lock;
+import org.apache.jena.sparql.util.FmtUtils;
+import org.apache.jena.vocabulary.RDF;
 import play.Logger;
 import services.repository.TriplestoreRepository;
 import services.repository.Writable;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by fo on 23.03.16.
  */
-public class ResourceIndexer {
+public class ResourceIndexer implements Closeable {
 
   private Model mDb;
   private Writable mTargetRepo;
   private GraphHistory mGraphHistory;
   private AccountService mAccountService;
-  private String mContextUrl;
+  private RecordMetadataService mRecordMetadataService;
+  private FramedResourceCache mFramedResourceCache;
+  private ExecutorService mWorkers;
+  private boolean mOwnsWorkers;
+  private int mNumberOfWorkers;
+  private int mBatchSize;
 
   private final static String GLOBAL_QUERY_TEMPLATE =
     "SELECT DISTINCT ?s WHERE {" +
       "    ?s a []" +
       "}";
 
+  // Below a limit of 1000, ARQ orders with a bounded top N sort instead of sorting all solutions
+  private final static int REINDEX_CHUNK_SIZE = 500;
+
+  private final static String REINDEX_CHUNK_QUERY =
+    "SELECT ?s WHERE {" +
+      "    ?s a [] ." +
+      "    FILTER ( isIRI(?s) && STR(?s) > ?cursor )" +
+      "} ORDER BY STR(?s) LIMIT " + REINDEX_CHUNK_SIZE;
+
+  private final static String REINDEX_COUNT_QUERY =
+    "SELECT (COUNT(DISTINCT ?s) AS ?count) WHERE {" +
+      "    ?s a [] ." +
+      "    FILTER ( isIRI(?s) && STR(?s) > ?cursor )" +
+      "}";
+
+  private final ReindexProgress mReindexProgress = new ReindexProgress();
+  private final LongAdder mFramed = new LongAdder();
+  private final LongAdder mFrameTime = new LongAdder();
+  private final LongAdder mMetadataUpdates = new LongAdder();
+  private final DocumentHashes mDocumentHashes = new DocumentHashes();
+  // Hashes of documents sent to the target repository that were not reported as written yet
+  private final Map<String, Long> mPendingHashes = new ConcurrentHashMap<>();
+  private boolean mReportsWrites;
+  private final LongAdder mWriteFailures = new LongAdder();
+
   // TODO: evaluate if there are other properties to exclude from triggering indexing
   private final static String SCOPE_QUERY_TEMPLATE =
     "SELECT DISTINCT ?s1 WHERE {" +
-      "    ?s1 ?p1 <%1$s> ." +
+      "    VALUES ?o { %s }" +
+      "    ?s1 ?p1 ?o ." +
       "    FILTER ( ?p1 != <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> )" +
-      "    OPTIONAL { ?y a <http://www.w3.org/2004/02/skos/core#Concept> . FILTER (<%1$s> = ?y) . }"
-      +
-      "    FILTER ( !BOUND(?y) ) " +
+      "    FILTER NOT EXISTS { ?o a <http://www.w3.org/2004/02/skos/core#Concept> }" +
       "}";
 
+  // The number of ids to look up related resources for with a single query
+  private final static int SCOPE_CHUNK_SIZE = 1000;
+
   public ResourceIndexer(Model aDb, Writable aTargetRepo, GraphHistory aGraphHistory, AccountService aAccountService,
                          String aContextUrl) {
+    this(aDb, aTargetRepo, aGraphHistory, aAccountService, new FramedResourceCache(aDb, aGraphHistory, aContextUrl,
+      0, false));
+  }
+
+  public ResourceIndexer(Model aDb, Writable aTargetRepo, GraphHistory aGraphHistory, AccountService aAccountService,
+                         FramedResourceCache aFramedResourceCache) {
+    this(aDb, aTargetRepo, aGraphHistory, aAccountService, aFramedResourceCache, 1, 1);
+  }
+
+  /**
+   * @param aNumberOfWorkers The number of threads framing resources and computing their metadata,
+   *                         the number of available processors if not positive
+   * @param aBatchSize The number of resources to write to the target repository at once
+   */
+  public ResourceIndexer(Model aDb, Writable aTargetRepo, GraphHistory aGraphHistory, AccountService aAccountService,
+                         FramedResourceCache aFramedResourceCache, int aNumberOfWorkers, int aBatchSize) {
     mDb = aDb;
     mTargetRepo = aTargetRepo;
     mGraphHistory = aGraphHistory;
     mAccountService = aAccountService;
-    mContextUrl = aContextUrl;
+    if (aGraphHistory != null && aAccountService != null) {
+      mRecordMetadataService = new RecordMetadataService(aGraphHistory, aAccountService);
+    }
+    mFramedResourceCache = aFramedResourceCache;
+    mNumberOfWorkers = aNumberOfWorkers > 0 ? aNumberOfWorkers : Runtime.getRuntime().availableProcessors();
+    mBatchSize = Math.max(aBatchSize, 1);
+    AtomicInteger threadCount = new AtomicInteger();
+    mWorkers = Executors.newFixedThreadPool(mNumberOfWorkers, runnable -> {
+      Thread thread = new Thread(runnable, "resource-indexer-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    mOwnsWorkers = true;
+    if (mTargetRepo != null) {
+      mTargetRepo.setFailureListener(this::writeFailed);
+      mReportsWrites = mTargetRepo.setWriteListener(this::written);
+    }
+  }
+
+  private ResourceIndexer(ResourceIndexer aResourceIndexer, Writable aTargetRepo) {
+    mDb = aResourceIndexer.mDb;
+    mTargetRepo = aTargetRepo;
+    mGraphHistory = aResourceIndexer.mGraphHistory;
+    mAccountService = aResourceIndexer.mAccountService;
+    mRecordMetadataService = aResourceIndexer.mRecordMetadataService;
+    mFramedResourceCache = aResourceIndexer.mFramedResourceCache;
+    mWorkers = aResourceIndexer.mWorkers;
+    mNumberOfWorkers = aResourceIndexer.mNumberOfWorkers;
+    mBatchSize = aResourceIndexer.mBatchSize;
+    if (mTargetRepo != null) {
+      mTargetRepo.setFailureListener(this::writeFailed);
+      mReportsWrites = mTargetRepo.setWriteListener(this::written);
+    }
+  }
+
+  /**
+   * Get an indexer writing to another repository, sharing the worker pool of this indexer
+   *
+   * @param aTargetRepo The repository to write to
+   * @return The indexer
+   */
+  public ResourceIndexer forTarget(Writable aTargetRepo) {
+    return new ResourceIndexer(this, aTargetRepo);
+  }
+
+  /**
+   * Shut down the worker pool once running tasks are done. Indexers created by {@link #forTarget}
+   * share the pool of this indexer and leave it running when closed.
+   */
+  @Override
+  public void close() {
+    if (mOwnsWorkers) {
+      mWorkers.shutdown();
+    }
   }
 
   /**
@@ -67,26 +187,15 @@ public class ResourceIndexer {
    * @param aDiff The diff from which to extract resources
    * @return The list of resources touched by the diff
    */
-  private Set<String> getScope(Commit.Diff aDiff) {
+  Set<String> getScope(Commit.Diff aDiff) {
 
-    Set<String> commitScope = new HashSet<>();
+    Set<String> commitScope = getCommitScope(aDiff);
     Set<String> indexScope = new HashSet<>();
 
-    if (aDiff.getLines().isEmpty()) {
+    if (commitScope.isEmpty()) {
       return commitScope;
     }
 
-    for (Commit.Diff.Line line : aDiff.getLines()) {
-      RDFNode subject = ((TripleCommit.Diff.Line) line).stmt.getSubject();
-      RDFNode object = ((TripleCommit.Diff.Line) line).stmt.getObject();
-      if (subject.isURIResource()) {
-        commitScope.add(subject.toString());
-      }
-      if (object.isURIResource()) {
-        commitScope.add(object.toString());
-      }
-    }
-
     indexScope.addAll(commitScope);
     indexScope.addAll(getScope(commitScope));
 
@@ -96,50 +205,62 @@ public class ResourceIndexer {
   }
 
   /**
-   * Queries the triple store for related resources that must also be indexed
+   * Extracts the resources directly touched by a triple diff, without querying the triple store
    *
-   * @param aIds The list of resources for which to find related resources
-   * @return The list of related resources
+   * @param aDiff The diff from which to extract resources
+   * @return The subjects and objects of the diff that are URIs
    */
-  private Set<String> getScope(Set<String> aIds) {
+  public Set<String> getCommitScope(Commit.Diff aDiff) {
 
-    Set<String> indexScope = new HashSet<>();
-    mDb.enterCriticalSection(Lock.READ);
-    try {
-      for (String id : aIds) {
-        indexScope.addAll(getScope(id));
+    Set<String> commitScope = new HashSet<>();
+
+    for (Commit.Diff.Line line : aDiff.getLines()) {
+      RDFNode subject = ((TripleCommit.Diff.Line) line).stmt.getSubject();
+      RDFNode object = ((TripleCommit.Diff.Line) line).stmt.getObject();
+      if (subject.isURIResource()) {
+        commitScope.add(subject.toString());
+      }
+      if (object.isURIResource()) {
+        commitScope.add(object.toString());
       }
-    } finally {
-      mDb.leaveCriticalSection();
     }
 
-    return indexScope;
+    return commitScope;
   }
 
   /**
-   * Queries the triple store for related resources that must also be indexed
+   * Queries the triple store for related resources that must also be indexed, i.e. resources
+   * referring to any of the given resources unless these are concepts. The ids are looked up in
+   * chunks with one query each, the read lock is only held for a chunk at a time.
    *
-   * @param aId A resource for which to find related resources
+   * @param aIds The list of resources for which to find related resources
    * @return The list of related resources
    */
-  private Set<String> getScope(String aId) {
+  private Set<String> getScope(Set<String> aIds) {
 
     Set<String> indexScope = new HashSet<>();
-    String query = String.format(SCOPE_QUERY_TEMPLATE, aId);
-    try (QueryExecution queryExecution = QueryExecutionFactory
-      .create(QueryFactory.create(query), mDb)) {
-      ResultSet rs = queryExecution.execSelect();
-      while (rs.hasNext()) {
-        QuerySolution qs = rs.next();
-        if (qs.contains("s1")) {
-          indexScope.add(qs.get("s1").toString());
-        }
-        if (qs.contains("s2")) {
-          indexScope.add(qs.get("s2").toString());
+    List<String> ids = new ArrayList<>(aIds);
+    for (int from = 0; from < ids.size(); from += SCOPE_CHUNK_SIZE) {
+      StringBuilder values = new StringBuilder();
+      for (String id : ids.subList(from, Math.min(from + SCOPE_CHUNK_SIZE, ids.size()))) {
+        values.append(FmtUtils.stringForURI(id)).append(' ');
+      }
+      String query = String.format(SCOPE_QUERY_TEMPLATE, values);
+      mDb.enterCriticalSection(Lock.READ);
+      try (QueryExecution queryExecution = QueryExecutionFactory
+        .create(QueryFactory.create(query), mDb)) {
+        ResultSet rs = queryExecution.execSelect();
+        while (rs.hasNext()) {
+          QuerySolution qs = rs.next();
+          if (qs.contains("s1")) {
+            indexScope.add(qs.get("s1").toString());
+          }
         }
+      } catch (QueryParseException e) {
+        Logger.error("Failed to execute query " + query, e);
+      } finally {
+        mDb.leaveCriticalSection();
       }
-    } catch (QueryParseException e) {
-      Logger.error("Failed to execute query " + query, e);
     }
 
     return indexScope;
@@ -173,112 +294,508 @@ public class ResourceIndexer {
   }
 
   public Resource getResource(String aId) {
+    return mFramedResourceCache.get(aId);
+  }
+
+  public void index(Resource aResource) {
 
+    if (aResource.hasId()) {
+      forgetHash(aResource.getId());
+      try {
+        mTargetRepo.addResource(aResource, getMetadata(aResource));
+      } catch (Exception e) {
+        Logger.error("Could not index resource", e);
+      }
+    }
+  }
+
+  public void index(Set<Resource> aResources) {
+
+    List<Resource> resources = new ArrayList<>();
+    List<Map<String, String>> metadata = new ArrayList<>();
+    for (Resource resource : aResources) {
+      if (resource != null && resource.hasId()) {
+        forgetHash(resource.getId());
+        resources.add(resource);
+        metadata.add(getMetadata(resource));
+      }
+    }
+    write(resources, metadata);
+  }
+
+  public void index(Commit.Diff aDiff) {
+
+    DiffScope diffScope = getDiffScope(aDiff);
+    index(diffScope.getFramed(), diffScope.getRelatedTo(), diffScope.getMetadata());
+  }
+
+  public void index(String aId) {
+
+    if (aId.equals("*")) {
+      reindex(null);
+    } else {
+      indexIds(getScope(Collections.singleton(aId)), false);
+    }
+  }
+
+  /**
+   * Index a set of resources along with all resources related to another set of resources, and
+   * update the record metadata of a third set of resources. The related resources are looked up in
+   * a single pass, so that scopes merged from several diffs or ids are only computed and indexed
+   * once. Resources that are indexed anyway are not updated separately.
+   *
+   * @param aIds The ids of resources to index
+   * @param aRelatedTo The ids of resources whose related resources to index
+   * @param aMetadata The ids of resources of which only the record metadata changed
+   * @return The number of resources indexed or updated
+   */
+  public int index(Set<String> aIds, Set<String> aRelatedTo, Set<String> aMetadata) {
+
+    Set<String> indexScope = new HashSet<>(aIds);
+    if (!aRelatedTo.isEmpty()) {
+      indexScope.addAll(getScope(aRelatedTo));
+    }
+    Set<String> metadataScope = new HashSet<>();
+    mDb.enterCriticalSection(Lock.READ);
     try {
-      Resource resource = ResourceFramer.resourceFromModel(TriplestoreRepository.getExtendedDescription(aId, mDb),
-        aId, mContextUrl);
-      if (resource != null) {
-        return resource;
+      for (String id : aMetadata) {
+        if (!indexScope.contains(id) && mDb.contains(mDb.createResource(id), RDF.type)) {
+          metadataScope.add(id);
+        }
+      }
+    } finally {
+      mDb.leaveCriticalSection();
+    }
+    if (mRecordMetadataService == null) {
+      indexScope.addAll(metadataScope);
+      metadataScope.clear();
+    }
+    Logger.debug("Indexing scope is " + indexScope + ", updating metadata of " + metadataScope);
+    return indexIds(indexScope, false) + updateMetadata(metadataScope);
+  }
+
+  /**
+   * Classifies the changes of a diff by the documents they affect. The document of a resource
+   * consists of its own description and the identifying properties of the resources it refers to,
+   * see {@link TriplestoreRepository#IDENTIFYING_PROPERTIES}. So subjects of changes need to be
+   * framed again, resources referring to them only if identifying properties changed. The objects
+   * of changes do not need to be framed again, but their history and with it their record
+   * metadata changed. Liking a resource links it to the like action, so the liked resource is framed
+   * again with its like count, but the resources referring to it are not, because the link is not
+   * an identifying property.
+   *
+   * @param aDiff The diff to classify
+   * @return The scope of the diff
+   */
+  public DiffScope getDiffScope(Commit.Diff aDiff) {
+
+    DiffScope diffScope = new DiffScope();
+    for (Commit.Diff.Line line : aDiff.getLines()) {
+      Statement statement = ((TripleCommit.Diff.Line) line).stmt;
+      if (statement.getSubject().isURIResource()) {
+        diffScope.mFramed.add(statement.getSubject().getURI());
+        if (TriplestoreRepository.IDENTIFYING_PROPERTIES.contains(statement.getPredicate())) {
+          diffScope.mRelatedTo.add(statement.getSubject().getURI());
+        }
+      }
+      if (statement.getObject().isURIResource() && !RDF.type.equals(statement.getPredicate())) {
+        diffScope.mMetadata.add(statement.getObject().asResource().getURI());
       }
-    } catch (IOException e) {
-      Logger.error("Could not create resource from model", e);
     }
+    return diffScope;
+  }
 
-    return null;
+  /**
+   * The resources affected by a diff, see {@link #getDiffScope(Commit.Diff)}.
+   */
+  public static class DiffScope {
+
+    private final Set<String> mFramed = new HashSet<>();
+    private final Set<String> mRelatedTo = new HashSet<>();
+    private final Set<String> mMetadata = new HashSet<>();
+
+    /**
+     * @return The resources whose documents changed
+     */
+    public Set<String> getFramed() {
+      return mFramed;
+    }
+
+    /**
+     * @return The resources whose identifying properties changed
+     */
+    public Set<String> getRelatedTo() {
+      return mRelatedTo;
+    }
+
+    /**
+     * @return The resources whose record metadata changed
+     */
+    public Set<String> getMetadata() {
+      return mMetadata;
+    }
   }
 
-  private Set<Resource> getResources(String aId) {
+  /**
+   * Update the record metadata of resources without framing them again.
+   *
+   * @param aIds The ids of the resources
+   * @return The number of resources updated
+   */
+  private int updateMetadata(Set<String> aIds) {
 
-    Set<Resource> resourcesToIndex = new HashSet<>();
-    Set<String> idsToIndex = this.getScope(aId);
-    for (String id : idsToIndex) {
-      resourcesToIndex.add(getResource(id));
+    if (aIds.isEmpty()) {
+      return 0;
+    }
+    List<String> ids = new ArrayList<>(aIds);
+    List<Map<String, String>> metadata = new ArrayList<>();
+    for (String id : ids) {
+      forgetHash(id);
+      metadata.add(mRecordMetadataService.getMetadata(id));
     }
+    try {
+      mTargetRepo.updateMetadata(ids, metadata);
+      mMetadataUpdates.add(ids.size());
+    } catch (Exception e) {
+      Logger.error("Could not update metadata", e);
+      ids.forEach(this::writeFailed);
+      return 0;
+    }
+    return ids.size();
+  }
 
-    return resourcesToIndex;
+  /**
+   * @return The number of resources framed and the time spent on framing them and computing their
+   * metadata, the number of resources of which only the metadata was updated and an estimate of
+   * the time saved by not framing these
+   */
+  public Map<String, Number> getMetrics() {
+    Map<String, Number> metrics = new TreeMap<>();
+    long framed = mFramed.sum();
+    long frameTime = mFrameTime.sum() / 1000000;
+    long metadataUpdates = mMetadataUpdates.sum();
+    metrics.put("framed", framed);
+    metrics.put("frame_ms", frameTime);
+    metrics.put("metadata_updates", metadataUpdates);
+    metrics.put("saved_ms", framed > 0 ? metadataUpdates * frameTime / framed : 0);
+    return metrics;
   }
 
-  private Set<Resource> getResources(Commit.Diff aDiff) {
+  /**
+   * Index all resources in the triple store. Ids are read in chunks ordered by id, each chunk is
+   * framed and written before the next is read, so that memory use does not depend on the size of
+   * the triple store. Progress is reported through {@link #getReindexProgress()}.
+   *
+   * @param aCursor The id after which to resume an interrupted reindex, null to start from the
+   *                beginning
+   * @return The number of resources indexed
+   */
+  public int reindex(String aCursor) {
 
-    Set<Resource> resourcesToIndex = new HashSet<>();
-    Set<String> idsToIndex = this.getScope(aDiff);
-    for (String id : idsToIndex) {
-      resourcesToIndex.add(getResource(id));
+    String cursor = aCursor == null ? "" : aCursor;
+    long total = count("");
+    mReindexProgress.start(total, total - count(cursor), aCursor);
+    Logger.info("Reindexing " + total + " resources" + (aCursor == null ? "" : " after " + aCursor));
+
+    int count = 0;
+    try {
+      List<String> chunk;
+      while (!(chunk = getChunk(cursor)).isEmpty()) {
+        count += indexIds(chunk, true);
+        mTargetRepo.flush();
+        cursor = chunk.get(chunk.size() - 1);
+        mReindexProgress.advance(chunk.size(), cursor);
+      }
+    } finally {
+      mReindexProgress.finish();
     }
+    Logger.info(String.format("Reindexed %d resources at %.1f/s", count, mReindexProgress.getRate()));
+    return count;
+  }
+
+  public ReindexProgress getReindexProgress() {
+    return mReindexProgress;
+  }
 
-    return resourcesToIndex;
+  /**
+   * @return The hashes of the documents written by this indexer
+   */
+  public DocumentHashes getDocumentHashes() {
+    return mDocumentHashes;
   }
 
-  public Set<Resource> getResources() {
+  private List<String> getChunk(String aCursor) {
 
-    Set<Resource> resourcesToIndex = new HashSet<>();
-    Set<String> idsToIndex = this.getScope();
-    for (String id : idsToIndex) {
-      resourcesToIndex.add(getResource(id));
+    ParameterizedSparqlString query = new ParameterizedSparqlString(REINDEX_CHUNK_QUERY);
+    query.setLiteral("cursor", aCursor);
+    Set<String> chunk = new LinkedHashSet<>();
+    mDb.enterCriticalSection(Lock.READ);
+    try (QueryExecution queryExecution = QueryExecutionFactory.create(query.asQuery(), mDb)) {
+      ResultSet rs = queryExecution.execSelect();
+      while (rs.hasNext()) {
+        chunk.add(rs.next().getResource("s").getURI());
+      }
+    } finally {
+      mDb.leaveCriticalSection();
     }
+    return new ArrayList<>(chunk);
+  }
+
+  private long count(String aCursor) {
 
-    return resourcesToIndex;
+    ParameterizedSparqlString query = new ParameterizedSparqlString(REINDEX_COUNT_QUERY);
+    query.setLiteral("cursor", aCursor);
+    mDb.enterCriticalSection(Lock.READ);
+    try (QueryExecution queryExecution = QueryExecutionFactory.create(query.asQuery(), mDb)) {
+      ResultSet rs = queryExecution.execSelect();
+      return rs.hasNext() ? rs.next().getLiteral("count").getLong() : 0;
+    } finally {
+      mDb.leaveCriticalSection();
+    }
   }
 
-  public void index(Resource aResource) {
+  /**
+   * Frames resources and computes their metadata on the worker pool, writing the results to the
+   * target repository in batches from the calling thread. The number of resources in flight is
+   * bounded, so that memory use does not depend on the number of resources to index. Documents
+   * that did not change since they were last written are skipped unless forced.
+   *
+   * @param aIds The ids of the resources to index
+   * @param aForce Whether to write documents that did not change
+   * @return The number of resources written
+   */
+  private int indexIds(Collection<String> aIds, boolean aForce) {
 
-    if (aResource.hasId()) {
+    long startTime = System.nanoTime();
+    LongAdder frameTime = new LongAdder();
+    LongAdder metadataTime = new LongAdder();
+    long writeTime = 0;
+    int count = 0;
+
+    CompletionService<Prepared> completionService = new ExecutorCompletionService<>(mWorkers);
+    int maxInFlight = mNumberOfWorkers * 2 + mBatchSize;
+    int inFlight = 0;
+    Iterator<String> ids = aIds.iterator();
+    List<Resource> resources = new ArrayList<>();
+    List<Map<String, String>> metadata = new ArrayList<>();
+    List<Long> versions = new ArrayList<>();
+    Map<String, Long> hashes = new HashMap<>();
+
+    while (ids.hasNext() || inFlight > 0) {
+      while (ids.hasNext() && inFlight < maxInFlight) {
+        String id = ids.next();
+        completionService.submit(() -> prepare(id, frameTime, metadataTime));
+        inFlight++;
+      }
+      Prepared prepared;
       try {
-        Map<String, String> metadata = new HashMap<>();
-        if (mGraphHistory != null && mAccountService != null) {
-          List<Commit> history = mGraphHistory.log(aResource.getId());
-          metadata.put(Record.CONTRIBUTOR, mAccountService.getProfileId(history.get(0).getHeader().getAuthor()));
-          metadata.put(Record.AUTHOR,
-            mAccountService.getProfileId(history.get(history.size() - 1).getHeader().getAuthor()));
-          metadata.put(Record.DATE_MODIFIED, history.get(0).getHeader().getTimestamp()
-            .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
-          metadata
-            .put(Record.DATE_CREATED, history.get(history.size() - 1).getHeader().getTimestamp()
-              .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        prepared = completionService.take().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        Logger.error("Interrupted while indexing", e);
+        return count;
+      } catch (ExecutionException e) {
+        Logger.error("Could not index resource", e.getCause());
+        prepared = null;
+      }
+      inFlight--;
+      if (prepared != null && (prepared.mHash == null
+        || mDocumentHashes.isChanged(prepared.mResource.getId(), prepared.mHash, aForce))) {
+        resources.add(prepared.mResource);
+        metadata.add(prepared.mMetadata);
+        versions.add(prepared.mVersion);
+        if (prepared.mHash != null) {
+          hashes.put(prepared.mResource.getId(), prepared.mHash);
         }
-        metadata.put(Record.LINK_COUNT, String.valueOf(aResource.getNumberOfSubFields("**.@id")));
-        metadata
-          .put(Record.LIKE_COUNT, String.valueOf(aResource.getAsList("objectIn").stream().filter(
-            resource -> resource.getType().equals("LikeAction")).count()));
-        metadata.put(Record.LIGHTHOUSE_COUNT,
-          String.valueOf(aResource.getAsList("objectIn").stream().filter(
-            resource -> resource.getType().equals("LighthouseAction")).count()));
-        mTargetRepo.addResource(aResource, metadata);
-      } catch (Exception e) {
-        Logger.error("Could not index resource", e);
+      }
+      if (resources.size() >= mBatchSize || (!ids.hasNext() && inFlight == 0 && !resources.isEmpty())) {
+        long writeStart = System.nanoTime();
+        write(resources, metadata, versions, hashes);
+        writeTime += System.nanoTime() - writeStart;
+        count += resources.size();
+        resources = new ArrayList<>();
+        metadata = new ArrayList<>();
+        versions = new ArrayList<>();
+        hashes = new HashMap<>();
       }
     }
+
+    Logger.debug(String.format("Done indexing %d resources, took %d ms (framing %d ms, metadata %d ms, "
+        + "writing %d ms, %d workers)", count, (System.nanoTime() - startTime) / 1000000,
+      frameTime.sum() / 1000000, metadataTime.sum() / 1000000, writeTime / 1000000, mNumberOfWorkers));
+    return count;
   }
 
-  public void index(Set<Resource> aResources) {
+  private Prepared prepare(String aId, LongAdder aFrameTime, LongAdder aMetadataTime) {
+    long start = System.nanoTime();
+    // Commits are applied to the triple store before they are added to the history, so the framed
+    // resource reflects at least all commits up to the current head of the history
+    int headVersion = mGraphHistory != null ? mGraphHistory.getHeadVersion() : 0;
+    Resource resource;
+    mDb.enterCriticalSection(Lock.READ);
+    try {
+      resource = getResource(aId);
+    } finally {
+      mDb.leaveCriticalSection();
+    }
+    long framed = System.nanoTime();
+    aFrameTime.add(framed - start);
+    if (resource == null || !resource.hasId()) {
+      forgetHash(aId);
+      return null;
+    }
+    Map<String, String> metadata = getMetadata(resource);
+    aMetadataTime.add(System.nanoTime() - framed);
+    mFramed.increment();
+    mFrameTime.add(System.nanoTime() - start);
+    Long hash;
+    try {
+      hash = mDocumentHashes.hash(resource, metadata);
+    } catch (IOException e) {
+      Logger.error("Could not hash resource " + aId, e);
+      forgetHash(aId);
+      hash = null;
+    }
+    return new Prepared(resource, metadata, getVersion(resource, headVersion), hash);
+  }
 
-    long startTime = System.nanoTime();
-    for (Resource resource : aResources) {
-      if (resource != null) {
-        index(resource);
+  private static class Prepared {
+
+    private final Resource mResource;
+    private final Map<String, String> mMetadata;
+    private final long mVersion;
+    private final Long mHash;
+
+    Prepared(Resource aResource, Map<String, String> aMetadata, long aVersion, Long aHash) {
+      mResource = aResource;
+      mMetadata = aMetadata;
+      mVersion = aVersion;
+      mHash = aHash;
+    }
+  }
+
+  /**
+   * Get the version of a framed resource, i.e. the position in the history of the newest commit
+   * touching the resource or any resource embedded in it. Commits added to the history after
+   * framing started may or may not be reflected, so the version is capped at the version of the
+   * head of the history at that time.
+   *
+   * @param aResource The framed resource
+   * @param aHeadVersion The version of the head of the history before framing
+   * @return The version of the resource, 0 if unknown
+   */
+  long getVersion(Resource aResource, int aHeadVersion) {
+    if (mGraphHistory == null) {
+      return 0;
+    }
+    Set<String> ids = new HashSet<>();
+    collectIds(aResource, ids);
+    int version = 0;
+    for (String id : ids) {
+      version = Math.max(version, mGraphHistory.getVersion(id));
+    }
+    return Math.min(version, aHeadVersion);
+  }
+
+  private static void collectIds(Object aValue, Set<String> aIds) {
+    if (aValue instanceof Map<?, ?>) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) aValue).entrySet()) {
+        if (JsonLdConstants.ID.equals(entry.getKey()) && entry.getValue() instanceof String) {
+          aIds.add((String) entry.getValue());
+        } else {
+          collectIds(entry.getValue(), aIds);
+        }
+      }
+    } else if (aValue instanceof List<?>) {
+      for (Object item : (List<?>) aValue) {
+        collectIds(item, aIds);
       }
     }
-    long endTime = System.nanoTime();
-    long duration = (endTime - startTime) / 1000000000;
-    Logger.debug("Done indexing, took ".concat(Long.toString(duration)).concat(" sec."));
   }
 
-  public void index(Commit.Diff aDiff) {
+  private void write(List<Resource> aResources, List<Map<String, String>> aMetadata) {
+    write(aResources, aMetadata, Collections.nCopies(aResources.size(), 0L), Collections.emptyMap());
+  }
 
-    Set<Resource> denormalizedResources = getResources(aDiff);
-    index(denormalizedResources);
+  /**
+   * @param aHashes The hashes of the documents to record once they were written, by id
+   */
+  private void write(List<Resource> aResources, List<Map<String, String>> aMetadata, List<Long> aVersions,
+                     Map<String, Long> aHashes) {
+    if (aResources.isEmpty()) {
+      return;
+    }
+    if (mReportsWrites) {
+      mPendingHashes.putAll(aHashes);
+    }
+    try {
+      mTargetRepo.addResources(aResources, aMetadata, aVersions);
+    } catch (Exception e) {
+      Logger.error("Could not index resources", e);
+      aResources.forEach(resource -> writeFailed(resource.getId()));
+      return;
+    }
+    if (!mReportsWrites) {
+      aHashes.forEach(mDocumentHashes::put);
+    }
   }
 
-  public void index(String aId) {
+  /**
+   * Record the hash of a document once the target repository reports that it was written, so that
+   * hashes never claim a document that may not be in the index.
+   */
+  private void written(String aId) {
+    Long hash = mPendingHashes.remove(aId);
+    if (hash != null) {
+      mDocumentHashes.put(aId, hash);
+    }
+  }
 
-    Set<Resource> denormalizedResources;
+  /**
+   * Forget the hash of a document that could not be written, so that it is written again the next
+   * time it is indexed even if it did not change.
+   */
+  private void writeFailed(String aId) {
+    forgetHash(aId);
+    mWriteFailures.increment();
+  }
 
-    if (aId.equals("*")) {
-      denormalizedResources = getResources();
+  private void forgetHash(String aId) {
+    mPendingHashes.remove(aId);
+    mDocumentHashes.remove(aId);
+  }
+
+  /**
+   * Write all resources buffered by the target repository.
+   *
+   * @return False if it is unknown whether all of them were written
+   */
+  public boolean flush() {
+    return mTargetRepo.flush();
+  }
+
+  /**
+   * @return The number of resources that could not be written so far, including resources whose
+   * metadata could not be updated
+   */
+  public long getWriteFailures() {
+    return mWriteFailures.sum();
+  }
+
+  private Map<String, String> getMetadata(Resource aResource) {
+
+    Map<String, String> metadata = new HashMap<>();
+    if (mRecordMetadataService != null) {
+      metadata.putAll(mRecordMetadataService.getMetadata(aResource.getId()));
     } else {
-      denormalizedResources = getResources(aId);
+      metadata
+        .put(Record.LIKE_COUNT, String.valueOf(aResource.getAsList("objectIn").stream().filter(
+          resource -> resource.getType().equals("LikeAction")).count()));
+      metadata.put(Record.LIGHTHOUSE_COUNT,
+        String.valueOf(aResource.getAsList("objectIn").stream().filter(
+          resource -> resource.getType().equals("LighthouseAction")).count()));
     }
-
-    index(denormalizedResources);
+    metadata.put(Record.LINK_COUNT, String.valueOf(aResource.getNumberOfSubFields("**.@id")));
+    return metadata;
   }
 }
@@ -0,0 +1,21 @@
+package services;
+
+import org.elasticsearch.search.SearchHit;
+
+/**
+ * Iterates over all hits of a search while they are read from Elasticsearch. Iterators that are
+ * abandoned before all hits were read should be closed.
+ */
+public interface SearchHitIterator extends CloseableIterator<SearchHit> {
+
+  /**
+   * @return The total number of hits
+   */
+  long getTotalHits();
+
+  /**
+   * @return The maximum score of all hits, as reported with the first page of each scroll, so that
+   * it is known before any hit is read
+   */
+  float getMaxScore();
+}
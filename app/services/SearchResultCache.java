@@ -0,0 +1,232 @@
+package services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import models.Resource;
+import play.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cache of search results, keyed by the normalized search request. Each entry is stamped with the
+ * generation of the index it was read from. The generation is bumped whenever documents were written
+ * to or deleted from the index, so that entries are only served as long as the index did not
+ * change. Because written documents only become visible to search once the index is refreshed,
+ * entries read within the refresh interval after the last change expire at the end of that interval.
+ * Values are stored serialized, so that callers always get a copy they are free to modify.
+ */
+public class SearchResultCache {
+
+  private static final TypeReference<LinkedHashMap<String, LinkedHashMap<String, Long>>> FACETS_TYPE =
+    new TypeReference<LinkedHashMap<String, LinkedHashMap<String, Long>>>() {
+    };
+
+  private final int mMaxSize;
+  private final long mRefreshInterval;
+  private final ObjectMapper mObjectMapper = new ObjectMapper();
+
+  private final LinkedHashMap<String, CacheEntry> mEntries;
+
+  private long mGeneration;
+  private long mInvalidated;
+
+  private long mHits;
+  private long mMisses;
+  private long mEvictions;
+
+  private static class CacheEntry {
+
+    private final byte[] mItems;
+    private final long mTotalItems;
+    private final byte[] mFacets;
+    private final long mGeneration;
+    private final long mExpires;
+
+    CacheEntry(byte[] aItems, long aTotalItems, byte[] aFacets, long aGeneration, long aExpires) {
+      mItems = aItems;
+      mTotalItems = aTotalItems;
+      mFacets = aFacets;
+      mGeneration = aGeneration;
+      mExpires = aExpires;
+    }
+  }
+
+  /**
+   * A page of search results.
+   */
+  public static class Page {
+
+    private final List<Resource> mItems;
+    private final long mTotalItems;
+    private final Map<String, Map<String, Long>> mFacets;
+
+    Page(List<Resource> aItems, long aTotalItems, Map<String, Map<String, Long>> aFacets) {
+      mItems = aItems;
+      mTotalItems = aTotalItems;
+      mFacets = aFacets;
+    }
+
+    public List<Resource> getItems() {
+      return mItems;
+    }
+
+    public long getTotalItems() {
+      return mTotalItems;
+    }
+
+    /**
+     * @return The term counts of the facets requested along with the results, null if none were
+     */
+    public Map<String, Map<String, Long>> getFacets() {
+      return mFacets;
+    }
+  }
+
+  /**
+   * @param aMaxSize The maximum number of entries, caching is disabled if not positive
+   * @param aRefreshInterval The time in milliseconds until changes become visible to search
+   */
+  public SearchResultCache(int aMaxSize, long aRefreshInterval) {
+    mMaxSize = aMaxSize;
+    mRefreshInterval = aRefreshInterval;
+    mInvalidated = System.currentTimeMillis();
+    mEntries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> aEldest) {
+        if (size() > mMaxSize) {
+          mEvictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  public boolean isEnabled() {
+    return mMaxSize > 0;
+  }
+
+  /**
+   * @return The current generation of the index, to be passed to {@link #put} for results read
+   * afterwards
+   */
+  public synchronized long getGeneration() {
+    return mGeneration;
+  }
+
+  /**
+   * Bump the generation of the index, e.g. because documents were written to it.
+   */
+  public synchronized void invalidate() {
+    mGeneration++;
+    mInvalidated = System.currentTimeMillis();
+    mEntries.clear();
+  }
+
+  /**
+   * @param aKey The normalized search request
+   * @return A copy of the cached results or null if they are not cached or stale
+   */
+  public Page get(String aKey) {
+    if (!isEnabled()) {
+      return null;
+    }
+    CacheEntry entry;
+    synchronized (this) {
+      entry = mEntries.get(aKey);
+      if (entry != null && entry.mGeneration == mGeneration && entry.mExpires > System.currentTimeMillis()) {
+        mHits++;
+      } else {
+        if (entry != null) {
+          mEntries.remove(aKey);
+        }
+        mMisses++;
+        return null;
+      }
+    }
+    try {
+      List<Resource> items = new ArrayList<>();
+      for (JsonNode item : mObjectMapper.readTree(entry.mItems)) {
+        items.add(Resource.fromJson(item));
+      }
+      Map<String, Map<String, Long>> facets = entry.mFacets == null ? null
+        : mObjectMapper.readValue(entry.mFacets, FACETS_TYPE);
+      return new Page(items, entry.mTotalItems, facets);
+    } catch (IOException e) {
+      Logger.error("Could not read cached search results for " + aKey, e);
+      return null;
+    }
+  }
+
+  /**
+   * Cache search results unless the index changed since they were read.
+   *
+   * @param aKey The normalized search request
+   * @param aGeneration The generation of the index before the results were read
+   * @param aItems The results
+   * @param aTotalItems The total number of results
+   * @param aMaxAge The time in milliseconds after which the results expire regardless of changes to
+   *                the index, e.g. because the request depends on the current date, 0 if unlimited
+   */
+  public void put(String aKey, long aGeneration, List<Resource> aItems, long aTotalItems, long aMaxAge) {
+    put(aKey, aGeneration, aItems, aTotalItems, null, aMaxAge);
+  }
+
+  /**
+   * Cache search results and the term counts of facets requested along with them unless the index
+   * changed since they were read.
+   *
+   * @param aFacets The term counts by facet name, in the order they are to be served
+   * @see #put(String, long, List, long, long)
+   */
+  public void put(String aKey, long aGeneration, List<Resource> aItems, long aTotalItems,
+                  Map<String, Map<String, Long>> aFacets, long aMaxAge) {
+    if (!isEnabled()) {
+      return;
+    }
+    ArrayNode items = mObjectMapper.createArrayNode();
+    for (Resource item : aItems) {
+      items.add(item.toJson());
+    }
+    byte[] value;
+    byte[] facets;
+    try {
+      value = mObjectMapper.writeValueAsBytes(items);
+      facets = aFacets == null ? null : mObjectMapper.writeValueAsBytes(aFacets);
+    } catch (IOException e) {
+      Logger.error("Could not cache search results for " + aKey, e);
+      return;
+    }
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      if (aGeneration != mGeneration) {
+        return;
+      }
+      long expires = now - mInvalidated < mRefreshInterval ? mInvalidated + mRefreshInterval : Long.MAX_VALUE;
+      if (aMaxAge > 0) {
+        expires = Math.min(expires, now + aMaxAge);
+      }
+      mEntries.put(aKey, new CacheEntry(value, aTotalItems, facets, aGeneration, expires));
+    }
+  }
+
+  /**
+   * @return The number of entries, hits, misses and evictions and the generation of the index
+   */
+  public synchronized Map<String, Long> getMetrics() {
+    Map<String, Long> metrics = new TreeMap<>();
+    metrics.put("size", (long) mEntries.size());
+    metrics.put("hits", mHits);
+    metrics.put("misses", mMisses);
+    metrics.put("evictions", mEvictions);
+    metrics.put("generation", mGeneration);
+    return metrics;
+  }
+}
@@ -22,7 +22,10 @@ import net.fortuna.ical4j.model.property.ProdId;
 import net.fortuna.ical4j.model.property.Uid;
 import net.fortuna.ical4j.model.property.Url;
 import net.fortuna.ical4j.model.property.Version;
+import net.fortuna.ical4j.util.Strings;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -39,7 +42,7 @@ import java.util.TimeZone;
 /**
  * Created by fo and pvb
  */
-public class CalendarExporter implements Exporter {
+public class CalendarExporter implements StreamingExporter {
 
   private final Locale preferredLocale;
   private final String dateStamp;
@@ -76,17 +79,41 @@ public class CalendarExporter implements Exporter {
   public String export(ResourceList aResourceList) {
     Calendar calendar = initCalendar();
     for (Resource record: aResourceList.getItems()) {
-      Resource resource = record.getAsResource(Record.RESOURCE_KEY);
-      if (resource.getType().equals("Event")) {
-        VEvent event = resourceToEvent(resource);
-        if (event != null) {
-          calendar.getComponents().add(event);
-        }
+      VEvent event = recordToEvent(record);
+      if (event != null) {
+        calendar.getComponents().add(event);
       }
     }
     return calendar.toString();
   }
 
+  /**
+   * Writes the same calendar as {@link #export(ResourceList)}, one event at a time.
+   */
+  @Override
+  public void export(Iterable<Resource> aRecords, Writer aWriter) throws IOException {
+    aWriter.write(Calendar.BEGIN + ':' + Calendar.VCALENDAR + Strings.LINE_SEPARATOR);
+    aWriter.write(initCalendar().getProperties().toString());
+    for (Resource record: aRecords) {
+      VEvent event = recordToEvent(record);
+      if (event != null) {
+        aWriter.write(event.toString());
+      }
+    }
+    aWriter.write(Calendar.END + ':' + Calendar.VCALENDAR + Strings.LINE_SEPARATOR);
+  }
+
+  @Override
+  public String[] getSourceFields() {
+    return new String[]{"about.@id", "about.@type", "about.startDate", "about.endDate", "about.organizer",
+      "about.location", "about.url", "about.name", "about.description"};
+  }
+
+  private VEvent recordToEvent(Resource record) {
+    Resource resource = record.getAsResource(Record.RESOURCE_KEY);
+    return resource.getType().equals("Event") ? resourceToEvent(resource) : null;
+  }
+
   private Calendar initCalendar() {
     Calendar calendar = new Calendar();
     calendar.getProperties().add(new ProdId("https://oerworldmap.org/"));
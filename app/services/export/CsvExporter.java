@@ -1,20 +1,37 @@
 package services.export;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import models.Record;
 import models.Resource;
 import models.ResourceList;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
 
-public class CsvExporter implements Exporter {
+public class CsvExporter implements StreamingExporter {
+
+  private static final Pattern ARRAY_INDEX = Pattern.compile("\\d+|\\\\d[+*]?|\\[0-9\\][+*]?");
+  private static final Pattern NAME = Pattern.compile("[\\w@-]+");
+  private static final ObjectMapper mObjectMapper = new ObjectMapper();
+  private static final TypeReference<HashMap<String, String>> VALUES_TYPE =
+    new TypeReference<HashMap<String, String>>() {
+    };
 
   private List<Pattern> exposedHeaders;
 
@@ -52,36 +69,111 @@ public class CsvExporter implements Exporter {
   }
 
   private String export(List<Resource> resources) {
-    List<Map<String, String>> pointerDicts = new ArrayList<>();
     Set<String> headers = new TreeSet<>();
-    for (Resource resource: resources) {
-      Map<String, String> pointerDict = resource.getAsResource(Record.RESOURCE_KEY).toPointerDict();
-      pointerDicts.add(pointerDict);
-      headers.addAll(pointerDict.keySet());
+    List<Map<String, String>> rows = new ArrayList<>();
+    for (Resource resource : resources) {
+      rows.add(getExposedValues(resource, headers));
     }
-    Iterator<String> it = headers.iterator();
-    while(it.hasNext()) {
-      String header = it.next();
-      boolean discard = true;
-      for (Pattern exposedHeader: exposedHeaders) {
-        if (exposedHeader.matcher(header).matches()) {
-          discard = false;
-          break;
+    StringWriter writer = new StringWriter();
+    try {
+      write(headers, rows, writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Reads the resources once, so that all rows come from the same read of the index. The values are
+   * spooled to a temporary file while the headers are collected, and written once all are known.
+   */
+  @Override
+  public void export(Iterable<Resource> resources, Writer writer) throws IOException {
+    Set<String> headers = new TreeSet<>();
+    Path spool = Files.createTempFile("export", ".csv");
+    try {
+      try (Writer spoolWriter = Files.newBufferedWriter(spool, StandardCharsets.UTF_8)) {
+        for (Resource resource : resources) {
+          spoolWriter.write(mObjectMapper.writeValueAsString(getExposedValues(resource, headers)));
+          spoolWriter.write("\n");
         }
       }
-      if (discard) it.remove();
+      try (BufferedReader spoolReader = Files.newBufferedReader(spool, StandardCharsets.UTF_8)) {
+        Iterable<Map<String, String>> rows = () -> spoolReader.lines().map(line -> {
+          try {
+            return mObjectMapper.<Map<String, String>>readValue(line, VALUES_TYPE);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }).iterator();
+        write(headers, rows, writer);
+      }
+    } finally {
+      Files.deleteIfExists(spool);
     }
-    StringBuilder stringBuilder = new StringBuilder();
-    stringBuilder.append(String.join(",", headers)).append("\n");
-    for (Map<String, String> pointerDict : pointerDicts) {
+  }
+
+  private Map<String, String> getExposedValues(Resource resource, Set<String> headers) {
+    Map<String, String> values = new HashMap<>();
+    for (Map.Entry<String, String> entry : getPointerDict(resource).entrySet()) {
+      if (headers.contains(entry.getKey()) || isExposed(entry.getKey())) {
+        headers.add(entry.getKey());
+        values.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return values;
+  }
+
+  private static void write(Set<String> headers, Iterable<Map<String, String>> rows, Writer writer)
+    throws IOException {
+    writer.write(String.join(",", headers));
+    writer.write("\n");
+    for (Map<String, String> row : rows) {
       List<String> values = new ArrayList<>();
       for (String header : headers) {
-        String value = pointerDict.getOrDefault(header, "");
+        String value = row.getOrDefault(header, "");
         values.add("\"".concat(value.replace("\"", "\"\"")).concat("\""));
       }
-      stringBuilder.append(String.join(",", values)).append("\n");
+      writer.write(String.join(",", values));
+      writer.write("\n");
+    }
+  }
+
+  /**
+   * @return The fields holding the exposed headers, each one the path of a header pattern up to its
+   * first segment that is neither a name nor an array index
+   */
+  @Override
+  public String[] getSourceFields() {
+    Set<String> fields = new TreeSet<>();
+    for (Pattern exposedHeader : exposedHeaders) {
+      String[] segments = exposedHeader.pattern().split("/");
+      StringBuilder field = new StringBuilder(Record.RESOURCE_KEY);
+      for (int i = 1; i < segments.length && segments[0].isEmpty(); i++) {
+        if (ARRAY_INDEX.matcher(segments[i]).matches()) {
+          continue;
+        }
+        if (!NAME.matcher(segments[i]).matches()) {
+          break;
+        }
+        field.append('.').append(segments[i]);
+      }
+      fields.add(field.toString());
+    }
+    return fields.toArray(new String[0]);
+  }
+
+  private static Map<String, String> getPointerDict(Resource resource) {
+    return resource.getAsResource(Record.RESOURCE_KEY).toPointerDict();
+  }
+
+  private boolean isExposed(String header) {
+    for (Pattern exposedHeader: exposedHeaders) {
+      if (exposedHeader.matcher(header).matches()) {
+        return true;
+      }
     }
-    return stringBuilder.toString();
+    return false;
   }
 
 }
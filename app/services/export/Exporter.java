@@ -11,4 +11,12 @@ public interface Exporter {
   String export(Resource aResource);
 
   String export(ResourceList aResourceList);
+
+  /**
+   * @return The source fields of indexed records that a list export reads, so that only those need
+   * to be fetched, or none if all of them are needed
+   */
+  default String[] getSourceFields() {
+    return new String[]{};
+  }
 }
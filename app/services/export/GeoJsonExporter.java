@@ -9,12 +9,14 @@ import models.Record;
 import models.Resource;
 import models.ResourceList;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
 /**
  * Created by fo on 27.03.17.
  */
-public class GeoJsonExporter implements Exporter {
+public class GeoJsonExporter implements StreamingExporter {
 
   static final ObjectMapper mObjectMapper = new ObjectMapper();
 
@@ -29,6 +31,38 @@ public class GeoJsonExporter implements Exporter {
     return exportJson(aResourceList.getItems()).toString();
   }
 
+  /**
+   * Writes the same feature collection as {@link #export(ResourceList)}, one feature at a time.
+   */
+  @Override
+  public void export(Iterable<Resource> aResources, Writer aWriter) throws IOException {
+    aWriter.write("{\"type\":\"FeatureCollection\",\"features\":[");
+    boolean first = true;
+    for (Resource resource : aResources) {
+      JsonNode feature = toGeoJson(resource, false);
+      // Skip features without geometry
+      if (feature != null && feature.has("geometry")) {
+        if (!first) {
+          aWriter.write(",");
+        }
+        aWriter.write(feature.toString());
+        first = false;
+      }
+    }
+    aWriter.write("]}");
+  }
+
+  /**
+   * Features of list exports are built from the identifying properties of each record and the
+   * locations of the record or of the records it is linked to, which are all matched by the pattern
+   * "about.*location".
+   */
+  @Override
+  public String[] getSourceFields() {
+    return new String[]{"about.@id", "about.@type", "about.name", "about.image", "about.additionalType",
+      "about.alternateName", "about.*location"};
+  }
+
   public JsonNode exportJson(Resource aResource) {
     return toGeoJson(aResource, false);
   }
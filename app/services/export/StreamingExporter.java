@@ -0,0 +1,19 @@
+package services.export;
+
+import models.Resource;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * An exporter that writes resources while they are read, e.g. from a scroll over the index, so that
+ * a complete list never needs to be held in memory.
+ */
+public interface StreamingExporter extends Exporter {
+
+  /**
+   * @param aResources The resources, iterated only once
+   * @param aWriter The writer to export to
+   */
+  void export(Iterable<Resource> aResources, Writer aWriter) throws IOException;
+}
@@ -16,6 +16,8 @@ import org.apache.jena.rdf.model.Model;
 import org.apache.jena.tdb.TDBFactory;
 import play.Logger;
 import services.AccountService;
+import services.FramedResourceCache;
+import services.IndexCheckpoint;
 import services.IndexQueue;
 import services.QueryContext;
 import services.ResourceIndexer;
@@ -25,18 +27,49 @@ import java.io.File;
 import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class BaseRepository extends Repository implements Readable, Writable, Queryable, Versionable {
 
+  // The number of milliseconds to wait for the index queue to drain when closing
+  private static final long CLOSE_TIMEOUT = 60000;
+
   private ElasticsearchRepository mElasticsearchRepo;
   private TriplestoreRepository mTriplestoreRepository;
   private ResourceIndexer mResourceIndexer;
+  private ActorSystem mActorSystem;
   private ActorRef mIndexQueue;
+  private IndexQueue.Metrics mIndexQueueMetrics = new IndexQueue.Metrics();
+  private final ReentrantLock mIndexQueueLock = new ReentrantLock();
+  private final ReentrantReadWriteLock mIndexSwapLock = new ReentrantReadWriteLock();
+  private final AtomicBoolean mRebuilding = new AtomicBoolean(false);
+  private volatile String mRebuildIndex;
+  private volatile ResourceIndexer mRebuildIndexer;
+  private volatile Set<String> mPreviousIndices = Collections.emptySet();
+  private GraphHistory mGraphHistory;
+  private IndexCheckpoint mIndexCheckpoint;
+  private boolean mCheckpointBlocked = false;
+  private File mDocumentHashes;
   private boolean mAsyncIndexing;
+  private long mIndexQueueCapacity;
+  private long mIndexQueueBlockTimeout;
+  private IndexQueue.Overflow mIndexQueueOverflow;
+  // The latest commit whose index work was sent to the queue, and the same while work for later
+  // commits is shed
+  private String mQueuedCommitId;
+  private String mShedSince;
 
   public BaseRepository(final Config aConfiguration,
                         final ElasticsearchRepository aElasticsearchRepo,
@@ -74,10 +107,22 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
       }
     }
     GraphHistory graphHistory = new GraphHistory(commitDir, historyFile);
+    mGraphHistory = graphHistory;
+    IndexCheckpoint indexCheckpoint = new IndexCheckpoint(new File(
+      mConfiguration.hasPath("index.queue.checkpoint") ? mConfiguration.getString("index.queue.checkpoint")
+        : mConfiguration.getString("graph.history.file").concat(".indexed")));
+    mIndexCheckpoint = indexCheckpoint;
 
     Model mDb = dataset.getDefaultModel();
+    FramedResourceCache framedResourceCache = TriplestoreRepository
+      .createFramedResourceCache(mConfiguration, mDb, graphHistory);
     mResourceIndexer = new ResourceIndexer(mDb, mElasticsearchRepo, graphHistory, aAccountService,
-      mConfiguration.getString("jsonld.context"));
+      framedResourceCache,
+      mConfiguration.hasPath("index.workers") ? mConfiguration.getInt("index.workers") : 0,
+      mConfiguration.hasPath("index.batch.size") ? mConfiguration.getInt("index.batch.size") : 500);
+    mDocumentHashes = new File(mConfiguration.hasPath("index.hashes") ? mConfiguration.getString("index.hashes")
+      : mConfiguration.getString("graph.history.file").concat(".hashes"));
+    mResourceIndexer.getDocumentHashes().load(mDocumentHashes);
 
     if (mDb.isEmpty() && mConfiguration.getBoolean("graph.history.autoload")) {
       List<Commit> commits = graphHistory.log();
@@ -88,27 +133,126 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
       Logger.info("Loaded commit history to triple store");
       mResourceIndexer.index("*");
       Logger.info("Indexed all resources from triple store");
+      if (graphHistory.getHeadId() != null) {
+        indexCheckpoint.write(graphHistory.getHeadId());
+      }
     }
 
-    mIndexQueue = ActorSystem.create().actorOf(IndexQueue.props(mResourceIndexer));
-    mTriplestoreRepository = new TriplestoreRepository(mConfiguration, mDb, graphHistory);
+    mActorSystem = ActorSystem.create();
+    mIndexQueue = mActorSystem.actorOf(IndexQueue.props(mResourceIndexer,
+      mConfiguration.hasPath("index.queue.window") ? mConfiguration.getLong("index.queue.window") : 0,
+      mIndexQueueMetrics, indexCheckpoint));
+    mTriplestoreRepository = new TriplestoreRepository(mConfiguration, mDb, graphHistory, framedResourceCache);
 
     mAsyncIndexing = mConfiguration.getBoolean("index.async");
+    mIndexQueueCapacity = mConfiguration.hasPath("index.queue.capacity")
+      ? mConfiguration.getLong("index.queue.capacity") : 0;
+    mIndexQueueBlockTimeout = mConfiguration.hasPath("index.queue.block.timeout")
+      ? mConfiguration.getLong("index.queue.block.timeout") : 30000;
+    mIndexQueueOverflow = mConfiguration.hasPath("index.queue.overflow")
+      ? IndexQueue.Overflow.valueOf(mConfiguration.getString("index.queue.overflow").toUpperCase(Locale.ENGLISH))
+      : IndexQueue.Overflow.BLOCK;
+    if (mAsyncIndexing) {
+      mQueuedCommitId = mGraphHistory.getHeadId();
+      if (mIndexQueueCapacity > 0) {
+        mIndexQueueMetrics.setListener(this::resumeShed);
+      }
+    }
+    replay(indexCheckpoint.read());
+  }
+
+  /**
+   * Index all commits following the latest indexed commit, which may not have been indexed before
+   * the application stopped, and delete the resources they removed from the index. Without a
+   * checkpoint it is unknown which commits are indexed. If the index is populated, e.g. because it
+   * was written before checkpoints were recorded, it is assumed to be current and the checkpoint is
+   * set to the latest commit. Otherwise all resources are reindexed without blocking startup.
+   *
+   * @param aCommitId The id of the latest indexed commit
+   */
+  private void replay(String aCommitId) {
+
+    if (aCommitId == null) {
+      String headId = mGraphHistory.getHeadId();
+      if (headId == null) {
+        return;
+      }
+      long count;
+      try {
+        count = mElasticsearchRepo.count();
+      } catch (IOException e) {
+        Logger.error("Could not count indexed documents", e);
+        count = 0;
+      }
+      if (count > 0) {
+        Logger.warn("No index checkpoint found, assuming the " + count + " indexed documents are current "
+          + "up to " + headId);
+        mIndexCheckpoint.write(headId);
+      } else {
+        Logger.warn("No index checkpoint found, reindexing all resources");
+        reindexInBackground();
+      }
+      return;
+    }
+    List<Commit> commits = mGraphHistory.until(aCommitId);
+    if (commits.isEmpty()) {
+      return;
+    }
+    if (commits.size() == mGraphHistory.size()) {
+      Logger.warn("Index checkpoint " + aCommitId + " not found in history, reindexing all resources");
+      reindexInBackground();
+      return;
+    }
+    Logger.info("Replaying index work for " + commits.size() + " commits since " + aCommitId);
+    Commit.Diff diff = new TripleCommit.Diff();
+    for (Commit commit : commits) {
+      diff.append(commit.getDiff());
+    }
+    try {
+      deleteRemoved(mResourceIndexer, mElasticsearchRepo, diff);
+    } catch (IOException e) {
+      Logger.error("Could not delete removed resources from index", e);
+    }
+    if (!mAsyncIndexing) {
+      index(diff);
+      return;
+    }
+    if (mIndexQueueCapacity > 0) {
+      mIndexQueueLock.lock();
+      try {
+        mShedSince = aCommitId;
+        sendShed();
+      } finally {
+        mIndexQueueLock.unlock();
+      }
+      return;
+    }
+    ListIterator<Commit> listIterator = commits.listIterator(commits.size());
+    while (listIterator.hasPrevious()) {
+      Commit commit = listIterator.previous();
+      mIndexQueueMetrics.submitted(commit.getDiff());
+      mIndexQueue.tell(new IndexQueue.Task(commit.getDiff(), commit.getId()), mIndexQueue);
+    }
   }
 
   @Override
   public Resource deleteResource(@Nonnull String aId, Map<String, String> aMetadata)
     throws IOException {
 
-    Resource resource = mTriplestoreRepository.deleteResource(aId, aMetadata);
+    lockIndexQueue();
+    try {
+      Resource resource = mTriplestoreRepository.deleteResource(aId, aMetadata);
 
-    if (resource != null) {
-      mElasticsearchRepo.deleteResource(aId, aMetadata);
-      Commit.Diff diff = mTriplestoreRepository.getDiff(resource).reverse();
-      index(diff);
-    }
+      if (resource != null) {
+        mElasticsearchRepo.deleteResource(aId, aMetadata);
+        Commit.Diff diff = mTriplestoreRepository.getDiff(resource).reverse();
+        index(diff);
+      }
 
-    return resource;
+      return resource;
+    } finally {
+      unlockIndexQueue();
+    }
   }
 
   @Override
@@ -123,8 +267,13 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
     Commit.Diff diff = mTriplestoreRepository.getDiff(aResource);
     Commit commit = new TripleCommit(header, diff);
 
-    mTriplestoreRepository.commit(commit);
-    index(diff);
+    lockIndexQueue();
+    try {
+      mTriplestoreRepository.commit(commit);
+      index(diff);
+    } finally {
+      unlockIndexQueue();
+    }
   }
 
   /**
@@ -149,8 +298,13 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
       commits.add(new TripleCommit(header, diff));
     }
 
-    mTriplestoreRepository.commit(commits);
-    index(indexDiff);
+    lockIndexQueue();
+    try {
+      mTriplestoreRepository.commit(commits);
+      index(indexDiff);
+    } finally {
+      unlockIndexQueue();
+    }
   }
 
   /**
@@ -167,8 +321,13 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
       aMetadata.get(TripleCommit.Header.AUTHOR_HEADER),
       ZonedDateTime.parse(aMetadata.get(TripleCommit.Header.DATE_HEADER)),
       true);
-    mTriplestoreRepository.commit(new TripleCommit(header, diff));
-    index(diff);
+    lockIndexQueue();
+    try {
+      mTriplestoreRepository.commit(new TripleCommit(header, diff));
+      index(diff);
+    } finally {
+      unlockIndexQueue();
+    }
   }
 
   @Override
@@ -190,6 +349,27 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
     return resourceList;
   }
 
+  @Override
+  public CompletionStage<ResourceList> queryAsync(@Nonnull String aQueryString, int aFrom, int aSize,
+    String aSortOrder, Map<String, List<String>> aFilters) {
+    return queryAsync(aQueryString, aFrom, aSize, aSortOrder, aFilters, null);
+  }
+
+  public CompletionStage<ResourceList> queryAsync(@Nonnull String aQueryString, int aFrom, int aSize,
+    String aSortOrder, Map<String, List<String>> aFilters, QueryContext aQueryContext) {
+    return mElasticsearchRepo.queryAsync(aQueryString, aFrom, aSize, aSortOrder, aFilters, aQueryContext);
+  }
+
+  /**
+   * Get all resources matching a query, read while they are iterated.
+   *
+   * @see ElasticsearchRepository#scroll(String, String, Map, QueryContext)
+   */
+  public Iterable<Resource> scroll(@Nonnull String aQueryString, String aSortOrder,
+    Map<String, List<String>> aFilters, QueryContext aQueryContext) {
+    return mElasticsearchRepo.scroll(aQueryString, aSortOrder, aFilters, aQueryContext);
+  }
+
   public JsonNode reconcile(@Nonnull String aQueryString, int aFrom, int aSize, String aSortOrder,
     Map<String, List<String>> aFilters, QueryContext aQueryContext,
     final Locale aPreferredLocale) throws IOException {
@@ -197,6 +377,22 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
       .reconcile(aQueryString, aFrom, aSize, aSortOrder, aFilters, aQueryContext, aPreferredLocale);
   }
 
+  /**
+   * @see ElasticsearchRepository#clusterAsync(String, int, Map, QueryContext)
+   */
+  public CompletionStage<JsonNode> clusterAsync(@Nonnull String aQueryString, int aZoom,
+    Map<String, List<String>> aFilters, QueryContext aQueryContext) {
+    return mElasticsearchRepo.clusterAsync(aQueryString, aZoom, aFilters, aQueryContext);
+  }
+
+  /**
+   * @see ElasticsearchRepository#reconcileAsync(List, List, List, QueryContext, Locale)
+   */
+  public CompletionStage<List<JsonNode>> reconcileAsync(@Nonnull List<String> aQueries, @Nonnull List<Integer> aSizes,
+    @Nonnull List<Map<String, List<String>>> aFilters, QueryContext aQueryContext, final Locale aPreferredLocale) {
+    return mElasticsearchRepo.reconcileAsync(aQueries, aSizes, aFilters, aQueryContext, aPreferredLocale);
+  }
+
   @Override
   public Resource getResource(@Nonnull String aId) {
     return getResource(aId, null);
@@ -238,7 +434,23 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
 
   @Override
   public void commit(Commit aCommit) throws IOException {
-    mTriplestoreRepository.commit(aCommit);
+    commit(aCommit, false);
+  }
+
+  /**
+   * @param aCommit The commit to apply
+   * @param aIndex Whether to index the diff of the commit
+   */
+  public void commit(Commit aCommit, boolean aIndex) throws IOException {
+    lockIndexQueue();
+    try {
+      mTriplestoreRepository.commit(aCommit);
+      if (aIndex) {
+        index(aCommit.getDiff());
+      }
+    } finally {
+      unlockIndexQueue();
+    }
   }
 
   @Override
@@ -254,12 +466,198 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
   public void index(String aId) {
 
     if (mAsyncIndexing) {
-      mIndexQueue.tell(aId, mIndexQueue);
+      enqueue(aId);
     } else {
-      mResourceIndexer.index(aId);
+      indexSynchronously(() -> mResourceIndexer.index(aId), aId.equals("*"));
     }
   }
 
+  /**
+   * Reindex all resources, resuming after the given id
+   *
+   * @param aCursor The id to resume after, as reported by the reindex progress, or null
+   */
+  public void reindex(String aCursor) {
+
+    if (mAsyncIndexing) {
+      enqueue(new IndexQueue.Reindex(aCursor));
+    } else {
+      indexSynchronously(() -> mResourceIndexer.reindex(aCursor), aCursor == null);
+    }
+  }
+
+  /**
+   * Build a fresh index with the current mapping in the background and swap the alias that reads
+   * and writes go through to it once it has caught up with all commits. Search keeps working on the
+   * previous index meanwhile. The previous index is kept until {@link #deletePreviousIndices()}.
+   *
+   * @return False if a rebuild is already running
+   */
+  public boolean rebuildIndex() {
+
+    if (!mRebuilding.compareAndSet(false, true)) {
+      return false;
+    }
+    Thread thread = new Thread(() -> {
+      try {
+        rebuild();
+      } catch (Exception e) {
+        Logger.error("Could not rebuild index", e);
+      } finally {
+        mRebuilding.set(false);
+      }
+    }, "index-rebuild");
+    thread.setDaemon(true);
+    thread.start();
+    return true;
+  }
+
+  private void rebuild() throws IOException {
+
+    String index = mElasticsearchRepo.getConfig().createVersionedIndex();
+    ElasticsearchRepository target = mElasticsearchRepo.forIndex(index);
+    try {
+      ResourceIndexer indexer = mResourceIndexer.forTarget(target);
+      mRebuildIndex = index;
+      mRebuildIndexer = indexer;
+      Logger.info("Rebuilding index " + index);
+      String head = catchUp(indexer, target, mGraphHistory.getHeadId(), true);
+      // Block commits only for the last few commits and the swap itself
+      mIndexSwapLock.writeLock().lock();
+      try {
+        catchUp(indexer, target, head, false);
+        target.flush();
+        Set<String> previous = mElasticsearchRepo.getConfig().swapAlias(index);
+        Set<String> previousIndices = new HashSet<>(mPreviousIndices);
+        previousIndices.addAll(previous);
+        mPreviousIndices = previousIndices;
+        mResourceIndexer.getDocumentHashes().clear();
+        mElasticsearchRepo.getSearchResultCache().invalidate();
+      } finally {
+        mIndexSwapLock.writeLock().unlock();
+      }
+      Logger.info("Swapped alias to rebuilt index " + index + ", keeping previous indices " + mPreviousIndices);
+    } finally {
+      target.close();
+    }
+  }
+
+  /**
+   * Delete the indices the alias pointed to before it was swapped to a rebuilt index, once the
+   * rebuilt index turned out to be good.
+   *
+   * @return The deleted indices
+   */
+  public Set<String> deletePreviousIndices() throws IOException {
+    Set<String> deleted = new HashSet<>();
+    Set<String> aliased = mElasticsearchRepo.getConfig().getAliasedIndices();
+    for (String index : mPreviousIndices) {
+      if (!aliased.contains(index) && mElasticsearchRepo.hasIndex(index)) {
+        mElasticsearchRepo.getConfig().deleteIndex(index);
+        deleted.add(index);
+      }
+    }
+    mPreviousIndices = Collections.emptySet();
+    Logger.info("Deleted previous indices " + deleted);
+    return deleted;
+  }
+
+  /**
+   * Index the changes of all commits following a commit, until there are no more
+   *
+   * @param aIndexer The indexer to use
+   * @param aTarget The repository the indexer writes to, to delete removed resources from
+   * @param aCommitId The latest commit already indexed
+   * @param aReindex Whether to reindex all resources before catching up
+   * @return The latest commit indexed
+   */
+  private String catchUp(ResourceIndexer aIndexer, Writable aTarget, String aCommitId, boolean aReindex)
+    throws IOException {
+
+    if (aReindex) {
+      aIndexer.reindex(null);
+    }
+    String indexed = aCommitId;
+    String head;
+    while (!Objects.equals(head = mGraphHistory.getHeadId(), indexed)) {
+      List<Commit> commits = mGraphHistory.until(indexed);
+      Commit.Diff diff = new TripleCommit.Diff();
+      for (Commit commit : commits) {
+        diff.append(commit.getDiff());
+      }
+      Logger.info("Catching up on " + commits.size() + " commits since " + indexed);
+      aIndexer.index(diff);
+      deleteRemoved(aIndexer, aTarget, diff);
+      indexed = head;
+    }
+    return indexed;
+  }
+
+  /**
+   * Delete the resources touched by a diff that no longer exist in the triple store.
+   *
+   * @param aIndexer The indexer to get the resources touched by the diff from
+   * @param aTarget The repository to delete the resources from
+   * @param aDiff The diff
+   */
+  private void deleteRemoved(ResourceIndexer aIndexer, Writable aTarget, Commit.Diff aDiff) throws IOException {
+    for (String id : aIndexer.getCommitScope(aDiff)) {
+      if (!mTriplestoreRepository.hasResource(id)) {
+        aTarget.deleteResource(id, null);
+      }
+    }
+  }
+
+  /**
+   * Stop indexing in order: wait for the index queue to drain, write the resources buffered for the
+   * index and close the bulk writer, and only then save the document hashes, so that they include
+   * the last documents written, and shut down the workers of the indexer.
+   */
+  public void close() {
+    try {
+      if (!mIndexQueueMetrics.awaitCapacity(1, CLOSE_TIMEOUT)) {
+        Logger.warn("Closing with " + mIndexQueueMetrics.getDepth() + " messages left in the index queue");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    mActorSystem.terminate();
+    mResourceIndexer.flush();
+    mElasticsearchRepo.close();
+    mResourceIndexer.getDocumentHashes().save(mDocumentHashes);
+    mResourceIndexer.close();
+  }
+
+  /**
+   * @return The depth, load, age, lag, capacity and coalescing ratio of the index queue, the number of
+   * resources framed and updated by the indexer, the number of documents written and skipped
+   * because they did not change, the number of bulk writes to Elasticsearch, the hits and misses of
+   * the search result cache and the progress of the current or last full reindex
+   */
+  public Map<String, Object> getIndexStatus() {
+
+    Map<String, Object> status = new HashMap<>();
+    Map<String, Object> queue = new HashMap<>(mIndexQueueMetrics.toMap());
+    queue.put("capacity", mIndexQueueCapacity);
+    queue.put("overflow", mIndexQueueOverflow.name().toLowerCase(Locale.ENGLISH));
+    queue.put("shedding", mShedSince != null);
+    status.put("queue", queue);
+    status.put("indexer", mResourceIndexer.getMetrics());
+    status.put("hashes", mResourceIndexer.getDocumentHashes().getMetrics());
+    status.put("bulk", mElasticsearchRepo.getBulkMetrics());
+    status.put("search_cache", mElasticsearchRepo.getSearchResultCache().getMetrics());
+    status.put("reindex", mResourceIndexer.getReindexProgress().toMap());
+    if (mRebuildIndexer != null) {
+      Map<String, Object> rebuild = new HashMap<>();
+      rebuild.put("running", mRebuilding.get());
+      rebuild.put("index", mRebuildIndex);
+      rebuild.put("progress", mRebuildIndexer.getReindexProgress().toMap());
+      rebuild.put("previous", mPreviousIndices);
+      status.put("rebuild", rebuild);
+    }
+    return status;
+  }
+
   public String sparql(String q) {
 
     return mTriplestoreRepository.sparql(q);
@@ -267,8 +665,13 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
 
   public String update(String delete, String insert, String where) {
 
-    Commit.Diff diff = mTriplestoreRepository.update(delete, insert, where);
-    return diff.toString();
+    lockIndexQueue();
+    try {
+      Commit.Diff diff = mTriplestoreRepository.update(delete, insert, where);
+      return diff.toString();
+    } finally {
+      unlockIndexQueue();
+    }
   }
 
   public String label(String aId) {
@@ -279,9 +682,181 @@ public class BaseRepository extends Repository implements Readable, Writable, Qu
   public void index(Commit.Diff aDiff) {
 
     if (mAsyncIndexing) {
-      mIndexQueue.tell(aDiff, mIndexQueue);
+      enqueue(aDiff);
     } else {
-      mResourceIndexer.index(aDiff);
+      indexSynchronously(() -> mResourceIndexer.index(aDiff), false);
+    }
+  }
+
+  /**
+   * Reindex all resources through the queue or, when indexing synchronously, on a background
+   * thread, so that the caller does not wait for it. Meanwhile commits indexed synchronously do not
+   * move the checkpoint, because the resources they did not touch may not be indexed yet.
+   */
+  private void reindexInBackground() {
+
+    if (mAsyncIndexing) {
+      index("*");
+      return;
+    }
+    mIndexQueueLock.lock();
+    try {
+      mCheckpointBlocked = true;
+    } finally {
+      mIndexQueueLock.unlock();
+    }
+    Thread thread = new Thread(() -> {
+      long failures = mResourceIndexer.getWriteFailures();
+      mResourceIndexer.index("*");
+      lockIndexQueue();
+      try {
+        if (mResourceIndexer.flush() && mResourceIndexer.getWriteFailures() == failures) {
+          mCheckpointBlocked = false;
+          String commitId = mGraphHistory.getHeadId();
+          if (commitId != null) {
+            mIndexCheckpoint.write(commitId);
+          }
+        } else {
+          Logger.warn("Not recording index checkpoint because resources could not be reindexed");
+        }
+      } finally {
+        unlockIndexQueue();
+      }
+    }, "background-reindex");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Index without the queue and record the latest commit in the index checkpoint once the work has
+   * been flushed to the index without failures. Like the queue, the checkpoint is left where it was
+   * after a failure until all resources have been reindexed. The queue lock is held meanwhile, so
+   * that the latest commit is the one that produced the work.
+   *
+   * @param aWork The index work
+   * @param aIndexAll Whether the work reindexes all resources
+   */
+  private void indexSynchronously(Runnable aWork, boolean aIndexAll) {
+    lockIndexQueue();
+    try {
+      long failures = mResourceIndexer.getWriteFailures();
+      aWork.run();
+      boolean written = mResourceIndexer.flush() && mResourceIndexer.getWriteFailures() == failures;
+      if (!written) {
+        mCheckpointBlocked = true;
+      } else if (aIndexAll) {
+        mCheckpointBlocked = false;
+      }
+      String commitId = mGraphHistory.getHeadId();
+      if (commitId != null) {
+        if (mCheckpointBlocked) {
+          Logger.warn("Not recording index checkpoint " + commitId + " because resources could not be indexed");
+        } else {
+          mIndexCheckpoint.write(commitId);
+        }
+      }
+    } finally {
+      unlockIndexQueue();
+    }
+  }
+
+  /**
+   * Send index work to the queue along with the latest commit. Commits are applied and their index
+   * work queued while holding the queue lock, so that the latest commit is the one that produced the
+   * work and the queue receives work in the order of the graph history. While the work for commits
+   * is shed, the diffs of later commits are shed too, and other work is sent without a commit so
+   * that the checkpoint does not move past the shed commits.
+   */
+  private void enqueue(Object aMessage) {
+    lockIndexQueue();
+    try {
+      if (aMessage instanceof Commit.Diff && mShedSince == null && mIndexQueueCapacity > 0
+        && IndexQueue.Overflow.SHED.equals(mIndexQueueOverflow)
+        && mIndexQueueMetrics.getLoad() >= mIndexQueueCapacity) {
+        mShedSince = mQueuedCommitId;
+        Logger.warn("Index queue is full, shedding index work for commits since " + mShedSince);
+      }
+      if (aMessage instanceof Commit.Diff && mShedSince != null) {
+        mIndexQueueMetrics.shed();
+        return;
+      }
+      mIndexQueueMetrics.submitted(aMessage);
+      if (mShedSince == null) {
+        mQueuedCommitId = mGraphHistory.getHeadId();
+        mIndexQueue.tell(new IndexQueue.Task(aMessage, mQueuedCommitId), mIndexQueue);
+      } else {
+        mIndexQueue.tell(new IndexQueue.Task(aMessage, null), mIndexQueue);
+      }
+    } finally {
+      unlockIndexQueue();
+    }
+  }
+
+  /**
+   * Send the index work for shed commits from the graph history, as long as the queue is not full.
+   */
+  private void sendShed() {
+    List<Commit> commits = mGraphHistory.until(mShedSince);
+    ListIterator<Commit> listIterator = commits.listIterator(commits.size());
+    while (listIterator.hasPrevious() && mIndexQueueMetrics.getLoad() < mIndexQueueCapacity) {
+      Commit commit = listIterator.previous();
+      mIndexQueueMetrics.submitted(commit.getDiff());
+      mIndexQueue.tell(new IndexQueue.Task(commit.getDiff(), commit.getId()), mIndexQueue);
+      mShedSince = commit.getId();
+      mQueuedCommitId = commit.getId();
+    }
+    if (!listIterator.hasPrevious()) {
+      mShedSince = null;
+    }
+  }
+
+  private void resumeShed() {
+    mIndexQueueLock.lock();
+    try {
+      if (mShedSince != null) {
+        sendShed();
+      }
+    } finally {
+      mIndexQueueLock.unlock();
+    }
+  }
+
+  /**
+   * Acquire the locks for a commit. If the index queue is at capacity, wait for it to drain or
+   * refuse the commit, depending on the configured overflow behavior. A commit is refused as well if
+   * the queue did not drain within the block timeout or waiting was interrupted.
+   */
+  private void lockIndexQueue() {
+    boolean outermost = mAsyncIndexing && !mIndexQueueLock.isHeldByCurrentThread();
+    if (outermost && mIndexQueueCapacity > 0 && IndexQueue.Overflow.BLOCK.equals(mIndexQueueOverflow)) {
+      boolean drained;
+      try {
+        drained = mIndexQueueMetrics.awaitCapacity(mIndexQueueCapacity, mIndexQueueBlockTimeout);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        drained = false;
+      }
+      if (!drained) {
+        mIndexQueueMetrics.rejected();
+        throw new IndexQueue.FullException(mIndexQueueMetrics.getLoad());
+      }
+    }
+    mIndexSwapLock.readLock().lock();
+    mIndexQueueLock.lock();
+    if (outermost && mIndexQueueCapacity > 0 && IndexQueue.Overflow.REJECT.equals(mIndexQueueOverflow)) {
+      long load = mIndexQueueMetrics.getLoad();
+      if (load >= mIndexQueueCapacity) {
+        unlockIndexQueue();
+        mIndexQueueMetrics.rejected();
+        throw new IndexQueue.FullException(load);
+      }
+    }
+  }
+
+  private void unlockIndexQueue() {
+    if (mIndexQueueLock.isHeldByCurrentThread()) {
+      mIndexQueueLock.unlock();
     }
+    mIndexSwapLock.readLock().unlock();
   }
 }
@@ -1,11 +1,11 @@
 package services.repository;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValue;
 import helpers.JsonLdConstants;
 import models.Record;
 import models.Resource;
@@ -13,22 +13,23 @@ import models.ResourceList;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.elasticsearch.ElasticsearchStatusException;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.search.SearchScrollRequest;
 import org.elasticsearch.action.search.SearchType;
-import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.Fuzziness;
-import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.GeoBoundingBoxQueryBuilder;
 import org.elasticsearch.index.query.GeoPolygonQueryBuilder;
@@ -41,26 +42,55 @@ import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
 import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.geogrid.GeoHashGrid;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.geocentroid.GeoCentroid;
+import org.elasticsearch.search.aggregations.metrics.tophits.TopHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import play.Logger;
+import services.CloseableIterator;
+import services.ElasticsearchBulkWriter;
 import services.ElasticsearchConfig;
+import services.ElasticsearchScrollIterator;
+import services.ElasticsearchSlicedScrollIterator;
 import services.QueryContext;
+import services.SearchHitIterator;
+import services.SearchResultCache;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -69,9 +99,26 @@ import static org.elasticsearch.index.query.QueryBuilders.termQuery;
 public class ElasticsearchRepository extends Repository implements Readable, Writable, Queryable {
 
   private static ElasticsearchConfig mConfig;
+  private String mIndex;
+  private ElasticsearchBulkWriter mBulkWriter;
   private Fuzziness mFuzziness;
+  private SearchResultCache mSearchResultCache;
+  private int mScrollSlices;
+  private Map<String, String> mFacets;
+  private int mFacetSize;
+  private SearchThrottle mSearchThrottle;
   private static JsonNodeFactory mJsonNodeFactory = new JsonNodeFactory(false);
   private static Pattern patternTrailingSpecialChar = Pattern.compile("^(.*)([:!]){1,}$");
+  // Results of requests with date math such as "now/d" change without the index changing
+  private static final long DATE_MATH_MAX_AGE = TimeUnit.MINUTES.toMillis(1);
+  private static final int DOCUMENTS_PER_PAGE = 1024;
+  private static final String[] RECONCILE_FETCH_SOURCE = new String[]{"about.@id", "about.@type", "about.name"};
+  private static final int CLUSTER_IDS = 3;
+  private static final ExecutorService mScrollExecutor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "elasticsearch-scroll");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   public ElasticsearchRepository(Config aConfiguration) {
     super(aConfiguration);
@@ -81,6 +128,54 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
     mConfig.getClusterSettings().forEach(builder::put);
 
     mFuzziness = mConfig.getFuzziness();
+    mIndex = mConfig.getIndex();
+    mScrollSlices = aConfiguration.hasPath("es.scroll.slices") ? aConfiguration.getInt("es.scroll.slices") : 1;
+    mFacets = new TreeMap<>();
+    if (aConfiguration.hasPath("es.facets")) {
+      for (Map.Entry<String, ConfigValue> facet : aConfiguration.getConfig("es.facets").entrySet()) {
+        mFacets.put(facet.getKey(), facet.getValue().unwrapped().toString());
+      }
+    }
+    mFacetSize = aConfiguration.hasPath("es.facet.size") ? aConfiguration.getInt("es.facet.size") : 100;
+    mSearchThrottle = new SearchThrottle(aConfiguration.hasPath("es.msearch.concurrent")
+      ? aConfiguration.getInt("es.msearch.concurrent")
+      : 4);
+    mSearchResultCache = new SearchResultCache(
+      aConfiguration.hasPath("es.search.cache.size") ? aConfiguration.getInt("es.search.cache.size") : 1000,
+      aConfiguration.hasPath("es.search.cache.refresh") ? aConfiguration.getLong("es.search.cache.refresh") : 1000);
+    mBulkWriter = new ElasticsearchBulkWriter(mConfig.getClient(), mIndex, mConfig.getRefreshPolicy(),
+      aConfiguration);
+    mBulkWriter.setListener(mSearchResultCache::invalidate);
+  }
+
+  private ElasticsearchRepository(ElasticsearchRepository aRepository, String aIndex) {
+    super(aRepository.mConfiguration);
+    mFuzziness = aRepository.mFuzziness;
+    mIndex = aIndex;
+    mScrollSlices = aRepository.mScrollSlices;
+    mFacets = aRepository.mFacets;
+    mFacetSize = aRepository.mFacetSize;
+    mSearchThrottle = aRepository.mSearchThrottle;
+    mSearchResultCache = aRepository.mSearchResultCache;
+    mBulkWriter = new ElasticsearchBulkWriter(mConfig.getClient(), mIndex, mConfig.getRefreshPolicy(),
+      mConfiguration);
+    mBulkWriter.setListener(mSearchResultCache::invalidate);
+  }
+
+  /**
+   * Get a repository reading from and writing to another index of the same cluster, with its own
+   * bulk writer that must be closed when done. Writes to the other index invalidate the shared search
+   * result cache, so that it is current once the index is swapped in.
+   *
+   * @param aIndex The name of the index
+   * @return The repository
+   */
+  public ElasticsearchRepository forIndex(String aIndex) {
+    return new ElasticsearchRepository(this, aIndex);
+  }
+
+  public void close() {
+    mBulkWriter.close();
   }
 
   @Override
@@ -94,15 +189,118 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
 
   @Override
   public void addResources(@Nonnull List<Resource> aResources, Map<String, String> aMetadata) {
-    Map<String, String> records = new HashMap<>();
-    for (Resource resource : aResources) {
-      Record record = new Record(resource);
-      for (String key : aMetadata.keySet()) {
-        record.put(key, aMetadata.get(key));
+    addResources(aResources, Collections.nCopies(aResources.size(), aMetadata));
+  }
+
+  /**
+   * Add resources through the bulk writer. The resources are only buffered and are sent once enough
+   * requests are buffered, the flush interval elapses or {@link #flush()} is called. The refresh
+   * policy only determines whether the index is refreshed after a flush.
+   */
+  @Override
+  public void addResources(@Nonnull List<Resource> aResources, @Nonnull List<Map<String, String>> aMetadata) {
+    addResources(aResources, aMetadata, Collections.nCopies(aResources.size(), 0L));
+  }
+
+  /**
+   * Add resources through the bulk writer with external versions, so that Elasticsearch rejects a
+   * write if the document already has a greater version. Such conflicts are counted by the bulk
+   * writer.
+   */
+  @Override
+  public void addResources(@Nonnull List<Resource> aResources, @Nonnull List<Map<String, String>> aMetadata,
+                           @Nonnull List<Long> aVersions) {
+    for (int i = 0; i < aResources.size(); i++) {
+      Record record = new Record(aResources.get(i));
+      for (Map.Entry<String, String> metadata : aMetadata.get(i).entrySet()) {
+        record.put(metadata.getKey(), metadata.getValue());
+      }
+      IndexRequest request = createIndexRequest(record.toString(), record.getId());
+      if (aVersions.get(i) > 0) {
+        request.version(aVersions.get(i)).versionType(VersionType.EXTERNAL_GTE);
+      }
+      mBulkWriter.add(request);
+    }
+  }
+
+  /**
+   * Update the metadata of documents through the bulk writer, buffered like
+   * {@link #addResources(List, List, List)}. Partial updates cannot carry an external version and
+   * would move the version of a document past the one it was written with, so that the next full
+   * write of the document were rejected. Instead the documents are read and written back with their
+   * new metadata at the version they already have, which full writes of the same or a later version
+   * replace. Documents that do not exist are not created. Buffered writes are flushed before the
+   * documents are read, so that they are not overwritten with an outdated source.
+   */
+  @Override
+  public void updateMetadata(@Nonnull List<String> aIds, @Nonnull List<Map<String, String>> aMetadata)
+    throws IOException {
+    mBulkWriter.flush();
+    MultiGetRequest request = new MultiGetRequest();
+    for (String id : aIds) {
+      String recordId = id.concat(".").concat(Record.RESOURCE_KEY);
+      String uuid = getUrlUuidEncoded(recordId);
+      request.add(mIndex, Record.TYPE, uuid == null ? recordId : uuid);
+    }
+    MultiGetItemResponse[] items = mConfig.getClient().multiGet(request).getResponses();
+    for (int i = 0; i < items.length; i++) {
+      GetResponse response = items[i].getResponse();
+      if (items[i].isFailed() || !response.isExists()) {
+        Logger.debug("Skipped metadata update of missing document " + items[i].getId());
+        continue;
       }
-      records.put(record.getId(), record.toString());
+      Map<String, Object> source = response.getSourceAsMap();
+      source.putAll(aMetadata.get(i));
+      mBulkWriter.add(new IndexRequest(mIndex, Record.TYPE, response.getId()).source(source)
+        .version(response.getVersion()).versionType(VersionType.EXTERNAL_GTE));
     }
-    addJsonBulk(records);
+  }
+
+  @Override
+  public boolean flush() {
+    return mBulkWriter.flush();
+  }
+
+  /**
+   * Reports resources whose records the bulk writer failed to write. Documents that are not records
+   * of a resource are not reported.
+   */
+  @Override
+  public void setFailureListener(Consumer<String> aListener) {
+    mBulkWriter.setFailureListener(toResourceIds(aListener));
+  }
+
+  /**
+   * Reports resources whose records the bulk writer wrote. Documents that are not records of a
+   * resource are not reported.
+   */
+  @Override
+  public boolean setWriteListener(Consumer<String> aListener) {
+    mBulkWriter.setWriteListener(toResourceIds(aListener));
+    return true;
+  }
+
+  private static Consumer<String> toResourceIds(Consumer<String> aListener) {
+    String suffix = ".".concat(Record.RESOURCE_KEY);
+    return documentId -> {
+      String id;
+      try {
+        id = URLDecoder.decode(documentId, Charset.defaultCharset().name());
+      } catch (UnsupportedEncodingException e) {
+        id = documentId;
+      }
+      if (id.endsWith(suffix)) {
+        aListener.accept(id.substring(0, id.length() - suffix.length()));
+      }
+    };
+  }
+
+  public Map<String, Long> getBulkMetrics() {
+    return mBulkWriter.getMetrics();
+  }
+
+  public SearchResultCache getSearchResultCache() {
+    return mSearchResultCache;
   }
 
   @Override
@@ -117,13 +315,32 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
     return null;
   }
 
+  /**
+   * Get a resource without blocking while Elasticsearch reads it.
+   */
+  @Override
+  public CompletionStage<Resource> getResourceAsync(@Nonnull String aId) {
+    CompletableFuture<GetResponse> response = new CompletableFuture<>();
+    try {
+      GetRequest request = new GetRequest(mIndex, Record.TYPE, URLEncoder.encode(aId, Charset.defaultCharset().name())
+        .concat(".").concat(Record.RESOURCE_KEY));
+      mConfig.getClient().getAsync(request, ActionListener.wrap(response::complete, response::completeExceptionally));
+    } catch (UnsupportedEncodingException | RuntimeException e) {
+      response.completeExceptionally(e);
+    }
+    return response.thenApply(getResponse -> {
+      Resource record = Resource.fromMap(getResponse.getSource());
+      return record != null ? record.getAsResource(Record.RESOURCE_KEY) : null;
+    });
+  }
+
   public List<Resource> getResources(@Nonnull String aField, @Nonnull Object aValue) {
     List<Resource> resources = new ArrayList<>();
-    try {
-      for (Map<String, Object> doc : getDocuments(aField, aValue)) {
-        resources.add(Resource.fromMap(doc));
+    try (SearchHitIterator hits = getDocuments(aField, aValue)) {
+      while (hits.hasNext()) {
+        resources.add(Resource.fromMap(hits.next().getSourceAsMap()));
       }
-    } catch (IOException e) {
+    } catch (IOException | UncheckedIOException e) {
       Logger.error("Failed getting multiple documents.", e);
     }
     return resources;
@@ -132,15 +349,21 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
   @Override
   public List<Resource> getAll(@Nonnull String aType) throws IOException {
     List<Resource> resources = new ArrayList<>();
-    for (Map<String, Object> doc : getDocuments(Record.RESOURCE_KEY.concat(".")
+    try (SearchHitIterator hits = getDocuments(Record.RESOURCE_KEY.concat(".")
       .concat(JsonLdConstants.TYPE), aType)) {
-      resources.add(Resource.fromMap(doc));
+      while (hits.hasNext()) {
+        resources.add(Resource.fromMap(hits.next().getSourceAsMap()));
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
     }
     return resources;
   }
 
   @Override
   public Resource deleteResource(@Nonnull String aId, Map<String, String> aMetadata) {
+    // Make sure a buffered update does not recreate the document
+    mBulkWriter.flush();
     Resource resource = getResource(aId);
     if (null == resource) {
       return null;
@@ -180,17 +403,205 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
     return esQuery(aQueryString, aFrom, aSize, aSortOrder, aFilters, aQueryContext);
   }
 
+  /**
+   * Query without blocking while Elasticsearch searches. Complete result sets, which are read
+   * from a scroll, are read on a separate thread.
+   */
+  @Override
+  public CompletionStage<ResourceList> queryAsync(@Nonnull String aQueryString, int aFrom, int aSize,
+    String aSortOrder, Map<String, List<String>> aFilters) {
+    return queryAsync(aQueryString, aFrom, aSize, aSortOrder, aFilters, null);
+  }
+
+  public CompletionStage<ResourceList> queryAsync(@Nonnull String aQueryString, int aFrom, int aSize,
+    String aSortOrder, Map<String, List<String>> aFilters, QueryContext aQueryContext) {
+    return esQueryAsync(aQueryString, aFrom, aSize, aSortOrder, aFilters, aQueryContext);
+  }
+
   public JsonNode reconcile(@Nonnull String aQuery, int aFrom, int aSize, String aSortOrder,
     Map<String, List<String>> aFilters, QueryContext aQueryContext,
     final Locale aPreferredLocale) throws IOException {
+    aQueryContext.setFetchSource(RECONCILE_FETCH_SOURCE);
+    return toReconcileResult(esQuery(getReconcileQuery(aQuery), aFrom, aSize, aSortOrder, aFilters,
+      aQueryContext), aPreferredLocale);
+  }
+
+  /**
+   * Reconcile a batch of queries with a single multi search request. Queries without a limit are
+   * read from a scroll each. At most es.msearch.concurrent batches and scrolls are searched at the
+   * same time, further ones are sent once one of them completed.
+   *
+   * @return A stage completed with the results in the order of the queries, null for failed queries
+   */
+  public CompletionStage<List<JsonNode>> reconcileAsync(@Nonnull List<String> aQueries, @Nonnull List<Integer> aSizes,
+    @Nonnull List<Map<String, List<String>>> aFilters, QueryContext aQueryContext, final Locale aPreferredLocale) {
+    aQueryContext.setFetchSource(RECONCILE_FETCH_SOURCE);
+    List<CompletableFuture<ResourceList>> results = new ArrayList<>();
+    List<PagedSearch> searches = new ArrayList<>();
+    List<CompletableFuture<ResourceList>> searchResults = new ArrayList<>();
+    for (int i = 0; i < aQueries.size(); i++) {
+      String query = getReconcileQuery(aQueries.get(i));
+      if (aSizes.get(i) == -1) {
+        results.add(scrollThrottled(query, aFilters.get(i), aQueryContext));
+        continue;
+      }
+      PagedSearch search = new PagedSearch(query, 0, aSizes.get(i), null, aFilters.get(i), aQueryContext);
+      ResourceList cached = search.getCached();
+      if (cached != null) {
+        results.add(CompletableFuture.completedFuture(cached));
+      } else {
+        CompletableFuture<ResourceList> result = new CompletableFuture<>();
+        searches.add(search);
+        searchResults.add(result);
+        results.add(result);
+      }
+    }
+    if (!searches.isEmpty()) {
+      multiSearch(searches, searchResults);
+    }
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).handle((done, failure) -> {
+      List<JsonNode> reconciled = new ArrayList<>();
+      for (CompletableFuture<ResourceList> result : results) {
+        reconciled.add(result.isCompletedExceptionally() ? null : toReconcileResult(result.join(), aPreferredLocale));
+      }
+      return reconciled;
+    });
+  }
+
+  private void multiSearch(List<PagedSearch> aSearches, List<CompletableFuture<ResourceList>> aResults) {
+    MultiSearchRequest request = new MultiSearchRequest();
+    aSearches.forEach(search -> request.add(search.getRequest()));
+    mSearchThrottle.run(() -> {
+      try {
+        multiSearchAsync(request, aSearches, aResults);
+      } catch (RuntimeException e) {
+        try {
+          aResults.forEach(result -> result.completeExceptionally(e));
+        } finally {
+          mSearchThrottle.complete();
+        }
+      }
+    });
+  }
+
+  private void multiSearchAsync(MultiSearchRequest aRequest, List<PagedSearch> aSearches,
+    List<CompletableFuture<ResourceList>> aResults) {
+    mConfig.getClient().multiSearchAsync(aRequest, new ActionListener<MultiSearchResponse>() {
+      @Override
+      public void onResponse(MultiSearchResponse aResponse) {
+        try {
+          MultiSearchResponse.Item[] items = aResponse.getResponses();
+          for (int i = 0; i < items.length; i++) {
+            if (items[i].isFailure()) {
+              aResults.get(i).completeExceptionally(items[i].getFailure());
+              continue;
+            }
+            try {
+              aResults.get(i).complete(aSearches.get(i).toResourceList(items[i].getResponse()));
+            } catch (RuntimeException e) {
+              aResults.get(i).completeExceptionally(e);
+            }
+          }
+        } finally {
+          mSearchThrottle.complete();
+        }
+      }
+
+      @Override
+      public void onFailure(Exception aException) {
+        try {
+          aResults.forEach(result -> result.completeExceptionally(aException));
+        } finally {
+          mSearchThrottle.complete();
+        }
+      }
+    });
+  }
+
+  /**
+   * Read the complete result set of a reconciliation query from a scroll, counting it against the
+   * searches in flight like a multi search request.
+   */
+  private CompletableFuture<ResourceList> scrollThrottled(final String aQueryString,
+    final Map<String, List<String>> aFilters, final QueryContext aQueryContext) {
+    CompletableFuture<ResourceList> result = new CompletableFuture<>();
+    mSearchThrottle.run(() -> {
+      try {
+        esQueryAsync(aQueryString, 0, -1, null, aFilters, aQueryContext).whenComplete((resourceList, failure) -> {
+          try {
+            if (failure != null) {
+              result.completeExceptionally(failure);
+            } else {
+              result.complete(resourceList);
+            }
+          } finally {
+            mSearchThrottle.complete();
+          }
+        });
+      } catch (RuntimeException e) {
+        try {
+          result.completeExceptionally(e);
+        } finally {
+          mSearchThrottle.complete();
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Limits the number of searches in flight. Repositories for other indices of the same cluster
+   * share the throttle of the repository they were created from.
+   */
+  private static class SearchThrottle {
+
+    private final Deque<Runnable> mPendingSearches = new ArrayDeque<>();
+    private final int mMaxSearchesInFlight;
+    private int mSearchesInFlight = 0;
+
+    SearchThrottle(int aMaxSearchesInFlight) {
+      mMaxSearchesInFlight = aMaxSearchesInFlight;
+    }
+
+    /**
+     * Send a search unless the maximum number of searches is in flight, otherwise queue it.
+     */
+    void run(Runnable aSearch) {
+      synchronized (this) {
+        if (mSearchesInFlight >= mMaxSearchesInFlight) {
+          mPendingSearches.add(aSearch);
+          return;
+        }
+        mSearchesInFlight++;
+      }
+      aSearch.run();
+    }
+
+    /**
+     * Send the next queued search, if any, once a search completed.
+     */
+    void complete() {
+      Runnable next;
+      synchronized (this) {
+        next = mPendingSearches.poll();
+        if (next == null) {
+          mSearchesInFlight--;
+          return;
+        }
+      }
+      next.run();
+    }
+  }
+
+  private static String getReconcileQuery(String aQuery) {
     // remove "words" consisting only of characters that have to be escaped
     aQuery = aQuery.replaceAll("(?<=[ \t\n\r])[\\\\+\\-&|!(){}\\[\\]^/\"~*?:]+(?=[ \t\n\r])", "");
     aQuery = QueryParser.escape(aQuery);
-    aQuery = aQuery.replaceAll("([^ ]+)", "$1~");
-    aQueryContext.setFetchSource(new String[]{"about.@id", "about.@type", "about.name"});
+    return aQuery.replaceAll("([^ ]+)", "$1~");
+  }
 
-    ResourceList response = esQuery(aQuery, aFrom, aSize, aSortOrder, aFilters, aQueryContext);
-    Iterator<Resource> searchHits = response.getItems().iterator();
+  private static JsonNode toReconcileResult(ResourceList aResponse, Locale aPreferredLocale) {
+    Iterator<Resource> searchHits = aResponse.getItems().iterator();
     ArrayNode resultItems = new ArrayNode(mJsonNodeFactory);
 
     while (searchHits.hasNext()) {
@@ -218,19 +629,24 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
    * Add a document consisting of a JSON String specified by a given UUID and a given type.
    */
   private void addJson(final String aJsonString, final String aUuid) {
-    String uuid = getUrlUuidEncoded(aUuid);
-    IndexRequest request = new IndexRequest(mConfig.getIndex(), Record.TYPE,
-      (uuid == null ? aUuid : uuid));
-    request.source(aJsonString, XContentType.JSON);
+    IndexRequest request = createIndexRequest(aJsonString, aUuid);
     request.setRefreshPolicy(mConfig.getRefreshPolicy());
     // see https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-refresh.html,
     try {
       mConfig.getClient().index(request);
     } catch (IOException | ElasticsearchStatusException e) {
       Logger.error("Failed indexing data to Elasticsearch.", e);
+    } finally {
+      mSearchResultCache.invalidate();
     }
   }
 
+  private IndexRequest createIndexRequest(final String aJsonString, final String aUuid) {
+    String uuid = getUrlUuidEncoded(aUuid);
+    return new IndexRequest(mIndex, Record.TYPE, (uuid == null ? aUuid : uuid))
+      .source(aJsonString, XContentType.JSON);
+  }
+
   private String getUrlUuidEncoded(String aUuid) {
     if (isValidUri(aUuid)) {
       try {
@@ -253,51 +669,24 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
   }
 
   /**
-   * Add documents consisting of JSON Strings specified by a given UUID and a given type.
-   */
-  private void addJsonBulk(final Map<String, String> aJsonStringIdMap) {
-    BulkRequest request = new BulkRequest();
-    for (Map.Entry<String, String> entry : aJsonStringIdMap.entrySet()) {
-      request.add(new IndexRequest(mConfig.getIndex(), Record.TYPE, entry.getKey())
-        .source(entry.getValue(), XContentType.JSON));
-    }
-    request.setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
-    try {
-      BulkResponse bulkResponse = mConfig.getClient().bulk(request);
-      if (bulkResponse.hasFailures()) {
-        Logger.error(bulkResponse.buildFailureMessage());
-      }
-    } catch (IOException e) {
-      Logger.error("Failed indexing bulk data to Elasticsearch.", e);
-    }
-  }
-
-  /**
-   * get *all* matching documents as one list
+   * Iterate over all documents with a field matching a value, reading them page by page. Documents
+   * are read in index order from a consistent view of the index.
+   *
+   * @param aField The field, may contain wildcards
+   * @param aValue The exact value of the field
+   * @return The matching documents, should be closed if not read completely
    */
-  private List<Map<String, Object>> getDocuments(final String aField, final Object aValue)
+  public SearchHitIterator getDocuments(@Nonnull final String aField, @Nonnull final Object aValue)
     throws IOException {
-    final int docsPerPage = 1024;
-    int count = 0;
-    SearchResponse response = null;
-    final List<Map<String, Object>> docs = new ArrayList<>();
-
-    SearchRequest searchRequest = new SearchRequest();
-    SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-    searchSourceBuilder
-      .query(QueryBuilders
-        .queryStringQuery(aField.concat(":").concat(QueryParser.escape(aValue.toString()))))
-      .size(docsPerPage);
-    searchRequest.source(searchSourceBuilder);
-    while (response == null || response.getHits().getHits().length != 0) {
-      searchSourceBuilder.from(count * docsPerPage);
-      response = mConfig.getClient().search(searchRequest);
-      for (SearchHit hit : response.getHits().getHits()) {
-        docs.add(hit.getSourceAsMap());
-      }
-      count++;
-    }
-    return docs;
+    // Fields with wildcards cannot be used in term queries
+    QueryBuilder filter = aField.contains("*")
+      ? QueryBuilders.queryStringQuery(aField.concat(":").concat(QueryParser.escape(aValue.toString())))
+      : termQuery(aField, aValue);
+    SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+      .query(QueryBuilders.constantScoreQuery(filter))
+      .sort(FieldSortBuilder.DOC_FIELD_NAME)
+      .size(DOCUMENTS_PER_PAGE);
+    return scroll(new SearchRequest(mIndex).source(searchSourceBuilder), false);
   }
 
   /**
@@ -306,7 +695,7 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
    * @return the document as Map of String/Object
    */
   private Map<String, Object> getDocument(@Nonnull final String aIdentifier) throws IOException {
-    GetRequest request = new GetRequest(mConfig.getIndex(), Record.TYPE, aIdentifier);
+    GetRequest request = new GetRequest(mIndex, Record.TYPE, aIdentifier);
     // optionally: request.refresh(true);
     final GetResponse response = mConfig.getClient().get(request);
     return response.getSource();
@@ -314,10 +703,11 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
 
   private boolean deleteDocument(@Nonnull final String aIdentifier)
     throws IOException {
-    DeleteRequest request = new DeleteRequest(mConfig.getIndex(), Record.TYPE, aIdentifier);
+    DeleteRequest request = new DeleteRequest(mIndex, Record.TYPE, aIdentifier);
     request.setRefreshPolicy(mConfig.getRefreshPolicy());
     // see https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-refresh.html,
     final DeleteResponse response = mConfig.getClient().delete(request);
+    mSearchResultCache.invalidate();
     return response.status().equals(RestStatus.OK);
   }
 
@@ -325,7 +715,294 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
     final String aSortOrder, final Map<String, List<String>> aFilters,
     final QueryContext aQueryContext) throws IOException {
 
-    final SearchSourceBuilder sourceBuilder = new SearchSourceBuilder().from(aFrom);
+    if (aSize == -1) {
+      final SearchSourceBuilder sourceBuilder = getSearchSource(aQueryString, aSortOrder, aFilters, aQueryContext)
+        .from(aFrom);
+      Logger.debug(sourceBuilder.toString());
+      List<Resource> resources = new ArrayList<>();
+      try (SearchHitIterator hits = scroll(sourceBuilder)) {
+        while (hits.hasNext()) {
+          resources.add(toResource(hits.next(), hits.getMaxScore()));
+        }
+        return new ResourceList(resources, hits.getTotalHits(), aQueryString, aFrom, aSize, aSortOrder, aFilters);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+
+    PagedSearch search = new PagedSearch(aQueryString, aFrom, aSize, aSortOrder, aFilters, aQueryContext);
+    ResourceList cached = search.getCached();
+    return cached != null ? cached : search.toResourceList(mConfig.getClient().search(search.getRequest()));
+  }
+
+  private CompletionStage<ResourceList> esQueryAsync(@Nonnull final String aQueryString, final int aFrom,
+    final int aSize, final String aSortOrder, final Map<String, List<String>> aFilters,
+    final QueryContext aQueryContext) {
+
+    if (aSize == -1) {
+      // Complete result sets are read page by page from a scroll, on a thread that may block meanwhile
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          return esQuery(aQueryString, aFrom, aSize, aSortOrder, aFilters, aQueryContext);
+        } catch (IOException e) {
+          throw new CompletionException(e);
+        }
+      }, mScrollExecutor);
+    }
+
+    PagedSearch search = new PagedSearch(aQueryString, aFrom, aSize, aSortOrder, aFilters, aQueryContext);
+    ResourceList cached = search.getCached();
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    CompletableFuture<SearchResponse> response = new CompletableFuture<>();
+    mConfig.getClient().searchAsync(search.getRequest(),
+      ActionListener.wrap(response::complete, response::completeExceptionally));
+    return response.thenApply(search::toResourceList);
+  }
+
+  /**
+   * Cluster the resources matching a query by the geohash cells of their locations, so that a map
+   * does not need to load and cluster all of them itself. Clusters are cached like search results,
+   * so tiles that are requested with the same bounding box are served without searching.
+   *
+   * @param aQueryString A string describing the query
+   * @param aZoom The zoom level of the map, which determines the size of the cells
+   * @return A stage completed with a GeoJSON feature collection, with a feature at the centroid of
+   * each cell holding the number of resources in it and the ids of the best matching ones
+   */
+  public CompletionStage<JsonNode> clusterAsync(@Nonnull final String aQueryString, final int aZoom,
+    final Map<String, List<String>> aFilters, final QueryContext aQueryContext) {
+    final SearchSourceBuilder sourceBuilder = getSearchSource(aQueryString, null, aFilters, aQueryContext).size(0)
+      .aggregation(AggregationBuilders.geohashGrid("cells").field("about.location.geo")
+        .precision(getGeohashPrecision(aZoom))
+        .subAggregation(AggregationBuilders.geoCentroid("centroid").field("about.location.geo"))
+        .subAggregation(AggregationBuilders.topHits("top").size(CLUSTER_IDS)
+          .fetchSource(new String[]{"about.@id"}, null)));
+    final String cacheKey = mSearchResultCache.isEnabled()
+      ? "clusters ".concat(mIndex).concat(" ").concat(sourceBuilder.toString())
+      : null;
+    final long generation = mSearchResultCache.getGeneration();
+    Logger.debug(sourceBuilder.toString());
+
+    SearchResultCache.Page cached = cacheKey == null ? null : mSearchResultCache.get(cacheKey);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(toFeatureCollection(cached.getItems()));
+    }
+    CompletableFuture<SearchResponse> response = new CompletableFuture<>();
+    mConfig.getClient().searchAsync(new SearchRequest(mIndex).source(sourceBuilder),
+      ActionListener.wrap(response::complete, response::completeExceptionally));
+    return response.thenApply(searchResponse -> {
+      List<Resource> clusters = new ArrayList<>();
+      GeoHashGrid cells = searchResponse.getAggregations().get("cells");
+      for (GeoHashGrid.Bucket cell : cells.getBuckets()) {
+        clusters.add(toCluster(cell));
+      }
+      if (cacheKey != null) {
+        mSearchResultCache.put(cacheKey, generation, clusters, searchResponse.getHits().getTotalHits(),
+          hasDateMath(aFilters) ? DATE_MATH_MAX_AGE : 0);
+      }
+      return toFeatureCollection(clusters);
+    });
+  }
+
+  /**
+   * Each geohash character divides a cell into 32, i.e. halves it 2.5 times per axis, while each
+   * zoom level halves a tile on both axes. Starting with cells of 45 degrees at zoom level 0, the
+   * precision thus grows by one character every 2.5 zoom levels, so that a tile holds a few cells
+   * along either axis.
+   */
+  private static int getGeohashPrecision(int aZoom) {
+    return Math.max(1, Math.min(12, (2 * aZoom + 5) / 5));
+  }
+
+  private static Resource toCluster(GeoHashGrid.Bucket aCell) {
+    GeoCentroid centroid = aCell.getAggregations().get("centroid");
+    TopHits top = aCell.getAggregations().get("top");
+    List<Object> ids = new ArrayList<>();
+    for (SearchHit hit : top.getHits().getHits()) {
+      Object about = hit.getSourceAsMap().get(Record.RESOURCE_KEY);
+      if (about instanceof Map) {
+        ids.add(((Map<?, ?>) about).get(JsonLdConstants.ID));
+      }
+    }
+    Resource geometry = new Resource();
+    geometry.put("type", "Point");
+    geometry.put("coordinates", Arrays.asList(centroid.centroid().getLon(), centroid.centroid().getLat()));
+    Resource properties = new Resource();
+    properties.put("geohash", aCell.getKeyAsString());
+    properties.put("count", aCell.getDocCount());
+    properties.put("ids", ids);
+    Resource cluster = new Resource();
+    cluster.put("type", "Feature");
+    cluster.put("id", aCell.getKeyAsString());
+    cluster.put("geometry", geometry);
+    cluster.put("properties", properties);
+    return cluster;
+  }
+
+  private static JsonNode toFeatureCollection(List<Resource> aClusters) {
+    ObjectNode featureCollection = mJsonNodeFactory.objectNode();
+    ArrayNode features = featureCollection.put("type", "FeatureCollection").putArray("features");
+    aClusters.forEach(cluster -> features.add(cluster.toJson()));
+    return featureCollection;
+  }
+
+  /**
+   * A search for a page of results, which are cached unless the index changed while searching.
+   */
+  private class PagedSearch {
+
+    private final SearchSourceBuilder mSourceBuilder;
+    private final String mQueryString;
+    private final int mFrom;
+    private final int mSize;
+    private final String mSortOrder;
+    private final Map<String, List<String>> mFilters;
+    private final String mCacheKey;
+    private final long mGeneration;
+
+    PagedSearch(final String aQueryString, final int aFrom, final int aSize, final String aSortOrder,
+      final Map<String, List<String>> aFilters, final QueryContext aQueryContext) {
+      mSourceBuilder = getSearchSource(aQueryString, aSortOrder, aFilters, aQueryContext).from(aFrom).size(aSize);
+      if (aQueryContext != null) {
+        addFacets(aQueryContext.getFacets(), mSourceBuilder);
+      }
+      mQueryString = aQueryString;
+      mFrom = aFrom;
+      mSize = aSize;
+      mSortOrder = aSortOrder;
+      mFilters = aFilters;
+      mCacheKey = mSearchResultCache.isEnabled() ? mIndex.concat(" ").concat(mSourceBuilder.toString()) : null;
+      mGeneration = mSearchResultCache.getGeneration();
+      Logger.debug(mSourceBuilder.toString());
+    }
+
+    SearchRequest getRequest() {
+      return new SearchRequest(mIndex).source(mSourceBuilder);
+    }
+
+    ResourceList getCached() {
+      if (mCacheKey == null) {
+        return null;
+      }
+      SearchResultCache.Page page = mSearchResultCache.get(mCacheKey);
+      if (page == null) {
+        return null;
+      }
+      ResourceList resourceList = new ResourceList(page.getItems(), page.getTotalItems(), mQueryString, mFrom,
+        mSize, mSortOrder, mFilters);
+      resourceList.setFacets(page.getFacets());
+      return resourceList;
+    }
+
+    ResourceList toResourceList(SearchResponse aResponse) {
+      List<Resource> resources = new ArrayList<>();
+      for (SearchHit hit : aResponse.getHits().getHits()) {
+        resources.add(toResource(hit, aResponse.getHits().getMaxScore()));
+      }
+      Map<String, Map<String, Long>> facets = getFacets(aResponse);
+      if (mCacheKey != null) {
+        mSearchResultCache.put(mCacheKey, mGeneration, resources, aResponse.getHits().getTotalHits(), facets,
+          hasDateMath(mFilters) ? DATE_MATH_MAX_AGE : 0);
+      }
+      ResourceList resourceList = new ResourceList(resources, aResponse.getHits().getTotalHits(), mQueryString,
+        mFrom, mSize, mSortOrder, mFilters);
+      resourceList.setFacets(facets);
+      return resourceList;
+    }
+  }
+
+  /**
+   * Get all resources matching a query, read from a scroll while they are iterated, so that they
+   * can be written out without holding all of them in memory. Each iteration runs a new scroll, which
+   * is cleared once all resources were read or the iterator was closed.
+   *
+   * @param aQueryString A string describing the query
+   * @return The resources matching the criteria given in the query string, iterated by a
+   * {@link CloseableIterator} that must be closed if abandoned
+   */
+  public Iterable<Resource> scroll(@Nonnull final String aQueryString, final String aSortOrder,
+    final Map<String, List<String>> aFilters, final QueryContext aQueryContext) {
+    final SearchSourceBuilder sourceBuilder = getSearchSource(aQueryString, aSortOrder, aFilters, aQueryContext);
+    return () -> {
+      final SearchHitIterator hits;
+      try {
+        hits = scroll(sourceBuilder);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return new CloseableIterator<Resource>() {
+        @Override
+        public boolean hasNext() {
+          return hits.hasNext();
+        }
+
+        @Override
+        public Resource next() {
+          return toResource(hits.next(), hits.getMaxScore());
+        }
+
+        @Override
+        public void close() {
+          hits.close();
+        }
+      };
+    };
+  }
+
+  private SearchHitIterator scroll(final SearchSourceBuilder aSourceBuilder) throws IOException {
+    return scroll(new SearchRequest(mIndex).source(aSourceBuilder).searchType(SearchType.DFS_QUERY_THEN_FETCH),
+      true);
+  }
+
+  /**
+   * Scroll over all hits of a search, split into concurrently read slices if configured.
+   *
+   * @param aRequest The search request
+   * @param aOrdered Whether hits of different slices are merged in the sort order of the request
+   */
+  private SearchHitIterator scroll(final SearchRequest aRequest, final boolean aOrdered) throws IOException {
+    return mScrollSlices > 1
+      ? ElasticsearchSlicedScrollIterator.open(mConfig.getClient(), aRequest, mScrollSlices,
+        aOrdered ? getOrder(aRequest.source()) : null)
+      : new ElasticsearchScrollIterator(mConfig.getClient(), aRequest);
+  }
+
+  /**
+   * @return A comparator of hits matching the sort order of a search, by score if no sort is given
+   */
+  private static Comparator<SearchHit> getOrder(final SearchSourceBuilder aSourceBuilder) {
+    List<SortBuilder<?>> sorts = aSourceBuilder.sorts();
+    if (sorts == null || sorts.isEmpty()) {
+      return Comparator.comparing(SearchHit::getScore, Comparator.reverseOrder());
+    }
+    Comparator<SearchHit> order = null;
+    for (int i = 0; i < sorts.size(); i++) {
+      final int position = i;
+      Comparator<Comparable<Object>> values = SortOrder.DESC.equals(sorts.get(i).order())
+        ? Comparator.reverseOrder()
+        : Comparator.naturalOrder();
+      // Missing values are sorted last in either order
+      Comparator<SearchHit> field = Comparator.comparing(hit -> getSortValue(hit, position),
+        Comparator.nullsLast(values));
+      order = order == null ? field : order.thenComparing(field);
+    }
+    return order;
+  }
+
+  /**
+   * @return The sort value at a position of a hit, which Elasticsearch returns as a comparable of a
+   * single type per sort field
+   */
+  @SuppressWarnings("unchecked")
+  private static Comparable<Object> getSortValue(final SearchHit aHit, final int aPosition) {
+    return (Comparable<Object>) aHit.getSortValues()[aPosition];
+  }
+
+  private SearchSourceBuilder getSearchSource(@Nonnull final String aQueryString, final String aSortOrder,
+    final Map<String, List<String>> aFilters, final QueryContext aQueryContext) {
+    final SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
     processSortOrder(aSortOrder, aQueryString, sourceBuilder);
     final BoolQueryBuilder globalAndFilter = QueryBuilders.boolQuery();
     processFilters(aFilters, globalAndFilter);
@@ -335,51 +1012,72 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
     FunctionScoreQueryBuilder fqBuilder = getFunctionScoreQueryBuilder(queryBuilder);
     final BoolQueryBuilder bqBuilder = QueryBuilders.boolQuery().filter(globalAndFilter);
     bqBuilder.must(fqBuilder);
-    sourceBuilder.query(bqBuilder);
+    return sourceBuilder.query(bqBuilder);
+  }
 
-    List<SearchHit> searchHits = new ArrayList<>();
-    SearchResponse response;
-    float maxScore = 0.0f;
-    if (aSize == -1) {
-      response = mConfig.getClient().search(
-        new SearchRequest(mConfig.getIndex()).source(sourceBuilder)
-          .searchType(SearchType.DFS_QUERY_THEN_FETCH)
-          .scroll(new TimeValue(60000)));
-      maxScore = Math.max(response.getHits().getMaxScore(), maxScore);
-      List<SearchHit> nextHits = Arrays.asList(response.getHits().getHits());
-      while (nextHits.size() > 0) {
-        searchHits.addAll(nextHits);
-        SearchScrollRequest searchScrollRequest = new SearchScrollRequest()
-          .scrollId(response.getScrollId()).scroll(new TimeValue(60000));
-        response = mConfig.getClient().searchScroll(searchScrollRequest);
-        JsonNode resultNode = new ObjectMapper().readTree(response.toString());
-        Logger.debug(resultNode.toString());
-        nextHits = Arrays.asList(response.getHits().getHits());
-        maxScore = Math.max(response.getHits().getMaxScore(), maxScore);
+  /**
+   * Add a terms aggregation for each requested facet that is configured in es.facets, so that the
+   * facets are counted by the same search that reads the results.
+   */
+  private void addFacets(final List<String> aFacets, final SearchSourceBuilder aSourceBuilder) {
+    if (aFacets == null || aFacets.isEmpty()) {
+      return;
+    }
+    // Aggregations are added in a fixed order, so that equal requests are cached alike
+    for (String facet : new TreeSet<>(aFacets)) {
+      if (mFacets.containsKey(facet)) {
+        aSourceBuilder.aggregation(AggregationBuilders.terms(facet).field(mFacets.get(facet)).size(mFacetSize));
+      } else {
+        Logger.trace("Unknown facet: " + facet);
       }
-    } else {
-      sourceBuilder.size(aSize);
-      response = mConfig.getClient()
-        .search(new SearchRequest(mConfig.getIndex()).source(sourceBuilder));
-      searchHits.addAll(Arrays.asList(response.getHits().getHits()));
-      maxScore = Math.max(response.getHits().getMaxScore(), maxScore);
     }
+  }
 
-    Logger.debug(sourceBuilder.toString());
-
-    List<Resource> resources = new ArrayList<>();
-    for (SearchHit hit : searchHits) {
-      Resource resource = Resource.fromMap(hit.getSourceAsMap());
-      if (!Float.isNaN(hit.getScore())) {
-        // Convert ES scoring to score between 0 an 1
-        resource.put("_score", hit.getScore() / maxScore);
+  /**
+   * @return The number of results per term of each facet, ordered by count, null if no facets were
+   * requested
+   */
+  private static Map<String, Map<String, Long>> getFacets(SearchResponse aResponse) {
+    if (aResponse.getAggregations() == null) {
+      return null;
+    }
+    Map<String, Map<String, Long>> facets = new TreeMap<>();
+    for (Aggregation aggregation : aResponse.getAggregations()) {
+      if (aggregation instanceof Terms) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Terms.Bucket bucket : ((Terms) aggregation).getBuckets()) {
+          counts.put(bucket.getKeyAsString(), bucket.getDocCount());
+        }
+        facets.put(aggregation.getName(), counts);
       }
-      resources.add(resource);
     }
+    return facets;
+  }
+
+  /**
+   * @param aMaxScore The maximum score of all hits of the search, as reported with the first
+   *                  response, to normalize the score of the hit with
+   */
+  private static Resource toResource(SearchHit aHit, float aMaxScore) {
+    Resource resource = Resource.fromMap(aHit.getSourceAsMap());
+    if (!Float.isNaN(aHit.getScore()) && aMaxScore > 0) {
+      // Convert ES scoring to score between 0 an 1
+      resource.put("_score", aHit.getScore() / aMaxScore);
+    }
+    return resource;
+  }
 
-    return new ResourceList(resources, response.getHits().getTotalHits(), aQueryString, aFrom,
-      aSize, aSortOrder,
-      aFilters);
+  private static boolean hasDateMath(Map<String, List<String>> aFilters) {
+    if (aFilters != null) {
+      for (List<String> values : aFilters.values()) {
+        for (String value : values) {
+          if (value.startsWith("now")) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
   }
 
   private FunctionScoreQueryBuilder getFunctionScoreQueryBuilder(QueryBuilder queryBuilder) {
@@ -419,10 +1117,13 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
     BoolQueryBuilder globalAndFilter) {
     if (!(null == aFilters)) {
       BoolQueryBuilder aggregationAndFilter = QueryBuilders.boolQuery();
-      for (Map.Entry<String, List<String>> entry : aFilters.entrySet()) {
+      // Filters are added in a fixed order, so that equal filters result in equal requests
+      for (Map.Entry<String, List<String>> entry : new TreeMap<>(aFilters).entrySet()) {
         BoolQueryBuilder orFilterBuilder = QueryBuilders.boolQuery();
         String filterName = entry.getKey();
-        for (String filterValue : entry.getValue()) {
+        List<String> filterValues = new ArrayList<>(entry.getValue());
+        Collections.sort(filterValues);
+        for (String filterValue : filterValues) {
           orFilterBuilder.should(buildFilterQuery(filterName, filterValue));
         }
         aggregationAndFilter.must(orFilterBuilder);
@@ -489,12 +1190,25 @@ public class ElasticsearchRepository extends Repository implements Readable, Wri
     return mConfig.indexExists(aIndex);
   }
 
+  /**
+   * @return The number of documents in the index, 0 if it does not exist
+   */
+  public long count() throws IOException {
+    if (!hasIndex(mIndex)) {
+      return 0;
+    }
+    SearchRequest request = new SearchRequest(mIndex).source(new SearchSourceBuilder().size(0));
+    return mConfig.getClient().search(request).getHits().getTotalHits();
+  }
+
   public void deleteIndex(String aIndex) throws IOException {
     mConfig.deleteIndex(aIndex);
+    mSearchResultCache.invalidate();
   }
 
   public void createIndex(String aIndex) throws IOException {
     mConfig.createIndex(aIndex);
+    mSearchResultCache.invalidate();
   }
 
   public ElasticsearchConfig getConfig() {
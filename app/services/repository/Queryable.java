@@ -6,6 +6,8 @@ import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * @author fo
@@ -21,4 +23,23 @@ public interface Queryable {
    */
   ResourceList query(@Nonnull String aQueryString, int aFrom, int aSize, String aSortOrder,
     Map<String, List<String>> aFilters) throws IOException;
+
+  /**
+   * Query for resources without waiting for the result, if supported. By default the query runs on
+   * the calling thread.
+   *
+   * @param aQueryString A string describing the query
+   * @return A stage completed with the result set of resources matching the criteria given in the
+   * query string
+   */
+  default CompletionStage<ResourceList> queryAsync(@Nonnull String aQueryString, int aFrom, int aSize,
+    String aSortOrder, Map<String, List<String>> aFilters) {
+    try {
+      return CompletableFuture.completedFuture(query(aQueryString, aFrom, aSize, aSortOrder, aFilters));
+    } catch (IOException e) {
+      CompletableFuture<ResourceList> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+  }
 }
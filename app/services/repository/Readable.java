@@ -5,6 +5,8 @@ import models.Resource;
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * @author fo
@@ -19,5 +21,22 @@ public interface Readable {
    */
   Resource getResource(@Nonnull String aId) throws IOException;
 
+  /**
+   * Get a Resource without waiting for it, if supported. By default the resource is read on the
+   * calling thread.
+   *
+   * @param aId The identifier of the resource
+   * @return A stage completed with the resource, or with null if there is no such resource
+   */
+  default CompletionStage<Resource> getResourceAsync(@Nonnull String aId) {
+    try {
+      return CompletableFuture.completedFuture(getResource(aId));
+    } catch (IOException e) {
+      CompletableFuture<Resource> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+  }
+
   List<Resource> getAll(@Nonnull String aType) throws IOException;
 }
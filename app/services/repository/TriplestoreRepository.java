@@ -19,23 +19,24 @@ import org.apache.jena.query.ResultSetFormatter;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.NodeIterator;
+import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
-import org.apache.jena.riot.Lang;
-import org.apache.jena.riot.RDFDataMgr;
 import org.apache.jena.shared.Lock;
 import org.apache.jena.tdb.TDB;
 import org.apache.jena.vocabulary.RDF;
 import play.Logger;
 import services.BroaderConceptEnricher;
+import services.FramedResourceCache;
 import services.InverseEnricher;
+import services.JsonLdContextRegistry;
+import services.JsonLdReader;
 import services.ResourceEnricher;
 import services.ResourceFramer;
 
 import javax.annotation.Nonnull;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
@@ -44,6 +45,7 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +65,7 @@ public class TriplestoreRepository extends Repository implements Readable, Writa
 
   private final Model mDb;
   private final GraphHistory mGraphHistory;
+  private final FramedResourceCache mFramedResourceCache;
   private final ResourceEnricher mInverseEnricher = new InverseEnricher();
   private final ResourceEnricher mBroaderConceptEnricher = new BroaderConceptEnricher();
 
@@ -76,13 +79,33 @@ public class TriplestoreRepository extends Repository implements Readable, Writa
   }
 
   TriplestoreRepository(Config aConfiguration, Model aModel, GraphHistory aGraphHistory) {
+    this(aConfiguration, aModel, aGraphHistory, createFramedResourceCache(aConfiguration, aModel, aGraphHistory));
+  }
+
+  public TriplestoreRepository(Config aConfiguration, Model aModel, GraphHistory aGraphHistory,
+                               FramedResourceCache aFramedResourceCache) {
     super(aConfiguration);
     this.mDb = aModel;
     this.mGraphHistory = aGraphHistory;
+    this.mFramedResourceCache = aFramedResourceCache;
+    JsonLdContextRegistry.register(mConfiguration.getString("jsonld.context"));
+  }
+
+  static FramedResourceCache createFramedResourceCache(Config aConfiguration, Model aModel,
+                                                       GraphHistory aGraphHistory) {
+    int size = aConfiguration.hasPath("resource.cache.size")
+      ? aConfiguration.getInt("resource.cache.size")
+      : 10000;
+    boolean smile = aConfiguration.hasPath("resource.cache.smile")
+      && aConfiguration.getBoolean("resource.cache.smile");
+    return new FramedResourceCache(aModel, aGraphHistory, aConfiguration.getString("jsonld.context"), size, smile);
   }
 
   @Override
   public Resource getResource(@Nonnull String aId, String aVersion) {
+    if (aVersion == null || "HEAD".equals(aVersion)) {
+      return mFramedResourceCache.get(aId);
+    }
     Model dbstate = getExtendedDescription(aId, mDb);
     if ((aVersion != null) && !("HEAD".equals(aVersion))) {
       for (Commit commit : mGraphHistory.until(aVersion)) {
@@ -159,6 +182,7 @@ public class TriplestoreRepository extends Repository implements Readable, Writa
       mDb.leaveCriticalSection();
     }
     mGraphHistory.add(commit);
+    mFramedResourceCache.invalidate(commit.getDiff());
   }
 
   public void commit(List<Commit> commits) throws IOException {
@@ -167,6 +191,7 @@ public class TriplestoreRepository extends Repository implements Readable, Writa
       for (Commit commit : commits) {
         commit.getDiff().apply(mDb);
         mGraphHistory.add(commit);
+        mFramedResourceCache.invalidate(commit.getDiff());
       }
       TDB.sync(mDb);
     } finally {
@@ -187,6 +212,14 @@ public class TriplestoreRepository extends Repository implements Readable, Writa
     return ResourceFramer.resourceFromModel(staged, aResource.getId(), mConfiguration.getString("jsonld.context"));
   }
 
+  /**
+   * The properties of a resource that are embedded in the descriptions of resources referring to
+   * it. Changes to other properties only affect the description of the resource itself.
+   */
+  public static final List<Property> IDENTIFYING_PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+    RDF.type, SCHEMA.name, SCHEMA.image, SCHEMA.sameAs, SCHEMA.agent, SCHEMA.provider, SCHEMA.object,
+    SCHEMA.description, SCHEMA.text, SCHEMA.startTime, SCHEMA.dateCreated, SCHEMA.author, SCHEMA.location));
+
   public static Model getExtendedDescription(@Nonnull String aId, @Nonnull Model aModel) {
     Model extendedDescription = getConciseBoundedDescription(aId, aModel);
     extendedDescription.add(getIdentifyingDescriptions(extendedDescription.listObjects(), aModel, new ArrayList<>()));
@@ -201,51 +234,17 @@ public class TriplestoreRepository extends Repository implements Readable, Writa
         continue;
       }
       if (node.isURIResource()) {
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, RDF.type, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.name, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.image, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.sameAs, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.agent, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.provider, (RDFNode) null)
-        );
+        for (Property property : IDENTIFYING_PROPERTIES) {
+          identifyingDescriptions.add(
+            aModel.listStatements((org.apache.jena.rdf.model.Resource) node, property, (RDFNode) null)
+          );
+        }
         identifyingDescriptions.add(
           getIdentifyingDescriptions(
             aModel.listObjectsOfProperty((org.apache.jena.rdf.model.Resource) node, SCHEMA.provider), aModel, skip));
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.object, (RDFNode) null)
-        );
         identifyingDescriptions.add(
           getIdentifyingDescriptions(
             aModel.listObjectsOfProperty((org.apache.jena.rdf.model.Resource) node, SCHEMA.object), aModel, skip));
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.description, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.text, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.startTime, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.dateCreated, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.author, (RDFNode) null)
-        );
-        identifyingDescriptions.add(
-          aModel.listStatements((org.apache.jena.rdf.model.Resource) node, SCHEMA.location, (RDFNode) null)
-        );
         String describeLocations = String.format(
           "DESCRIBE ?location WHERE { <%1$s> <http://schema.org/location> ?location }", node
         );
@@ -294,9 +293,8 @@ public class TriplestoreRepository extends Repository implements Readable, Writa
   public Commit.Diff getDiff(@Nonnull Resource aResource) {
     // The incoming model
     Model incoming = ModelFactory.createDefaultModel();
-    try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(
-      aResource.reduce().toString().getBytes())) {
-      RDFDataMgr.read(incoming, byteArrayInputStream, Lang.JSONLD);
+    try {
+      JsonLdReader.read(incoming, aResource.reduce().toString());
     } catch (IOException e) {
       throw new RuntimeIOException(e);
     }
@@ -395,6 +393,7 @@ public class TriplestoreRepository extends Repository implements Readable, Writa
       ZonedDateTime.parse(aMetadata.get(TripleCommit.Header.DATE_HEADER)));
     TripleCommit commit = new TripleCommit(header, diff);
     mGraphHistory.add(commit);
+    mFramedResourceCache.invalidate(diff);
 
     return ResourceFramer.resourceFromModel(dbstate, aId, mConfiguration.getString("jsonld.context"));
   }
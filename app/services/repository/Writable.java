@@ -6,6 +6,7 @@ import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * @author fo
@@ -29,6 +30,44 @@ public interface Writable {
   void addResources(@Nonnull List<Resource> aResources, Map<String, String> aMetadata)
     throws IOException;
 
+  /**
+   * Add multiple resources to the repository, each with its own metadata
+   *
+   * @param aResources The resources to be added
+   * @param aMetadata The metadata for each of the resources, in the same order
+   */
+  default void addResources(@Nonnull List<Resource> aResources, @Nonnull List<Map<String, String>> aMetadata)
+    throws IOException {
+    for (int i = 0; i < aResources.size(); i++) {
+      addResource(aResources.get(i), aMetadata.get(i));
+    }
+  }
+
+  /**
+   * Add multiple resources to the repository, each with its own metadata and version. Versions
+   * only ever increase for a resource, so repositories that support versioning can reject a write
+   * that is older than the one they already hold.
+   *
+   * @param aResources The resources to be added
+   * @param aMetadata The metadata for each of the resources, in the same order
+   * @param aVersions The version of each of the resources, in the same order, 0 if unknown
+   */
+  default void addResources(@Nonnull List<Resource> aResources, @Nonnull List<Map<String, String>> aMetadata,
+                            @Nonnull List<Long> aVersions) throws IOException {
+    addResources(aResources, aMetadata);
+  }
+
+  /**
+   * Update the metadata of resources already in the repository, leaving the resources unchanged.
+   * Repositories that do not keep metadata ignore the update.
+   *
+   * @param aIds The ids of the resources
+   * @param aMetadata The metadata for each of the resources, in the same order
+   */
+  default void updateMetadata(@Nonnull List<String> aIds, @Nonnull List<Map<String, String>> aMetadata)
+    throws IOException {
+  }
+
   /**
    * Delete a resource from the repository
    *
@@ -37,4 +76,32 @@ public interface Writable {
    * @return The deleted resource
    */
   Resource deleteResource(@Nonnull String aId, Map<String, String> aMetadata) throws IOException;
+
+  /**
+   * Repositories that buffer writes may only notice later that a resource could not be written.
+   *
+   * @param aListener Called with the id of each resource that could not be written
+   */
+  default void setFailureListener(Consumer<String> aListener) {
+  }
+
+  /**
+   * Repositories that buffer writes only know later that a resource was written.
+   *
+   * @param aListener Called with the id of each resource once it was written
+   * @return False if the listener is never called because resources are written once they were
+   * added
+   */
+  default boolean setWriteListener(Consumer<String> aListener) {
+    return false;
+  }
+
+  /**
+   * Write any buffered changes to the repository
+   *
+   * @return False if it is unknown whether all buffered changes were written
+   */
+  default boolean flush() {
+    return true;
+  }
 }
@@ -0,0 +1,99 @@
+package services;
+
+import models.TripleCommit;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.Assert;
+import org.junit.Test;
+import play.Logger;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compares the batched scope computation for a diff of 10000 lines to looking up the related
+ * resources of each touched resource with its own query.
+ */
+public class ScopeBenchmarkTest {
+
+  private static final String SCHEMA = "http://schema.org/";
+  private static final Resource CONCEPT = ResourceFactory
+    .createResource("http://www.w3.org/2004/02/skos/core#Concept");
+
+  private static final String PER_ID_QUERY_TEMPLATE =
+    "SELECT DISTINCT ?s1 WHERE {" +
+      "    ?s1 ?p1 <%1$s> ." +
+      "    FILTER ( ?p1 != <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> )" +
+      "    OPTIONAL { ?y a <http://www.w3.org/2004/02/skos/core#Concept> . FILTER (<%1$s> = ?y) . }" +
+      "    FILTER ( !BOUND(?y) ) " +
+      "}";
+
+  @Test
+  public void testScopeOfLargeDiff() {
+
+    Model db = ModelFactory.createDefaultModel();
+    Property name = ResourceFactory.createProperty(SCHEMA, "name");
+    Property knows = ResourceFactory.createProperty(SCHEMA, "knows");
+    Property about = ResourceFactory.createProperty(SCHEMA, "about");
+    Property memberOf = ResourceFactory.createProperty(SCHEMA, "memberOf");
+    Resource organization = ResourceFactory.createResource(SCHEMA.concat("Organization"));
+
+    // Existing resources referring to the ones in the diff
+    for (int i = 0; i < 2000; i++) {
+      db.add(db.createResource("info:member" + i), memberOf, db.createResource("info:org" + i));
+    }
+    for (int i = 0; i < 50; i++) {
+      db.add(db.createResource("info:concept" + i), RDF.type, CONCEPT);
+    }
+
+    TripleCommit.Diff diff = new TripleCommit.Diff();
+    for (int i = 0; i < 2000; i++) {
+      Resource org = db.createResource("info:org" + i);
+      diff.addStatement(db.createStatement(org, RDF.type, organization));
+      diff.addStatement(db.createStatement(org, name, db.createLiteral("Organization " + i, "en")));
+      diff.addStatement(db.createStatement(org, knows, db.createResource("info:org" + ((i + 1) % 2000))));
+      diff.addStatement(db.createStatement(org, about, db.createResource("info:concept" + (i % 50))));
+      diff.addStatement(db.createStatement(org, knows, db.createResource("info:org" + ((i + 7) % 2000))));
+    }
+    Assert.assertEquals(10000, diff.getLines().size());
+    diff.apply(db);
+
+    ResourceIndexer indexer = new ResourceIndexer(db, null, null, null,
+      "https://oerworldmap.org/assets/json/context.json");
+
+    long start = System.nanoTime();
+    Set<String> commitScope = indexer.getCommitScope(diff);
+    Set<String> expected = new HashSet<>(commitScope);
+    for (String id : commitScope) {
+      try (QueryExecution queryExecution = QueryExecutionFactory
+        .create(QueryFactory.create(String.format(PER_ID_QUERY_TEMPLATE, id)), db)) {
+        ResultSet rs = queryExecution.execSelect();
+        while (rs.hasNext()) {
+          expected.add(rs.next().get("s1").toString());
+        }
+      }
+    }
+    long perId = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    Set<String> actual = indexer.getScope(diff);
+    long batched = System.nanoTime() - start;
+
+    Logger.info(String.format("Scope of %d lines touching %d resources: %d resources, "
+        + "per id %d ms, batched %d ms", diff.getLines().size(), commitScope.size(), actual.size(),
+      perId / 1000000, batched / 1000000));
+    Assert.assertEquals(expected, actual);
+    // The organizations, concepts and the organization type touched by the diff and the members
+    Assert.assertEquals(4051, actual.size());
+    // One query per chunk of 1000 ids instead of one per id
+    Assert.assertTrue(batched < perId);
+  }
+}
@@ -0,0 +1,97 @@
+package services;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import play.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Compares reading 40000 hits from one scroll to reading them from four slices, with each page of
+ * 1000 hits taking 20 ms to arrive, as a round trip to Elasticsearch would.
+ */
+public class SlicedScrollBenchmarkTest {
+
+  private static final int PAGE_SIZE = 1000;
+  private static final int PAGES = 40;
+  private static final int SLICES = 4;
+  private static final long PAGE_LATENCY = 20;
+
+  private static SearchResponse page(int aFirstHit, int aSize) {
+    SearchHit[] hits = new SearchHit[aSize];
+    for (int i = 0; i < aSize; i++) {
+      hits[i] = new SearchHit(aFirstHit + i, "info:" + (aFirstHit + i), null, Collections.emptyMap());
+    }
+    return new SearchResponse(new InternalSearchResponse(new SearchHits(hits, PAGES * PAGE_SIZE, 1), null, null,
+      null, false, null, 1), "scroll", 1, 1, 0, 1, new ShardSearchFailure[0], SearchResponse.Clusters.EMPTY);
+  }
+
+  private static ElasticsearchScrollIterator scroll(int aFirstHit, int aPages) throws IOException {
+    sleep();
+    return new ElasticsearchScrollIterator(page(aFirstHit, PAGE_SIZE), new ElasticsearchScrollIterator.Scroller() {
+      private int mPage = 1;
+
+      @Override
+      public SearchResponse scroll(String aScrollId) throws IOException {
+        sleep();
+        return page(aFirstHit + mPage * PAGE_SIZE, mPage++ < aPages ? PAGE_SIZE : 0);
+      }
+
+      @Override
+      public void clear(String aScrollId) {
+      }
+    });
+  }
+
+  private static void sleep() throws IOException {
+    try {
+      Thread.sleep(PAGE_LATENCY);
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+
+  private static int count(SearchHitIterator aHits) {
+    int count = 0;
+    while (aHits.hasNext()) {
+      aHits.next();
+      count++;
+    }
+    return count;
+  }
+
+  @Test
+  public void testSlicedScroll() throws IOException {
+
+    long start = System.nanoTime();
+    int sequential = count(scroll(0, PAGES));
+    long sequentialTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    List<Callable<ElasticsearchScrollIterator>> slices = new ArrayList<>();
+    for (int i = 0; i < SLICES; i++) {
+      int firstHit = i * PAGES / SLICES * PAGE_SIZE;
+      slices.add(() -> scroll(firstHit, PAGES / SLICES));
+    }
+    int sliced = count(new ElasticsearchSlicedScrollIterator(slices, null));
+    long slicedTime = System.nanoTime() - start;
+
+    Logger.info(String.format("Scroll of %d hits: sequential %d ms, %d slices %d ms, %.0f hits/s vs %.0f hits/s",
+      sequential, sequentialTime / 1000000, SLICES, slicedTime / 1000000, sequential * 1e9 / sequentialTime,
+      sliced * 1e9 / slicedTime));
+    Assert.assertEquals(PAGES * PAGE_SIZE, sequential);
+    Assert.assertEquals(PAGES * PAGE_SIZE, sliced);
+    // The slices wait for their pages at the same time, so reading them takes well under half as long
+    Assert.assertTrue(slicedTime * 2 < sequentialTime);
+  }
+}
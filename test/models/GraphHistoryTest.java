@@ -96,4 +96,17 @@ public class GraphHistoryTest {
       .log("info:urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0789");
     assertEquals(0, resource789Commits.size());
   }
+
+  @Test
+  public void testVersionCountsUnreadableCommits() throws IOException {
+
+    FileUtils.writeStringToFile(mHistoryFile, "missing\n", StandardCharsets.UTF_8);
+    GraphHistory graphHistory = new GraphHistory(mHistoryDir, mHistoryFile);
+    TripleCommit commit = TripleCommit
+      .fromString(loadCommit("GraphHistoryTest/testAddCommit.IN.1.ncommit"));
+    graphHistory.add(commit);
+    assertEquals(1, graphHistory.size());
+    assertEquals(2, graphHistory.getHeadVersion());
+    assertEquals(2, graphHistory.getVersion("info:urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0456"));
+  }
 }
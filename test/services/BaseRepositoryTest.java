@@ -1,5 +1,6 @@
 package services;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import helpers.ElasticsearchTestGrid;
 import helpers.JsonLdConstants;
 import helpers.JsonTest;
@@ -8,6 +9,7 @@ import models.Record;
 import models.Resource;
 import models.TripleCommit;
 import org.elasticsearch.common.geo.GeoPoint;
+import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -45,6 +47,11 @@ public class BaseRepositoryTest extends ElasticsearchTestGrid implements JsonTes
     mMetadata.put(TripleCommit.Header.DATE_HEADER, "2016-04-08T17:34:37.038+02:00");
   }
 
+  @AfterClass
+  public static void closeRepository() {
+    mBaseRepo.close();
+  }
+
   @Test
   public void testResourceWithIdentifiedSubObject() throws IOException {
     Logger.warn("Starting testResourceWithIdentifiedSubObject()");
@@ -351,6 +358,49 @@ public class BaseRepositoryTest extends ElasticsearchTestGrid implements JsonTes
     mBaseRepo.deleteResource("urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0003", mMetadata);
   }
 
+  @Test
+  public void testClusters() throws IOException {
+    Logger.warn("Starting testClusters()");
+    Resource db1 = getResourceFromJsonFile(
+      "BaseRepositoryTest/testPolygonFilteredSearch.DB.1.json");
+    Resource db2 = getResourceFromJsonFile(
+      "BaseRepositoryTest/testPolygonFilteredSearch.DB.2.json");
+    Resource db3 = getResourceFromJsonFile(
+      "BaseRepositoryTest/testPolygonFilteredSearch.DB.3.json");
+
+    mBaseRepo.addResource(db1, mMetadata);
+    mBaseRepo.addResource(db2, mMetadata);
+    mBaseRepo.addResource(db3, mMetadata);
+
+    QueryContext queryContext = new QueryContext(null);
+    List<GeoPoint> polygon = new ArrayList<>();
+    polygon.add(new GeoPoint(12.0, 13.0));
+    polygon.add(new GeoPoint(12.0, 14.0));
+    polygon.add(new GeoPoint(11.0, 14.0));
+    polygon.add(new GeoPoint(6.0, 4.0));
+    polygon.add(new GeoPoint(6.0, 3.0));
+    polygon.add(new GeoPoint(7.0, 3.0));
+    queryContext.setPolygonFilter(polygon);
+
+    JsonNode clusters = mBaseRepo.clusterAsync("*", 0, null, queryContext).toCompletableFuture().join();
+    Assert.assertEquals("FeatureCollection", clusters.get("type").asText());
+    long count = 0;
+    Set<String> ids = new HashSet<>();
+    for (JsonNode cluster : clusters.get("features")) {
+      Assert.assertEquals("Point", cluster.get("geometry").get("type").asText());
+      count += cluster.get("properties").get("count").asLong();
+      cluster.get("properties").get("ids").forEach(id -> ids.add(id.asText()));
+    }
+    Assert.assertEquals(2, count);
+    Assert.assertFalse(ids.contains("urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0001"));
+    Assert.assertTrue(ids.contains("urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0002"));
+    Assert.assertTrue(ids.contains("urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0003"));
+
+    mBaseRepo.deleteResource("urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0001", mMetadata);
+    mBaseRepo.deleteResource("urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0002", mMetadata);
+    mBaseRepo.deleteResource("urn:uuid:eea2cb2a-9f4c-11e5-945f-001999ac0003", mMetadata);
+  }
+
   @Test
   public void testZoomedPolygonQueryResults() throws IOException, InterruptedException {
     Logger.warn("Starting testZoomedPolygonQueryResults()");
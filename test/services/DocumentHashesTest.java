@@ -0,0 +1,60 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import models.Record;
+import models.Resource;
+import org.junit.Test;
+
+public class DocumentHashesTest {
+
+  @Test
+  public void testSkipUnchanged() throws IOException {
+
+    DocumentHashes documentHashes = new DocumentHashes();
+    Resource resource = new Resource("Person", "info:alice");
+    resource.put("name", "Alice");
+    Map<String, String> metadata = new HashMap<>();
+    metadata.put(Record.LINK_COUNT, "0");
+
+    long hash = documentHashes.hash(resource, metadata);
+    assertTrue(documentHashes.isChanged("info:alice", hash, false));
+    assertTrue(documentHashes.isChanged("info:alice", hash, false));
+    documentHashes.put("info:alice", hash);
+    assertFalse(documentHashes.isChanged("info:alice", documentHashes.hash(resource, metadata), false));
+    assertTrue(documentHashes.isChanged("info:alice", hash, true));
+
+    metadata.put(Record.LINK_COUNT, "1");
+    assertNotEquals(hash, documentHashes.hash(resource, metadata));
+
+    documentHashes.remove("info:alice");
+    assertTrue(documentHashes.isChanged("info:alice", hash, false));
+    assertEquals(1L, documentHashes.getMetrics().get("skipped"));
+    assertEquals(0.2, documentHashes.getMetrics().get("skip_ratio").doubleValue(), 0);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+
+    File file = new File(Files.createTempDirectory(null).toFile(), "hashes");
+    DocumentHashes documentHashes = new DocumentHashes();
+    documentHashes.put("info:alice", -42L);
+    documentHashes.put("info:bob", 42L);
+    documentHashes.save(file);
+
+    DocumentHashes loaded = new DocumentHashes();
+    loaded.load(file);
+    assertFalse(file.exists());
+    assertFalse(loaded.isChanged("info:alice", -42L, false));
+    assertFalse(loaded.isChanged("info:bob", 42L, false));
+    assertTrue(loaded.isChanged("info:carol", 42L, false));
+  }
+}
@@ -0,0 +1,119 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+public class ElasticsearchBulkWriterTest {
+
+  private Config mConfig = ConfigFactory.parseString(
+    "es.bulk.actions = 2\nes.bulk.backoff.initial = 1\nes.bulk.backoff.retries = 3\nes.bulk.flush.interval = 60");
+
+  @Test
+  public void testRetryRejectedItems() {
+    AtomicInteger rejections = new AtomicInteger(2);
+    List<String> indexed = new ArrayList<>();
+    AtomicInteger refreshes = new AtomicInteger();
+    ElasticsearchBulkWriter writer = new ElasticsearchBulkWriter((request, listener) -> {
+      List<BulkItemResponse> items = new ArrayList<>();
+      for (DocWriteRequest<?> item : request.requests()) {
+        if ("info:bob".equals(item.id()) && rejections.getAndDecrement() > 0) {
+          items.add(failure(items.size(), item, RestStatus.TOO_MANY_REQUESTS));
+        } else {
+          indexed.add(item.id());
+          items.add(success(items.size(), item));
+        }
+      }
+      listener.onResponse(new BulkResponse(items.toArray(new BulkItemResponse[0]), 1));
+    }, refreshes::incrementAndGet, mConfig);
+    writer.add(indexRequest("info:alice"));
+    writer.add(indexRequest("info:bob"));
+    writer.add(indexRequest("info:carol"));
+    writer.flush();
+    writer.close();
+    assertEquals(3, indexed.size());
+    assertEquals(1, refreshes.get());
+    Map<String, Long> metrics = writer.getMetrics();
+    assertEquals(3L, metrics.get("items").longValue());
+    assertEquals(2L, metrics.get("retries").longValue());
+    assertEquals(0L, metrics.get("failed_items").longValue());
+  }
+
+  @Test
+  public void testCountFailuresByStatus() {
+    ElasticsearchBulkWriter writer = new ElasticsearchBulkWriter((request, listener) -> {
+      List<BulkItemResponse> items = new ArrayList<>();
+      for (DocWriteRequest<?> item : request.requests()) {
+        items.add(failure(items.size(), item, "info:bob".equals(item.id())
+          ? RestStatus.TOO_MANY_REQUESTS : RestStatus.BAD_REQUEST));
+      }
+      listener.onResponse(new BulkResponse(items.toArray(new BulkItemResponse[0]), 1));
+    }, null, mConfig);
+    Set<String> failed = ConcurrentHashMap.newKeySet();
+    writer.setFailureListener(failed::add);
+    writer.add(indexRequest("info:alice"));
+    writer.add(indexRequest("info:bob"));
+    writer.flush();
+    writer.close();
+    assertEquals(new HashSet<>(Arrays.asList("info:alice", "info:bob")), failed);
+    Map<String, Long> metrics = writer.getMetrics();
+    assertEquals(0L, metrics.get("items").longValue());
+    assertEquals(2L, metrics.get("failed_items").longValue());
+    assertEquals(3L, metrics.get("retries").longValue());
+    assertEquals(1L, metrics.get("failures.BAD_REQUEST").longValue());
+    assertEquals(1L, metrics.get("failures.TOO_MANY_REQUESTS").longValue());
+  }
+
+  @Test
+  public void testCountVersionConflicts() {
+    ElasticsearchBulkWriter writer = new ElasticsearchBulkWriter((request, listener) -> {
+      List<BulkItemResponse> items = new ArrayList<>();
+      for (DocWriteRequest<?> item : request.requests()) {
+        items.add("info:bob".equals(item.id())
+          ? failure(items.size(), item, RestStatus.CONFLICT) : success(items.size(), item));
+      }
+      listener.onResponse(new BulkResponse(items.toArray(new BulkItemResponse[0]), 1));
+    }, null, mConfig);
+    writer.add(indexRequest("info:alice"));
+    writer.add(indexRequest("info:bob"));
+    writer.flush();
+    writer.close();
+    Map<String, Long> metrics = writer.getMetrics();
+    assertEquals(1L, metrics.get("items").longValue());
+    assertEquals(1L, metrics.get("conflicts").longValue());
+    assertEquals(0L, metrics.get("failed_items").longValue());
+  }
+
+  private static IndexRequest indexRequest(String aId) {
+    return new IndexRequest("test", "WebPage", aId).source("{}", XContentType.JSON);
+  }
+
+  private static BulkItemResponse success(int aItemId, DocWriteRequest<?> aRequest) {
+    return new BulkItemResponse(aItemId, DocWriteRequest.OpType.INDEX,
+      new IndexResponse(new ShardId(aRequest.index(), "_na_", 0), aRequest.type(), aRequest.id(), 1, 1, 1, true));
+  }
+
+  private static BulkItemResponse failure(int aItemId, DocWriteRequest<?> aRequest, RestStatus aStatus) {
+    return new BulkItemResponse(aItemId, DocWriteRequest.OpType.INDEX, new BulkItemResponse.Failure(
+      aRequest.index(), aRequest.type(), aRequest.id(), new ElasticsearchStatusException("failed", aStatus)));
+  }
+}
@@ -11,6 +11,7 @@ import org.junit.Test;
 import services.repository.ElasticsearchRepository;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,6 +42,15 @@ public class ElasticsearchRepositoryTest extends ElasticsearchTestGrid implement
     Assert.assertFalse(resourcesGotBack.contains(in2));
   }
 
+  @Test
+  public void testGetResourceAsync() throws IOException {
+    Resource in1 = getResourceFromJsonFile(
+      "BaseRepositoryTest/testGetResourcesWithWildcard.DB.1.json");
+    mElasticsearchRepo.addResource(in1, new HashMap<>());
+    Assert.assertEquals(in1, mElasticsearchRepo.getResourceAsync(in1.getId()).toCompletableFuture().join());
+    Assert.assertNull(mElasticsearchRepo.getResourceAsync("info:missing").toCompletableFuture().join());
+  }
+
   //@Test
   public void testUniqueFields() throws IOException {
     Resource in1 = getResourceFromJsonFile(
@@ -77,4 +87,24 @@ public class ElasticsearchRepositoryTest extends ElasticsearchTestGrid implement
     mElasticsearchRepo.addResource(in2, new HashMap<>());
     Assert.assertEquals(2, mElasticsearchRepo.getResources("\\*.@id", "info:123").size());
   }
+
+  @Test
+  public void testSwapAliasToRebuiltIndex() throws IOException {
+    Resource in1 = getResourceFromJsonFile(
+      "BaseRepositoryTest/testGetResourcesWithWildcard.DB.1.json");
+    ElasticsearchConfig config = mElasticsearchRepo.getConfig();
+    String index = config.createVersionedIndex();
+    ElasticsearchRepository rebuilt = mElasticsearchRepo.forIndex(index);
+    rebuilt.addResource(in1, new HashMap<>());
+    rebuilt.flush();
+    rebuilt.close();
+    Assert.assertNull(mElasticsearchRepo.getResource(in1.getId()));
+    Set<String> previous = config.swapAlias(index);
+    Assert.assertEquals(Collections.singleton(index), config.getAliasedIndices());
+    Assert.assertNotNull(mElasticsearchRepo.getResource(in1.getId()));
+    for (String previousIndex : previous) {
+      Assert.assertTrue(config.indexExists(previousIndex));
+      config.deleteIndex(previousIndex);
+    }
+  }
 }
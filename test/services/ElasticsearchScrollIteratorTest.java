@@ -0,0 +1,90 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Test;
+
+public class ElasticsearchScrollIteratorTest {
+
+  private static SearchResponse page(String aScrollId, String... aIds) {
+    return page(aScrollId, 1, aIds);
+  }
+
+  private static SearchResponse page(String aScrollId, float aMaxScore, String... aIds) {
+    SearchHit[] hits = new SearchHit[aIds.length];
+    for (int i = 0; i < aIds.length; i++) {
+      hits[i] = new SearchHit(i, aIds[i], null, Collections.emptyMap());
+    }
+    return new SearchResponse(new InternalSearchResponse(new SearchHits(hits, 3, aMaxScore), null, null, null,
+      false, null, 1), aScrollId, 1, 1, 0, 1, new ShardSearchFailure[0], SearchResponse.Clusters.EMPTY);
+  }
+
+  private static class PagedScroller implements ElasticsearchScrollIterator.Scroller {
+
+    private final Iterator<SearchResponse> mPages;
+    private final List<String> mScrolled = new ArrayList<>();
+    private final List<String> mCleared = new ArrayList<>();
+
+    PagedScroller(SearchResponse... aPages) {
+      mPages = Arrays.asList(aPages).iterator();
+    }
+
+    @Override
+    public SearchResponse scroll(String aScrollId) {
+      mScrolled.add(aScrollId);
+      return mPages.next();
+    }
+
+    @Override
+    public void clear(String aScrollId) {
+      mCleared.add(aScrollId);
+    }
+  }
+
+  @Test
+  public void testReadAllPages() {
+    PagedScroller scroller = new PagedScroller(page("scroll2", "info:carol"), page("scroll3"));
+    ElasticsearchScrollIterator hits = new ElasticsearchScrollIterator(page("scroll1", "info:alice", "info:bob"),
+      scroller);
+    List<String> ids = new ArrayList<>();
+    hits.forEachRemaining(hit -> ids.add(hit.getId()));
+    assertEquals(Arrays.asList("info:alice", "info:bob", "info:carol"), ids);
+    assertEquals(3, hits.getTotalHits());
+    assertEquals(Arrays.asList("scroll1", "scroll2"), scroller.mScrolled);
+    assertEquals(Collections.singletonList("scroll3"), scroller.mCleared);
+    assertFalse(hits.hasNext());
+  }
+
+  @Test
+  public void testMaxScoreOfFirstPage() {
+    PagedScroller scroller = new PagedScroller(page("scroll2", 2, "info:carol"), page("scroll3", Float.NaN));
+    ElasticsearchScrollIterator hits = new ElasticsearchScrollIterator(page("scroll1", 8, "info:alice", "info:bob"),
+      scroller);
+    assertEquals(8, hits.getMaxScore(), 0);
+    hits.forEachRemaining(hit -> assertEquals(8, hits.getMaxScore(), 0));
+    assertEquals(8, hits.getMaxScore(), 0);
+  }
+
+  @Test
+  public void testClearAbandonedScroll() throws IOException {
+    PagedScroller scroller = new PagedScroller(page("scroll2", "info:carol"));
+    try (ElasticsearchScrollIterator hits = new ElasticsearchScrollIterator(
+      page("scroll1", "info:alice", "info:bob"), scroller)) {
+      assertEquals("info:alice", hits.next().getId());
+    }
+    assertEquals(Collections.emptyList(), scroller.mScrolled);
+    assertEquals(Collections.singletonList("scroll1"), scroller.mCleared);
+  }
+}
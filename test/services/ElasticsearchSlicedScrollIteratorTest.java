@@ -0,0 +1,121 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Test;
+
+public class ElasticsearchSlicedScrollIteratorTest {
+
+  private static SearchResponse page(float... aScores) {
+    SearchHit[] hits = new SearchHit[aScores.length];
+    for (int i = 0; i < aScores.length; i++) {
+      hits[i] = new SearchHit(i, Float.toString(aScores[i]), null, Collections.emptyMap());
+      hits[i].score(aScores[i]);
+    }
+    return new SearchResponse(new InternalSearchResponse(new SearchHits(hits, 10,
+      aScores.length > 0 ? aScores[0] : Float.NaN), null, null, null, false, null, 1), "scroll", 1, 1, 0, 1,
+      new ShardSearchFailure[0], SearchResponse.Clusters.EMPTY);
+  }
+
+  private static Callable<ElasticsearchScrollIterator> slice(SearchResponse aFirstPage, SearchResponse... aPages) {
+    Iterator<SearchResponse> pages = Arrays.asList(aPages).iterator();
+    return () -> new ElasticsearchScrollIterator(aFirstPage, new ElasticsearchScrollIterator.Scroller() {
+      @Override
+      public SearchResponse scroll(String aScrollId) throws IOException {
+        if (!pages.hasNext()) {
+          throw new IOException("Scroll expired");
+        }
+        return pages.next();
+      }
+
+      @Override
+      public void clear(String aScrollId) {
+      }
+    });
+  }
+
+  private static List<String> read(ElasticsearchSlicedScrollIterator aHits) {
+    List<String> ids = new ArrayList<>();
+    aHits.forEachRemaining(hit -> ids.add(hit.getId()));
+    return ids;
+  }
+
+  @Test
+  public void testMergeInOrder() throws IOException {
+    ElasticsearchSlicedScrollIterator hits = new ElasticsearchSlicedScrollIterator(Arrays.asList(
+      slice(page(9, 6), page(3), page()),
+      slice(page(8, 7), page(2, 1), page()),
+      slice(page(5), page(4), page())
+    ), Comparator.comparing(SearchHit::getScore, Comparator.reverseOrder()));
+    assertEquals(30, hits.getTotalHits());
+    assertEquals(9, hits.getMaxScore(), 0);
+    assertEquals(Arrays.asList("9.0", "8.0", "7.0", "6.0", "5.0", "4.0", "3.0", "2.0", "1.0"), read(hits));
+  }
+
+  @Test
+  public void testMergeUnordered() throws IOException {
+    ElasticsearchSlicedScrollIterator hits = new ElasticsearchSlicedScrollIterator(Arrays.asList(
+      slice(page(1, 2), page(3), page()),
+      slice(page()),
+      slice(page(4), page(5, 6), page())
+    ), null);
+    List<String> ids = read(hits);
+    assertEquals(6, ids.size());
+    assertEquals(new HashSet<>(Arrays.asList("1.0", "2.0", "3.0", "4.0", "5.0", "6.0")), new HashSet<>(ids));
+  }
+
+  @Test
+  public void testFailSlice() throws IOException {
+    ElasticsearchSlicedScrollIterator hits = new ElasticsearchSlicedScrollIterator(Arrays.asList(
+      slice(page(1, 2), page()),
+      slice(page(3, 4))
+    ), null);
+    try {
+      read(hits);
+      fail("Failure of a slice not passed on");
+    } catch (UncheckedIOException e) {
+      assertEquals("Scroll expired", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testClearScrollsOnClose() throws IOException {
+    AtomicInteger cleared = new AtomicInteger();
+    Callable<ElasticsearchScrollIterator> endless = () -> new ElasticsearchScrollIterator(page(2, 1),
+      new ElasticsearchScrollIterator.Scroller() {
+        @Override
+        public SearchResponse scroll(String aScrollId) {
+          return page(2, 1);
+        }
+
+        @Override
+        public void clear(String aScrollId) {
+          cleared.incrementAndGet();
+        }
+      });
+    ElasticsearchSlicedScrollIterator hits = new ElasticsearchSlicedScrollIterator(Arrays.asList(endless, endless),
+      null);
+    hits.next();
+    hits.close();
+    assertEquals(2, cleared.get());
+    assertFalse(hits.hasNext());
+  }
+}
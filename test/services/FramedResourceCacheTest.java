@@ -0,0 +1,122 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import helpers.JsonTest;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import models.GraphHistory;
+import models.Resource;
+import models.TripleCommit;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import services.repository.TriplestoreRepository;
+
+public class FramedResourceCacheTest implements JsonTest {
+
+  private static final String CONTEXT = "https://oerworldmap.org/assets/json/context.json";
+  private static Map<String, String> mMetadata = new HashMap<>();
+
+  private Config mConfig = ConfigFactory.load(ClassLoader.getSystemClassLoader(), "test.conf");
+
+  private Model mDb;
+  private GraphHistory mGraphHistory;
+
+  @BeforeClass
+  public static void setUp() {
+    mMetadata.put(TripleCommit.Header.AUTHOR_HEADER, "Anonymous");
+    mMetadata.put(TripleCommit.Header.DATE_HEADER, "2016-04-08T17:34:37.038+02:00");
+  }
+
+  @Before
+  public void createHistory() throws IOException {
+    mDb = ModelFactory.createDefaultModel();
+    mGraphHistory = new GraphHistory(Files.createTempDirectory(null).toFile(),
+      Files.createTempFile(null, null).toFile());
+  }
+
+  @Test
+  public void testHitReturnsCopy() throws IOException {
+    FramedResourceCache cache = new FramedResourceCache(mDb, mGraphHistory, CONTEXT, 10, false);
+    commit(cache, "TriplestoreRepositoryTest/testAddResource.IN.1.json");
+    Resource first = cache.get("info:alice");
+    first.put("name", "Mallory");
+    Resource second = cache.get("info:alice");
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getHits());
+    assertEquals(getResourceFromJsonFile("TriplestoreRepositoryTest/testAddResource.IN.1.json").toJson(),
+      second.toJson());
+  }
+
+  @Test
+  public void testSmile() throws IOException {
+    FramedResourceCache cache = new FramedResourceCache(mDb, mGraphHistory, CONTEXT, 10, true);
+    commit(cache, "TriplestoreRepositoryTest/testAddResource.IN.1.json");
+    Resource expected = cache.get("info:alice");
+    assertEquals(expected.toJson(), cache.get("info:alice").toJson());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testInvalidateReferencedResource() throws IOException {
+    FramedResourceCache cache = new FramedResourceCache(mDb, mGraphHistory, CONTEXT, 10, false);
+    TriplestoreRepository repository = commit(cache, "TriplestoreRepositoryTest/testAddResource.IN.1.json");
+    repository.addResource(getResourceFromJsonFile("TriplestoreRepositoryTest/testAddResource.IN.2.json"),
+      mMetadata);
+    Resource alice = cache.get("info:alice");
+    Map<String, String> bob = new HashMap<>();
+    bob.put("@id", "info:bob");
+    alice.put("knows", bob);
+    repository.addResource(alice, mMetadata);
+    assertEquals("Bob", ((Map) cache.get("info:alice").getAsList("knows").get(0).get("name")).get("de"));
+
+    Resource renamed = repository.getResource("info:bob");
+    Map<String, String> name = new HashMap<>();
+    name.put("de", "Robert");
+    renamed.put("name", name);
+    repository.addResource(renamed, mMetadata);
+    assertEquals("Robert", ((Map) cache.get("info:alice").getAsList("knows").get(0).get("name")).get("de"));
+    assertTrue(cache.getInvalidations() > 0);
+  }
+
+  @Test
+  public void testStaleEntryIsNotServed() throws IOException {
+    FramedResourceCache cache = new FramedResourceCache(mDb, mGraphHistory, CONTEXT, 10, false);
+    TriplestoreRepository repository = commit(cache, "TriplestoreRepositoryTest/testAddResource.IN.1.json");
+    cache.get("info:alice");
+    // Bypass the invalidation through the repository
+    FramedResourceCache other = new FramedResourceCache(mDb, mGraphHistory, CONTEXT, 10, false);
+    TriplestoreRepository otherRepository = new TriplestoreRepository(mConfig, mDb, mGraphHistory, other);
+    otherRepository.deleteResource("info:alice", mMetadata);
+    assertNull(cache.get("info:alice"));
+    assertNull(repository.getResource("info:alice"));
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    FramedResourceCache cache = new FramedResourceCache(mDb, mGraphHistory, CONTEXT, 1, false);
+    commit(cache, "TriplestoreRepositoryTest/testAddResource.IN.1.json");
+    commit(cache, "TriplestoreRepositoryTest/testAddResource.IN.2.json");
+    cache.get("info:alice");
+    cache.get("info:bob");
+    cache.get("info:alice");
+    assertEquals(1, cache.size());
+    assertEquals(2, cache.getEvictions());
+    assertEquals(3, cache.getMisses());
+  }
+
+  private TriplestoreRepository commit(FramedResourceCache aCache, String aFile) throws IOException {
+    TriplestoreRepository repository = new TriplestoreRepository(mConfig, mDb, mGraphHistory, aCache);
+    repository.addResource(getResourceFromJsonFile(aFile), mMetadata);
+    return repository;
+  }
+}
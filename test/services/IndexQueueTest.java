@@ -0,0 +1,186 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import models.Resource;
+import models.TripleCommit;
+import org.apache.commons.io.IOUtils;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.Test;
+
+public class IndexQueueTest {
+
+  @Test
+  public void testCoalesceMessagesWithinWindow() throws IOException, InterruptedException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+
+    Map<String, AtomicInteger> writes = new ConcurrentHashMap<>();
+    MockResourceRepository mockResourceRepository = new MockResourceRepository() {
+      @Override
+      public void addResource(@Nonnull Resource aResource, Map<String, String> aMetadata) throws IOException {
+        writes.computeIfAbsent(aResource.getId(), k -> new AtomicInteger()).incrementAndGet();
+        super.addResource(aResource, aMetadata);
+      }
+    };
+    ResourceIndexer indexer = new ResourceIndexer(db, mockResourceRepository, null, null,
+      "https://oerworldmap.org/assets/json/context.json");
+
+    IndexQueue.Metrics metrics = new IndexQueue.Metrics();
+    ActorSystem system = ActorSystem.create();
+    try {
+      ActorRef queue = system.actorOf(IndexQueue.props(indexer, 500, metrics, null));
+      for (int i = 0; i < 5; i++) {
+        metrics.submitted(commit.getDiff());
+        queue.tell(commit.getDiff(), ActorRef.noSender());
+      }
+      metrics.submitted("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0456");
+      queue.tell("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0456", ActorRef.noSender());
+      long deadline = System.currentTimeMillis() + 10000;
+      while (metrics.getDepth() > 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+    } finally {
+      system.terminate();
+    }
+
+    assertEquals(0, metrics.getDepth());
+    assertEquals(1L, metrics.toMap().get("flushes"));
+    assertEquals(6.0, metrics.getCoalescingRatio(), 0);
+    assertEquals(3, mockResourceRepository.size());
+    for (AtomicInteger count : writes.values()) {
+      assertEquals(1, count.get());
+    }
+  }
+
+  @Test
+  public void testRecordCheckpoint() throws IOException, InterruptedException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+
+    MockResourceRepository mockResourceRepository = new MockResourceRepository();
+    ResourceIndexer indexer = new ResourceIndexer(db, mockResourceRepository, null, null,
+      "https://oerworldmap.org/assets/json/context.json");
+    IndexCheckpoint checkpoint = new IndexCheckpoint(new File(Files.createTempDirectory(null).toFile(),
+      "indexed"));
+    assertNull(checkpoint.read());
+
+    IndexQueue.Metrics metrics = new IndexQueue.Metrics();
+    ActorSystem system = ActorSystem.create();
+    try {
+      ActorRef queue = system.actorOf(IndexQueue.props(indexer, 0, metrics, checkpoint));
+      metrics.submitted(commit.getDiff());
+      queue.tell(new IndexQueue.Task(commit.getDiff(), commit.getId()), ActorRef.noSender());
+      long deadline = System.currentTimeMillis() + 10000;
+      while (metrics.getDepth() > 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+    } finally {
+      system.terminate();
+    }
+
+    assertEquals(3, mockResourceRepository.size());
+    assertEquals(commit.getId(), checkpoint.read());
+  }
+
+  @Test
+  public void testKeepCheckpointOnFailedFlush() throws IOException, InterruptedException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+
+    MockResourceRepository mockResourceRepository = new MockResourceRepository() {
+      @Override
+      public boolean flush() {
+        return false;
+      }
+    };
+    ResourceIndexer indexer = new ResourceIndexer(db, mockResourceRepository, null, null,
+      "https://oerworldmap.org/assets/json/context.json");
+    IndexCheckpoint checkpoint = new IndexCheckpoint(new File(Files.createTempDirectory(null).toFile(),
+      "indexed"));
+
+    IndexQueue.Metrics metrics = new IndexQueue.Metrics();
+    ActorSystem system = ActorSystem.create();
+    try {
+      ActorRef queue = system.actorOf(IndexQueue.props(indexer, 0, metrics, checkpoint));
+      metrics.submitted(commit.getDiff());
+      queue.tell(new IndexQueue.Task(commit.getDiff(), commit.getId()), ActorRef.noSender());
+      long deadline = System.currentTimeMillis() + 10000;
+      while (metrics.getDepth() > 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+    } finally {
+      system.terminate();
+    }
+
+    assertEquals(3, mockResourceRepository.size());
+    assertNull(checkpoint.read());
+  }
+
+  @Test
+  public void testAwaitCapacity() throws IOException, InterruptedException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+
+    ResourceIndexer indexer = new ResourceIndexer(db, new MockResourceRepository(), null, null,
+      "https://oerworldmap.org/assets/json/context.json");
+    IndexQueue.Metrics metrics = new IndexQueue.Metrics();
+    AtomicInteger processed = new AtomicInteger();
+    metrics.setListener(processed::incrementAndGet);
+    ActorSystem system = ActorSystem.create();
+    try {
+      ActorRef queue = system.actorOf(IndexQueue.props(indexer, 200, metrics, null));
+      for (int i = 0; i < 3; i++) {
+        metrics.submitted(commit.getDiff());
+        queue.tell(commit.getDiff(), ActorRef.noSender());
+      }
+      Thread.sleep(50);
+      assertEquals(3, metrics.getDepth());
+      assertEquals(3 * IndexQueue.weigh(commit.getDiff()), metrics.getLoad());
+      assertTrue(metrics.getOldestAge() >= 50);
+      assertFalse(metrics.awaitCapacity(1, 10));
+      assertTrue(metrics.awaitCapacity(1, 10000));
+    } finally {
+      system.terminate();
+    }
+
+    assertEquals(0, metrics.getDepth());
+    assertEquals(0, metrics.getLoad());
+    assertEquals(0, metrics.getOldestAge());
+    assertTrue(metrics.getLag() >= 200);
+    assertEquals(1, processed.get());
+  }
+}
@@ -1,14 +1,31 @@
 package services;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import helpers.JsonTest;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import models.GraphHistory;
+import models.Record;
+import models.Resource;
 import models.TripleCommit;
 import org.apache.commons.io.IOUtils;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.vocabulary.RDF;
 import org.junit.Test;
 
 /**
@@ -47,4 +64,194 @@ public class IndexerTest implements JsonTest {
     assertNotNull(
       mockResourceRepository.getResource("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0123"));
   }
+
+  @Test
+  public void testIndexInParallel() throws IOException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+
+    MockResourceRepository mockResourceRepository = new MockResourceRepository();
+    ResourceIndexer indexer = new ResourceIndexer(db, mockResourceRepository, null, null,
+      new FramedResourceCache(db, null, "https://oerworldmap.org/assets/json/context.json", 0, false), 4, 2);
+    indexer.index("*");
+
+    assertEquals(3, mockResourceRepository.size());
+    assertNotNull(
+      mockResourceRepository.getResource("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0789"));
+    assertNotNull(
+      mockResourceRepository.getResource("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0456"));
+    assertNotNull(
+      mockResourceRepository.getResource("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0123"));
+  }
+
+  @Test
+  public void testReindexFromCursor() throws IOException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+
+    MockResourceRepository mockResourceRepository = new MockResourceRepository();
+    ResourceIndexer indexer = new ResourceIndexer(db, mockResourceRepository, null, null,
+      "https://oerworldmap.org/assets/json/context.json");
+    assertEquals(1, indexer.reindex("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0456"));
+
+    assertEquals(1, mockResourceRepository.size());
+    assertNotNull(
+      mockResourceRepository.getResource("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0789"));
+    ReindexProgress progress = indexer.getReindexProgress();
+    assertFalse(progress.isRunning());
+    assertEquals(3L, progress.toMap().get("done"));
+    assertEquals(3L, progress.toMap().get("total"));
+    assertEquals("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0789", progress.getCursor());
+
+    assertEquals(3, indexer.reindex(null));
+    assertEquals(3, mockResourceRepository.size());
+  }
+
+  @Test
+  public void testVersionFromHistory() throws IOException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+    GraphHistory graphHistory = new GraphHistory(Files.createTempDirectory(null).toFile(),
+      Files.createTempFile(null, null).toFile());
+    graphHistory.add(commit);
+
+    TripleCommit.Diff diff = new TripleCommit.Diff();
+    diff.addStatement(db.createStatement(db.createResource("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0789"),
+      db.createProperty("http://schema.org/", "description"), db.createLiteral("Neu", "de")));
+    diff.apply(db);
+    graphHistory.add(new TripleCommit(new TripleCommit.Header("Anonymous", ZonedDateTime.now()), diff));
+
+    Map<String, Long> versions = new HashMap<>();
+    MockResourceRepository mockResourceRepository = new MockResourceRepository() {
+      @Override
+      public void addResources(@Nonnull List<Resource> aResources, @Nonnull List<Map<String, String>> aMetadata,
+                               @Nonnull List<Long> aVersions) throws IOException {
+        for (int i = 0; i < aResources.size(); i++) {
+          versions.put(aResources.get(i).getId(), aVersions.get(i));
+        }
+        super.addResources(aResources, aMetadata, aVersions);
+      }
+    };
+    ResourceIndexer indexer = new ResourceIndexer(db, mockResourceRepository, graphHistory, null,
+      new FramedResourceCache(db, graphHistory, "https://oerworldmap.org/assets/json/context.json", 0, false));
+    indexer.index(diff);
+
+    assertEquals(2L, versions.get("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0789").longValue());
+    assertEquals(2L, versions.get("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0456").longValue());
+    assertEquals(1L, indexer.getVersion(
+      indexer.getResource("info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0789"), 1));
+  }
+
+  @Test
+  public void testUpdateMetadataOnly() throws IOException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+    GraphHistory graphHistory = new GraphHistory(Files.createTempDirectory(null).toFile(),
+      Files.createTempFile(null, null).toFile());
+    graphHistory.add(commit);
+
+    Set<String> framed = new HashSet<>();
+    Map<String, Map<String, String>> updated = new HashMap<>();
+    MockResourceRepository mockResourceRepository = new MockResourceRepository() {
+      @Override
+      public void addResources(@Nonnull List<Resource> aResources, @Nonnull List<Map<String, String>> aMetadata,
+                               @Nonnull List<Long> aVersions) throws IOException {
+        for (Resource resource : aResources) {
+          framed.add(resource.getId());
+        }
+        super.addResources(aResources, aMetadata, aVersions);
+      }
+
+      @Override
+      public void updateMetadata(@Nonnull List<String> aIds, @Nonnull List<Map<String, String>> aMetadata) {
+        for (int i = 0; i < aIds.size(); i++) {
+          updated.put(aIds.get(i), aMetadata.get(i));
+        }
+      }
+    };
+    ResourceIndexer indexer = new ResourceIndexer(db, mockResourceRepository, graphHistory,
+      new MemoryAccountService(), "https://oerworldmap.org/assets/json/context.json");
+
+    // A property not embedded in referring documents, the object is only referred to
+    String article = "info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0789";
+    String otherArticle = "info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0123";
+    String person = "info:urn:uuid:58ea1dfc-23bb-11e5-8892-001999ac0456";
+    TripleCommit.Diff diff = new TripleCommit.Diff();
+    diff.addStatement(db.createStatement(db.createResource(article),
+      db.createProperty("http://schema.org/", "about"), db.createResource(otherArticle)));
+    diff.apply(db);
+    graphHistory.add(new TripleCommit(new TripleCommit.Header("Anonymous", ZonedDateTime.now()), diff));
+    indexer.index(diff);
+
+    assertEquals(new HashSet<>(Arrays.asList(article)), framed);
+    assertEquals(1, updated.size());
+    assertNotNull(updated.get(otherArticle).get(Record.DATE_MODIFIED));
+    assertEquals(1L, indexer.getMetrics().get("metadata_updates"));
+
+    // A like changes the liked resource and the agent, but not the resources referring to them
+    framed.clear();
+    updated.clear();
+    Property object = db.createProperty("http://schema.org/", "object");
+    Property agent = db.createProperty("http://schema.org/", "agent");
+    RDFNode like = db.createResource("info:like");
+    diff = new TripleCommit.Diff();
+    diff.addStatement(db.createStatement(like.asResource(), RDF.type,
+      db.createResource("http://schema.org/LikeAction")));
+    diff.addStatement(db.createStatement(like.asResource(), object, db.createResource(otherArticle)));
+    diff.addStatement(db.createStatement(like.asResource(), agent, db.createResource(person)));
+    diff.addStatement(db.createStatement(db.createResource(otherArticle),
+      db.createProperty("http://schema.org/", "objectIn"), like));
+    diff.addStatement(db.createStatement(db.createResource(person),
+      db.createProperty("http://schema.org/", "agentIn"), like));
+    diff.apply(db);
+    graphHistory.add(new TripleCommit(new TripleCommit.Header("Anonymous", ZonedDateTime.now()), diff));
+    indexer.index(diff);
+
+    assertEquals(new HashSet<>(Arrays.asList("info:like", otherArticle, person)), framed);
+    assertEquals(0, updated.size());
+  }
+
+  @Test
+  public void testSkipUnchangedDocuments() throws IOException {
+
+    Model db = ModelFactory.createDefaultModel();
+    String commitString = IOUtils.toString(
+      ClassLoader.getSystemResourceAsStream("IndexerTest/testNewResourceWithNewReference.IN.ndiff"),
+      "UTF-8");
+    TripleCommit commit = TripleCommit.fromString(commitString);
+    commit.getDiff().apply(db);
+
+    MockResourceRepository mockResourceRepository = new MockResourceRepository();
+    ResourceIndexer indexer = new ResourceIndexer(db, mockResourceRepository, null, null,
+      "https://oerworldmap.org/assets/json/context.json");
+    indexer.index(commit.getDiff());
+    assertEquals(3L, indexer.getDocumentHashes().getMetrics().get("written"));
+
+    indexer.index(commit.getDiff());
+    assertEquals(3L, indexer.getDocumentHashes().getMetrics().get("written"));
+    assertEquals(3L, indexer.getDocumentHashes().getMetrics().get("skipped"));
+
+    assertEquals(3, indexer.reindex(null));
+    assertEquals(6L, indexer.getDocumentHashes().getMetrics().get("written"));
+  }
 }
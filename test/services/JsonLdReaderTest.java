@@ -0,0 +1,66 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import helpers.JsonTest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import models.Resource;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.Test;
+
+/**
+ * Checks reading with the preloaded context against Jena's JSON-LD reader.
+ */
+public class JsonLdReaderTest implements JsonTest {
+
+  @Test
+  public void testReadOrganization() throws IOException {
+    assertIsomorphic(getResourceFromJsonFile("ResourceIndexTest/testOrganization.json"));
+  }
+
+  @Test
+  public void testReadEventWithTypedLiterals() throws IOException {
+    assertIsomorphic(getResourceFromJsonFile("ResourceIndexTest/testEvent.json"));
+  }
+
+  @Test
+  public void testReadNestedResources() throws IOException {
+    for (Resource resource : getResourcesFromJsonDir("BaseRepositoryTest/")) {
+      assertIsomorphic(resource);
+    }
+  }
+
+  @Test
+  public void testReadDistinguishesBlankNodes() throws IOException {
+    Resource resource = getResourceFromJsonFile("ResourceIndexTest/testOrganization.json");
+    Model model = ModelFactory.createDefaultModel();
+    JsonLdReader.read(model, resource.toString());
+    JsonLdReader.read(model, resource.toString());
+    Model expected = ModelFactory.createDefaultModel();
+    RDFDataMgr.read(expected, new ByteArrayInputStream(resource.toString().getBytes(StandardCharsets.UTF_8)),
+      Lang.JSONLD);
+    RDFDataMgr.read(expected, new ByteArrayInputStream(resource.toString().getBytes(StandardCharsets.UTF_8)),
+      Lang.JSONLD);
+    assertEquals(expected.size(), model.size());
+  }
+
+  @Test
+  public void testContextIsRegistered() {
+    assertTrue(JsonLdContextRegistry.isRegistered("https://oerworldmap.org/assets/json/context.json"));
+  }
+
+  private void assertIsomorphic(Resource aResource) throws IOException {
+    Model expected = ModelFactory.createDefaultModel();
+    RDFDataMgr.read(expected, new ByteArrayInputStream(aResource.toString().getBytes(StandardCharsets.UTF_8)),
+      Lang.JSONLD);
+    Model actual = ModelFactory.createDefaultModel();
+    JsonLdReader.read(actual, aResource.toString());
+    assertTrue(aResource.getId(), expected.isIsomorphicWith(actual));
+  }
+}
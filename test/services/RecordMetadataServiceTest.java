@@ -0,0 +1,105 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import models.GraphHistory;
+import models.Record;
+import models.TripleCommit;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordMetadataServiceTest {
+
+  private static final String SCHEMA = "http://schema.org/";
+
+  private Model mModel = ModelFactory.createDefaultModel();
+  private Resource mTarget = mModel.createResource("info:target");
+  private Property mObject = mModel.createProperty(SCHEMA, "object");
+  private Property mObjectIn = mModel.createProperty(SCHEMA, "objectIn");
+  private Resource mLikeAction = mModel.createResource(SCHEMA.concat("LikeAction"));
+  private Resource mLighthouseAction = mModel.createResource(SCHEMA.concat("LighthouseAction"));
+
+  private GraphHistory mGraphHistory;
+  private MemoryAccountService mAccountService;
+
+  @Before
+  public void setUp() throws IOException {
+    File historyDir = Files.createTempDirectory(null).toFile();
+    File historyFile = Files.createTempFile(null, null).toFile();
+    mGraphHistory = new GraphHistory(historyDir, historyFile);
+    mAccountService = new MemoryAccountService();
+    mAccountService.setProfileId("alice", "info:alice");
+    mAccountService.setProfileId("bob", "info:bob");
+  }
+
+  private TripleCommit commit(String aAuthor, String aTimestamp, TripleCommit.Diff aDiff) {
+    return new TripleCommit(new TripleCommit.Header(aAuthor, ZonedDateTime.parse(aTimestamp)), aDiff);
+  }
+
+  private TripleCommit.Diff action(String aId, Resource aType, boolean aAdd) {
+    Resource action = mModel.createResource(aId);
+    TripleCommit.Diff diff = new TripleCommit.Diff();
+    if (aAdd) {
+      diff.addStatement(mModel.createStatement(action, RDF.type, aType));
+      diff.addStatement(mModel.createStatement(action, mObject, mTarget));
+      diff.addStatement(mModel.createStatement(mTarget, mObjectIn, action));
+    } else {
+      diff.removeStatement(mModel.createStatement(action, RDF.type, aType));
+      diff.removeStatement(mModel.createStatement(action, mObject, mTarget));
+      diff.removeStatement(mModel.createStatement(mTarget, mObjectIn, action));
+    }
+    return diff;
+  }
+
+  @Test
+  public void testBuildFromHistory() throws IOException {
+
+    TripleCommit.Diff created = new TripleCommit.Diff();
+    created.addStatement(mModel.createStatement(mTarget, RDF.type, mModel.createResource(SCHEMA.concat("Event"))));
+    mGraphHistory.add(commit("alice", "2018-01-01T10:00:00+01:00", created));
+    mGraphHistory.add(commit("bob", "2018-02-01T10:00:00+01:00", action("info:like1", mLikeAction, true)));
+
+    Map<String, String> metadata = new RecordMetadataService(mGraphHistory, mAccountService)
+      .getMetadata("info:target");
+    assertEquals("2018-01-01T10:00:00+01:00", metadata.get(Record.DATE_CREATED));
+    assertEquals("2018-02-01T10:00:00+01:00", metadata.get(Record.DATE_MODIFIED));
+    assertEquals("info:alice", metadata.get(Record.AUTHOR));
+    assertEquals("info:bob", metadata.get(Record.CONTRIBUTOR));
+    assertEquals("1", metadata.get(Record.LIKE_COUNT));
+    assertEquals("0", metadata.get(Record.LIGHTHOUSE_COUNT));
+  }
+
+  @Test
+  public void testUpdateFromCommits() throws IOException {
+
+    RecordMetadataService recordMetadataService = new RecordMetadataService(mGraphHistory, mAccountService);
+    assertNull(recordMetadataService.getMetadata("info:target").get(Record.DATE_CREATED));
+
+    mGraphHistory.add(commit("alice", "2018-01-01T10:00:00+01:00", action("info:like1", mLikeAction, true)));
+    mGraphHistory.add(commit("bob", "2018-01-02T10:00:00+01:00", action("info:like2", mLikeAction, true)));
+    mGraphHistory.add(commit("bob", "2018-01-03T10:00:00+01:00",
+      action("info:lighthouse1", mLighthouseAction, true)));
+    Map<String, String> metadata = recordMetadataService.getMetadata("info:target");
+    assertEquals("2", metadata.get(Record.LIKE_COUNT));
+    assertEquals("1", metadata.get(Record.LIGHTHOUSE_COUNT));
+    assertEquals("info:alice", metadata.get(Record.AUTHOR));
+    assertEquals("2018-01-03T10:00:00+01:00", metadata.get(Record.DATE_MODIFIED));
+
+    mGraphHistory.add(commit("alice", "2018-01-04T10:00:00+01:00", action("info:like1", mLikeAction, false)));
+    metadata = recordMetadataService.getMetadata("info:target");
+    assertEquals("1", metadata.get(Record.LIKE_COUNT));
+    assertEquals("1", metadata.get(Record.LIGHTHOUSE_COUNT));
+    assertEquals("info:alice", metadata.get(Record.CONTRIBUTOR));
+  }
+}
@@ -0,0 +1,131 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import helpers.JsonTest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import models.Resource;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.ResIterator;
+import org.junit.Test;
+
+/**
+ * Checks the native framer against the output of the jsonld-java based framer.
+ */
+public class ResourceFramerTest implements JsonTest {
+
+  private static final String CONTEXT = "https://oerworldmap.org/assets/json/context.json";
+
+  @Test
+  public void testFrameOrganization() throws IOException {
+    assertCompatible(getResourceFromJsonFile("ResourceIndexTest/testOrganization.json").toModel());
+  }
+
+  @Test
+  public void testFrameEventWithTypedLiterals() throws IOException {
+    assertCompatible(getResourceFromJsonFile("ResourceIndexTest/testEvent.json").toModel());
+  }
+
+  @Test
+  public void testFrameCircularReferences() throws IOException {
+    Model model = ModelFactory.createDefaultModel();
+    model.add(getResourceFromJsonFile("TriplestoreRepositoryTest/testAddResource.IN.1.json").toModel());
+    model.add(getResourceFromJsonFile("TriplestoreRepositoryTest/testAddResource.IN.2.json").toModel());
+    model.add(getResourceFromJsonFile(
+      "TriplestoreRepositoryTest/testAddResourceWithReferences.IN.1.json").toModel());
+    assertCompatible(model);
+  }
+
+  @Test
+  public void testFrameNestedResources() throws IOException {
+    Model model = ModelFactory.createDefaultModel();
+    for (Resource resource : getResourcesFromJsonDir("BaseRepositoryTest/")) {
+      model.add(resource.toModel());
+    }
+    assertCompatible(model);
+  }
+
+  @Test
+  public void testFrameConcepts() throws IOException {
+    assertCompatible(getResourceFromJsonFile(
+      "ResourceEnricherTest/testEnrichBroaderESCConcepts.OUT.json").toModel());
+  }
+
+  @Test
+  public void testFrameMissingResource() throws IOException {
+    Model model = getResourceFromJsonFile("ResourceIndexTest/testOrganization.json").toModel();
+    assertNull(ResourceFramer.resourceFromModel(model, "info:missing", CONTEXT));
+  }
+
+  @Test
+  public void testFlatten() throws IOException {
+    for (Resource resource : getResourcesFromJsonDir("BaseRepositoryTest/")) {
+      Model expected = resource.toModel();
+      Model actual = ModelFactory.createDefaultModel();
+      List<Resource> flattened = ResourceFramer.flatten(resource, CONTEXT);
+      assertEquals(expected.listSubjects().filterKeep(RDFNode::isURIResource).toList().size(), flattened.size());
+      for (Resource flat : flattened) {
+        for (Object value : flat.values()) {
+          if (value instanceof Resource && ((Resource) value).hasId()) {
+            assertEquals(1, ((Resource) value).size());
+          }
+        }
+        actual.add(flat.toModel());
+      }
+      assertTrue(resource.getId(), expected.isIsomorphicWith(actual));
+    }
+  }
+
+  private void assertCompatible(Model aModel) throws IOException {
+    ResIterator subjects = aModel.listSubjects();
+    while (subjects.hasNext()) {
+      org.apache.jena.rdf.model.Resource subject = subjects.next();
+      if (!subject.isURIResource()) {
+        continue;
+      }
+      Resource expected = JsonLdReferenceFramer.resourceFromModel(aModel, subject.getURI(), CONTEXT);
+      Resource actual = ResourceFramer.resourceFromModel(aModel, subject.getURI(), CONTEXT);
+      assertNotNull(actual);
+      assertEquals(subject.getURI(), canonicalize(expected.toJson()).toString(),
+        canonicalize(actual.toJson()).toString());
+    }
+  }
+
+  private JsonNode canonicalize(JsonNode aNode) {
+    if (aNode.isObject()) {
+      Map<String, JsonNode> fields = new TreeMap<>();
+      Iterator<Map.Entry<String, JsonNode>> it = aNode.fields();
+      while (it.hasNext()) {
+        Map.Entry<String, JsonNode> field = it.next();
+        fields.put(field.getKey(), canonicalize(field.getValue()));
+      }
+      ObjectNode result = JsonNodeFactory.instance.objectNode();
+      fields.forEach(result::set);
+      return result;
+    } else if (aNode.isArray()) {
+      List<JsonNode> entries = new ArrayList<>();
+      for (JsonNode entry : aNode) {
+        entries.add(canonicalize(entry));
+      }
+      entries.sort((a, b) -> a.toString().compareTo(b.toString()));
+      ArrayNode result = JsonNodeFactory.instance.arrayNode();
+      result.addAll(entries);
+      return result;
+    }
+    return aNode;
+  }
+}
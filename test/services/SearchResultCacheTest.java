@@ -0,0 +1,95 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import models.Resource;
+import org.junit.Test;
+
+public class SearchResultCacheTest {
+
+  private static List<Resource> items(String... aIds) {
+    Resource[] items = new Resource[aIds.length];
+    for (int i = 0; i < aIds.length; i++) {
+      items[i] = new Resource("Event", aIds[i]);
+    }
+    return Arrays.asList(items);
+  }
+
+  @Test
+  public void testServeCopies() {
+    SearchResultCache cache = new SearchResultCache(10, 0);
+    cache.put("events", cache.getGeneration(), items("info:alice", "info:bob"), 42, 0);
+    SearchResultCache.Page page = cache.get("events");
+    assertNotNull(page);
+    assertEquals(42, page.getTotalItems());
+    assertEquals("info:bob", page.getItems().get(1).getId());
+    page.getItems().get(0).put("name", "Changed");
+    assertNull(cache.get("events").getItems().get(0).get("name"));
+    assertEquals(2L, cache.getMetrics().get("hits").longValue());
+  }
+
+  @Test
+  public void testInvalidateOnNewGeneration() {
+    SearchResultCache cache = new SearchResultCache(10, 0);
+    long generation = cache.getGeneration();
+    cache.put("events", generation, items("info:alice"), 1, 0);
+    cache.invalidate();
+    assertNull(cache.get("events"));
+    // Results read before the index changed are not cached
+    cache.put("events", generation, items("info:alice"), 1, 0);
+    assertNull(cache.get("events"));
+    cache.put("events", cache.getGeneration(), items("info:alice", "info:bob"), 2, 0);
+    assertEquals(2, cache.get("events").getTotalItems());
+  }
+
+  @Test
+  public void testExpire() throws InterruptedException {
+    SearchResultCache cache = new SearchResultCache(10, 200);
+    cache.invalidate();
+    cache.put("events", cache.getGeneration(), items("info:alice"), 1, 0);
+    assertNotNull(cache.get("events"));
+    Thread.sleep(250);
+    // Read within the refresh interval after the index changed
+    assertNull(cache.get("events"));
+    cache.put("events", cache.getGeneration(), items("info:alice"), 1, 0);
+    cache.put("upcoming", cache.getGeneration(), items("info:alice"), 1, 10);
+    Thread.sleep(20);
+    assertNotNull(cache.get("events"));
+    assertNull(cache.get("upcoming"));
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsed() {
+    SearchResultCache cache = new SearchResultCache(2, 0);
+    cache.put("a", cache.getGeneration(), items("info:a"), 1, 0);
+    cache.put("b", cache.getGeneration(), items("info:b"), 1, 0);
+    assertNotNull(cache.get("a"));
+    cache.put("c", cache.getGeneration(), Collections.emptyList(), 0, 0);
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("a"));
+    assertNotNull(cache.get("c"));
+    assertEquals(1L, cache.getMetrics().get("evictions").longValue());
+  }
+
+  @Test
+  public void testServeFacets() {
+    SearchResultCache cache = new SearchResultCache(10, 0);
+    Map<String, Long> types = new LinkedHashMap<>();
+    types.put("Organization", 3L);
+    types.put("Event", 1L);
+    cache.put("types", cache.getGeneration(), items("info:alice"), 4, Collections.singletonMap("type", types), 0);
+    cache.put("events", cache.getGeneration(), items("info:alice"), 1, 0);
+    Map<String, Map<String, Long>> facets = cache.get("types").getFacets();
+    assertEquals(Arrays.asList("Organization", "Event"), new ArrayList<>(facets.get("type").keySet()));
+    assertEquals(3L, facets.get("type").get("Organization").longValue());
+    assertNull(cache.get("events").getFacets());
+  }
+}
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertTrue;
 
 import helpers.JsonTest;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
@@ -55,6 +56,18 @@ public class CalendarExporterTest implements JsonTest {
     compare(exported, expected);
   }
 
+  @Test
+  public void testStreamingExport() throws IOException {
+    ResourceList fragmentaryResources = getResourcesFromPagedCollectionFile(
+      "CalendarExporterTest/testFragmentaryResourcesListExport.IN.1.json");
+    StringWriter writer = new StringWriter();
+    mExporter.export(fragmentaryResources.getItems(), writer);
+    List<String> expected = splitLines(
+      getStringFromFile("CalendarExporterTest/testFragmentaryResourcesListExport.OUT.1.iCal",
+        StandardCharsets.UTF_8));
+    compare(splitLines(writer.toString()), expected);
+  }
+
   @Test
   public void testFragmentaryResourcesListExport() throws IOException {
     ResourceList fragmentaryResources = getResourcesFromPagedCollectionFile(
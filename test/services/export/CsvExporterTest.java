@@ -1,5 +1,6 @@
 package services.export;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import helpers.JsonTest;
@@ -8,8 +9,12 @@ import models.ResourceList;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.regex.Pattern;
 
 public class CsvExporterTest implements JsonTest {
 
@@ -31,4 +36,26 @@ public class CsvExporterTest implements JsonTest {
     assertEquals(expected, mCsvExporter.export(resourceList));
   }
 
+  @Test
+  public void testStreamingExport() throws IOException {
+    Resource in1 = getResourceFromJsonFile("CsvExporterTest/testPlainExport.IN.1.json");
+    Resource in2 = getResourceFromJsonFile("CsvExporterTest/testPlainExport.IN.2.json");
+    StringWriter writer = new StringWriter();
+    // Resources read from a scroll are only read once
+    Iterator<Resource> resources = Arrays.asList(in1, in2).iterator();
+    mCsvExporter.export(() -> resources, writer);
+    String expected = getStringFromFile("CsvExporterTest/testPlainExport.OUT.2.csv", StandardCharsets.UTF_8);
+    assertEquals(expected, writer.toString());
+  }
+
+  @Test
+  public void testSourceFields() {
+    assertArrayEquals(new String[]{"about.@id", "about.@type", "about.additionalType.name.en", "about.agent.name.en",
+      "about.description.en", "about.endDate", "about.endTime", "about.location.address", "about.name.en",
+      "about.primarySector.name.en", "about.provider.name.en", "about.startDate", "about.startTime", "about.url"},
+      mCsvExporter.getSourceFields());
+    assertArrayEquals(new String[]{"about"},
+      new CsvExporter(Collections.singletonList(Pattern.compile(".*/name/en"))).getSourceFields());
+  }
+
 }